@@ -39,6 +39,18 @@ sourceSets {
             srcDir("test-private")
         }
     }
+
+    // Benchmarks of the compiler in src/jmh/java, run with 'gradle jmh'
+    create("jmh") {
+        compileClasspath += sourceSets["main"].output
+        runtimeClasspath += sourceSets["main"].output
+    }
+}
+
+configurations {
+    named("jmhImplementation") {
+        extendsFrom(configurations["implementation"])
+    }
 }
 
 application {
@@ -51,6 +63,9 @@ application {
 
 dependencies {
     implementation(fileTree("libs") { include("*.jar") })
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 tasks {
@@ -70,6 +85,25 @@ tasks {
         duplicatesStrategy = DuplicatesStrategy.EXCLUDE
     }
 
+    // Not part of 'build', benchmarks take minutes. Once the dependencies are downloaded, it also runs with
+    // '--offline'. JMH options go in -Pjmh, e.g. gradle jmh -Pjmh="-p input=Alg -f 1"
+    register<JavaExec>("jmh") {
+        group = "benchmark"
+        description = "Runs the JMH benchmarks of the compiler, with the GC profiler"
+
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass = "org.openjdk.jmh.Main"
+
+        val results = layout.buildDirectory.file("reports/jmh/results.json")
+        outputs.upToDateWhen { false }
+        doFirst {
+            results.get().asFile.parentFile.mkdirs()
+        }
+
+        args = listOf("-prof", "gc", "-rf", "json", "-rff", results.get().asFile.path) +
+                (findProperty("jmh") as String? ?: "").split(" ").filter { it.isNotBlank() }
+    }
+
     test {
         // On macOS, this prevents Java icon from being added to Dock
         // and stealing focus when "gradle test" is called
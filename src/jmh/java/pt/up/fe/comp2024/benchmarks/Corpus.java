@@ -0,0 +1,80 @@
+package pt.up.fe.comp2024.benchmarks;
+
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.generator.ProgramGenerator;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The programs the benchmarks compile, named by the <code>input</code> parameter of each benchmark:
+ * <ul>
+ *     <li><code>corpus</code>, every program in <code>src/jmh/resources/corpus</code>, which use the classes in
+ *     libs-jmm;</li>
+ *     <li>the name of one of those programs, e.g. <code>Alg</code>;</li>
+ *     <li><code>synthetic-N</code>, a class with N methods from the {@link ProgramGenerator}.</li>
+ * </ul>
+ * The same input is always the same code, so results of different runs can be compared.
+ */
+public class Corpus {
+
+    public static final String ALL = "corpus";
+
+    private static final String SYNTHETIC = "synthetic-";
+
+    /**
+     * Changing it changes every synthetic input, so results stop being comparable with earlier runs.
+     */
+    private static final long SEED = 2024;
+
+    private static final List<String> PROGRAMS = List.of("Simple", "Loop", "Cond", "Bool", "Nest", "Copy", "Alg",
+            "Inl", "Shake", "Fold", "Unroll", "Promo", "Hot", "Sccp");
+
+    public static List<String> load(String input) {
+        if (input.equals(ALL)) {
+            return PROGRAMS.stream().map(Corpus::program).toList();
+        }
+
+        if (input.startsWith(SYNTHETIC)) {
+            return List.of(synthetic(Integer.parseInt(input.substring(SYNTHETIC.length()))));
+        }
+
+        if (!PROGRAMS.contains(input)) {
+            throw new RuntimeException("Unknown benchmark input '" + input + "', expected '" + ALL + "', '"
+                    + SYNTHETIC + "N' or one of " + PROGRAMS);
+        }
+
+        return List.of(program(input));
+    }
+
+    /**
+     * @return the config of the benchmarks, with every optimization if <code>optimize</code> is set
+     */
+    public static Map<String, String> config(boolean optimize) {
+        final Map<String, String> config = CompilerConfig.getDefault();
+        config.put("optimize", Boolean.toString(optimize));
+
+        return config;
+    }
+
+    /**
+     * Some stages print while they work, which would be measured as well.
+     */
+    public static void silenceOutput() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    private static String program(String name) {
+        return SpecsIo.getResource("corpus/" + name + ".jmm");
+    }
+
+    /**
+     * A class with the given number of methods, and the default shape of the generator otherwise.
+     */
+    private static String synthetic(int methods) {
+        return new ProgramGenerator(SEED, ProgramGenerator.Options.DEFAULT.withMethods(methods)).generate("Synthetic");
+    }
+}
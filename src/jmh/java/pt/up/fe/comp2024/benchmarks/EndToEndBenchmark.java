@@ -0,0 +1,69 @@
+package pt.up.fe.comp2024.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.up.fe.comp2024.CompilationResult;
+import pt.up.fe.comp2024.CompilerSession;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole compiler, from J-- code to Jasmin code, as a {@link CompilerSession} that compiles one program after
+ * the other.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({Corpus.ALL, "synthetic-10", "synthetic-100", "synthetic-1000"})
+    public String input;
+
+    @Param({"false", "true"})
+    public boolean optimize;
+
+    private List<String> codes;
+
+    private CompilerSession session;
+
+    @Setup(Level.Trial)
+    public void openSession() {
+        Corpus.silenceOutput();
+
+        codes = Corpus.load(input);
+        session = CompilerSession.open(Corpus.config(optimize));
+    }
+
+    @TearDown(Level.Trial)
+    public void closeSession() {
+        session.close();
+    }
+
+    @Benchmark
+    public void compile(Blackhole blackhole) {
+        for (final String code : codes) {
+            final CompilationResult result = session.compile(code);
+            if (!result.isSuccess()) {
+                throw new RuntimeException("Benchmark input '" + input + "' doesn't compile: " + result.getReports());
+            }
+
+            blackhole.consume(result);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package pt.up.fe.comp2024.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.optimization.JmmOptimizationImpl;
+import pt.up.fe.comp2024.optimization.OllirGeneratorVisitor;
+import pt.up.fe.comp2024.parser.JmmParserImpl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each stage of the compiler on its own, given what the stages before it produced for the same input.
+ * <p>
+ * Optimization and Jasmin generation change the OLLIR they are given, so they get a new copy before every call,
+ * which is not measured. The optimizations are the ones of '-o'.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+
+    @Param({Corpus.ALL, "synthetic-10", "synthetic-100", "synthetic-1000"})
+    public String input;
+
+    private final Map<String, String> config = Corpus.config(true);
+
+    private final JmmParserImpl parser = new JmmParserImpl();
+
+    private final JmmAnalysisImpl analysis = new JmmAnalysisImpl();
+
+    private final JmmOptimizationImpl optimization = new JmmOptimizationImpl();
+
+    private final JasminBackendImpl backend = new JasminBackendImpl();
+
+    private List<String> codes;
+
+    private List<JmmParserResult> parserResults;
+
+    private List<JmmSemanticsResult> semanticsResults;
+
+    private List<String> ollirCodes;
+
+    /**
+     * OLLIR of the input, parsed again before every call.
+     */
+    @State(Scope.Thread)
+    public static class FreshOllir {
+
+        private List<OllirResult> ollirResults;
+
+        @Setup(Level.Invocation)
+        public void parse(StageBenchmark stages) {
+            ollirResults = stages.semanticsResults.stream().map(stages.optimization::toOllir).toList();
+        }
+    }
+
+    /**
+     * Optimized OLLIR of the input, parsed and optimized again before every call.
+     */
+    @State(Scope.Thread)
+    public static class OptimizedOllir {
+
+        private List<OllirResult> ollirResults;
+
+        @Setup(Level.Invocation)
+        public void optimize(StageBenchmark stages) {
+            ollirResults = stages.semanticsResults.stream()
+                    .map(semanticsResult -> stages.optimization.optimize(stages.optimization.toOllir(semanticsResult)))
+                    .toList();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void compileInput() {
+        Corpus.silenceOutput();
+
+        codes = Corpus.load(input);
+        parserResults = codes.stream().map(code -> parser.parse(code, config)).toList();
+        semanticsResults = parserResults.stream().map(analysis::semanticAnalysis).toList();
+        ollirCodes = semanticsResults.stream().map(result -> optimization.toOllir(result).getOllirCode()).toList();
+    }
+
+    @Benchmark
+    public void parsing(Blackhole blackhole) {
+        for (final String code : codes) {
+            blackhole.consume(parser.parse(code, config));
+        }
+    }
+
+    @Benchmark
+    public void semanticAnalysis(Blackhole blackhole) {
+        for (final JmmParserResult parserResult : parserResults) {
+            blackhole.consume(analysis.semanticAnalysis(parserResult));
+        }
+    }
+
+    @Benchmark
+    public void ollirGeneration(Blackhole blackhole) {
+        for (final JmmSemanticsResult semanticsResult : semanticsResults) {
+            final var visitor = new OllirGeneratorVisitor(semanticsResult.getSymbolTable());
+            blackhole.consume(visitor.visit(semanticsResult.getRootNode()));
+        }
+    }
+
+    @Benchmark
+    public void ollirParsing(Blackhole blackhole) {
+        for (final String ollirCode : ollirCodes) {
+            blackhole.consume(new OllirResult(ollirCode, config));
+        }
+    }
+
+    @Benchmark
+    public void optimization(FreshOllir ollir, Blackhole blackhole) {
+        for (final OllirResult ollirResult : ollir.ollirResults) {
+            blackhole.consume(optimization.optimize(ollirResult));
+        }
+    }
+
+    @Benchmark
+    public void jasminGeneration(OptimizedOllir ollir, Blackhole blackhole) {
+        for (final OllirResult ollirResult : ollir.ollirResults) {
+            blackhole.consume(backend.toJasmin(ollirResult));
+        }
+    }
+}
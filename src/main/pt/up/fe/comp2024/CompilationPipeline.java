@@ -0,0 +1,195 @@
+package pt.up.fe.comp2024;
+
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.backend.JasminGenerator;
+import pt.up.fe.comp2024.optimization.JmmOptimizationImpl;
+import pt.up.fe.comp2024.optimization.Profile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compiles a class one method at a time, with OLLIR generation, lowering and Jasmin generation working at the same
+ * time on different methods:
+ * <pre>
+ * generation --[OLLIR code]--> lowering --[OLLIR class]--> Jasmin
+ * </pre>
+ * Methods go through the stages in declaration order. Each queue holds at most <code>depth</code> methods, so a
+ * stage that gets ahead waits for the next one, and only the methods in flight are kept as OLLIR.
+ * <p>
+ * Lowering parses the OLLIR of a class with a single method, and runs the optimizations that only look at that
+ * method ({@link JmmOptimizationImpl#optimizeLocally}). Optimizations that need the whole class don't run.
+ * <p>
+ * Compiles one class at a time.
+ */
+public class CompilationPipeline {
+
+    /**
+     * How long a stage waits on a queue before checking if another stage failed.
+     */
+    private static final long POLL_MILLIS = 50;
+
+    /**
+     * Thrown in a stage when another one failed, so every stage stops.
+     */
+    private static class StageFailed extends RuntimeException {
+        StageFailed() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final int depth;
+
+    private final JmmOptimizationImpl optimization;
+
+    private final CompilerStats stats;
+
+    private AtomicReference<Throwable> failure;
+
+    public CompilationPipeline(int depth) {
+        this(depth, CompilerStats.NONE);
+    }
+
+    public CompilationPipeline(int depth, CompilerStats stats) {
+        this.depth = depth;
+        this.optimization = new JmmOptimizationImpl(stats);
+        this.stats = stats;
+    }
+
+    public JasminResult compile(JmmSemanticsResult semanticsResult) {
+        failure = new AtomicReference<>();
+
+        // Empty marks the end of the class
+        final BlockingQueue<Optional<String>> ollirCodes = new ArrayBlockingQueue<>(depth);
+        final BlockingQueue<Optional<OllirResult>> lowered = new ArrayBlockingQueue<>(depth);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(() -> runStage(() -> lower(semanticsResult, ollirCodes, lowered)));
+            final Future<JasminResult> jasminResult = executor.submit(
+                    () -> runStage(() -> emit(semanticsResult, lowered)));
+
+            runStage(() -> generate(semanticsResult, ollirCodes));
+
+            return jasminResult.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while compiling", e);
+        } catch (StageFailed | ExecutionException e) {
+            final Throwable cause = failure.get();
+            throw cause instanceof RuntimeException runtimeException
+                    ? runtimeException
+                    : new RuntimeException("Pipeline stage failed", cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Void generate(JmmSemanticsResult semanticsResult, BlockingQueue<Optional<String>> ollirCodes)
+            throws InterruptedException {
+        final List<JmmNode> methods = semanticsResult.getRootNode().getDescendants(Kind.METHOD_DECL);
+
+        // A class without methods still has a header
+        if (methods.isEmpty()) {
+            put(ollirCodes, Optional.of(optimization.toOllir(semanticsResult, null)));
+        }
+
+        for (final JmmNode method : methods) {
+            put(ollirCodes, Optional.of(optimization.toOllir(semanticsResult, method)));
+        }
+
+        put(ollirCodes, Optional.empty());
+        return null;
+    }
+
+    private Void lower(JmmSemanticsResult semanticsResult, BlockingQueue<Optional<String>> ollirCodes,
+                       BlockingQueue<Optional<OllirResult>> lowered) throws InterruptedException {
+        final Profile profile = CompilerConfig.getProfileFile(semanticsResult.getConfig())
+                .map(Profile::read)
+                .orElse(Profile.empty());
+
+        Optional<String> ollirCode;
+        while ((ollirCode = take(ollirCodes)).isPresent()) {
+            final String code = ollirCode.get();
+            final var ollirResult = stats.measure("ollir parsing",
+                    () -> new OllirResult(code, semanticsResult.getConfig()));
+            put(lowered, Optional.of(optimization.optimizeLocally(ollirResult, profile)));
+        }
+
+        put(lowered, Optional.empty());
+        return null;
+    }
+
+    private JasminResult emit(JmmSemanticsResult semanticsResult, BlockingQueue<Optional<OllirResult>> lowered)
+            throws InterruptedException {
+        final StringBuilder code = new StringBuilder();
+        final List<Report> reports = new ArrayList<>();
+        JasminGenerator generator = null;
+
+        Optional<OllirResult> ollirResult;
+        while ((ollirResult = take(lowered)).isPresent()) {
+            // Every class has the same header, the first one gives it
+            if (generator == null) {
+                generator = new JasminGenerator(ollirResult.get());
+                code.append(stats.measure("jasmin generation", generator::buildHeader));
+            }
+
+            reports.addAll(ollirResult.get().getReports());
+            final JasminGenerator classGenerator = generator;
+            for (final Method method : ollirResult.get().getOllirClass().getMethods()) {
+                if (!method.isConstructMethod()) {
+                    code.append(stats.measure("jasmin generation", () -> classGenerator.buildMethod(method)));
+                }
+            }
+        }
+
+        if (generator != null) {
+            code.append(generator.buildFooter());
+            reports.addAll(generator.getReports());
+        }
+
+        return new JasminResult(semanticsResult.getSymbolTable().getClassName(), code.toString(), reports,
+                semanticsResult.getConfig());
+    }
+
+    private <T> T runStage(Callable<T> stage) throws InterruptedException {
+        try {
+            return stage.call();
+        } catch (StageFailed | InterruptedException e) {
+            throw e;
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            throw new StageFailed();
+        }
+    }
+
+    private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+        }
+    }
+
+    private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+        T item;
+        while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            checkFailure();
+        }
+
+        return item;
+    }
+
+    private void checkFailure() {
+        if (failure.get() != null) {
+            throw new StageFailed();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package pt.up.fe.comp2024;
+
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.StageResult;
+import pt.up.fe.comp2024.utils.ReportUtils;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * What each stage produced when compiling one program. Compilation stops at the first stage with errors, so the
+ * results of the stages after it are null.
+ */
+public record CompilationResult(JmmParserResult parserResult, JmmSemanticsResult semanticsResult,
+                                OllirResult ollirResult, JasminResult jasminResult) {
+
+    /**
+     * @return if every stage ran without errors
+     */
+    public boolean isSuccess() {
+        return jasminResult != null && !ReportUtils.anyError(jasminResult.getReports());
+    }
+
+    /**
+     * @return the reports of the last stage that ran, which include the ones of the stages before it
+     */
+    public List<Report> getReports() {
+        return Stream.<StageResult>of(jasminResult, ollirResult, semanticsResult, parserResult)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .map(StageResult::getReports)
+                .orElse(List.of());
+    }
+}
@@ -0,0 +1,228 @@
+package pt.up.fe.comp2024;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Compiles many programs at the same time, e.g. for a build server or an editor that recompiles on every change.
+ * <p>
+ * Each job gets its own thread, a virtual one when the JVM has them, so jobs waiting for their turn cost next to
+ * nothing. The stages only use the CPU, so at most one stage per processor runs at a time, and the others wait
+ * for a processor in arrival order.
+ * <p>
+ * At most <code>capacity</code> jobs are waiting or running. Past that, {@link #submit} rejects the job right
+ * away and {@link #offer} waits for room, so callers slow down instead of piling up programs in memory.
+ * <p>
+ * Each job compiles in a {@link CompilerSession}, so jobs reuse the stages of earlier ones. Classes are compiled
+ * as a whole, as in the {@link Launcher} without '-pipeline'.
+ */
+public class CompileService implements AutoCloseable {
+
+    /**
+     * How many of the latest latencies the percentiles are taken from.
+     */
+    private static final int LATENCY_WINDOW = 1024;
+
+    /**
+     * @param queued    jobs waiting for a processor
+     * @param running   stages running
+     * @param inFlight  jobs submitted and not finished, waiting or running
+     * @param completed jobs finished, with or without errors in the program
+     * @param failed    jobs where the compiler threw
+     * @param rejected  jobs turned away because the service was full
+     * @param p50       median time from submission to the end of a job, over the latest jobs
+     */
+    public record Metrics(int queued, int running, int inFlight, long completed, long failed, long rejected,
+                          Duration p50, Duration p95, Duration p99) {
+    }
+
+    private final int capacity;
+
+    private final int processors;
+
+    private final ExecutorService executor;
+
+    /**
+     * One permit per job that can be waiting or running.
+     */
+    private final Semaphore admission;
+
+    /**
+     * One permit per stage that can be running. Fair, so jobs get processors in the order they asked for them.
+     */
+    private final Semaphore cpu;
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+
+    private long latencyCount;
+
+    public CompileService(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors());
+    }
+
+    public CompileService(int capacity, int processors) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1, got " + capacity);
+        }
+
+        if (processors < 1) {
+            throw new IllegalArgumentException("Processors must be at least 1, got " + processors);
+        }
+
+        this.capacity = capacity;
+        this.processors = processors;
+        this.executor = newExecutor();
+        this.admission = new Semaphore(capacity);
+        this.cpu = new Semaphore(processors, true);
+    }
+
+    /**
+     * Compiles the program, or throws {@link RejectedExecutionException} right away if the service is full.
+     */
+    public CompletableFuture<CompilationResult> submit(String code, Map<String, String> config) {
+        if (!admission.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Compile service is full, " + capacity + " jobs in flight");
+        }
+
+        return start(code, config);
+    }
+
+    /**
+     * Compiles the program, waiting up to the timeout for the service to have room, or throws
+     * {@link RejectedExecutionException} if it doesn't.
+     */
+    public CompletableFuture<CompilationResult> offer(String code, Map<String, String> config, long timeout,
+                                                      TimeUnit unit) throws InterruptedException {
+        if (!admission.tryAcquire(timeout, unit)) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Compile service still full after " + timeout + " "
+                    + unit.toString().toLowerCase());
+        }
+
+        return start(code, config);
+    }
+
+    public Metrics getMetrics() {
+        final long[] window;
+        synchronized (latencies) {
+            window = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        Arrays.sort(window);
+
+        return new Metrics(cpu.getQueueLength(), processors - cpu.availablePermits(),
+                capacity - admission.availablePermits(), completed.get(), failed.get(), rejected.get(),
+                percentile(window, 50), percentile(window, 95), percentile(window, 99));
+    }
+
+    /**
+     * Stops taking jobs, and waits for the ones in flight to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Jobs always finish, a long one just takes a while
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<CompilationResult> start(String code, Map<String, String> config) {
+        final long submitted = System.nanoTime();
+
+        try {
+            return CompletableFuture.supplyAsync(() -> run(code, config, submitted), executor);
+        } catch (RejectedExecutionException e) {
+            // Closed
+            admission.release();
+            throw e;
+        }
+    }
+
+    private CompilationResult run(String code, Map<String, String> config, long submitted) {
+        try {
+            final CompilationResult result;
+            try (var session = CompilerSession.open(config)) {
+                result = session.compile(code, this::stage);
+            }
+            completed.incrementAndGet();
+            recordLatency(System.nanoTime() - submitted);
+            return result;
+        } catch (RuntimeException | Error e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * Runs a stage once a processor is free. Processors are given back between stages, so a job that just
+     * arrived can parse while a long one is waiting for its next stage.
+     */
+    private <T> T stage(Supplier<T> stage) {
+        try {
+            cpu.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a processor", e);
+        }
+
+        try {
+            return stage.get();
+        } finally {
+            cpu.release();
+        }
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (latencyCount++ % LATENCY_WINDOW)] = nanos;
+        }
+    }
+
+    private static Duration percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return Duration.ZERO;
+        }
+
+        // Nearest rank
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return Duration.ofNanos(sorted[Math.max(rank, 1) - 1]);
+    }
+
+    /**
+     * A virtual thread per job on Java 21 and later. Before that, a platform thread per job, of which there are at
+     * most <code>capacity</code>.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(job -> {
+                final Thread thread = new Thread(job, "compile-service");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
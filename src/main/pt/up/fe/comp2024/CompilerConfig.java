@@ -1,15 +1,40 @@
 package pt.up.fe.comp2024;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
 
 public class CompilerConfig {
 
     private static final String INPUT_FILE = "inputFile";
     private static final String OPTIMIZE = "optimize";
     private static final String REGISTER = "registerAllocation";
+    private static final String UNROLL = "unrollFactor";
+    private static final String INSTRUMENT = "instrument";
+    private static final String PROFILE = "profile";
+    private static final String PIPELINE = "pipeline";
+    private static final String STATS = "stats";
+
+    /**
+     * Options spelled out in full, e.g. '-profile=app.profile', since '-i' and '-p' are taken or ambiguous.
+     */
+    private static final Set<String> LONG_OPTIONS = Set.of(INSTRUMENT, PROFILE, PIPELINE, STATS);
+
+    /**
+     * Optimizations that only run when named after '-o', e.g. '-o=treeshake'.
+     * '-o' alone enables every other optimization.
+     * <p>
+     * 'treeshake' removes the methods that can't be called from main or a public method, and the fields that are
+     * never read. It assumes that no other class uses the package-visible members, so it is opt-in.
+     */
+    public static final String TREE_SHAKE = "treeshake";
+
+    private static final Set<String> OPTIMIZE_OPTIONS = Set.of(TREE_SHAKE);
 
 
     static Map<String, String> shortToLong = new HashMap<>();
@@ -18,6 +43,7 @@ public class CompilerConfig {
         shortToLong.put("i", CompilerConfig.INPUT_FILE);
         shortToLong.put("o", CompilerConfig.OPTIMIZE);
         shortToLong.put("r", CompilerConfig.REGISTER);
+        shortToLong.put("u", CompilerConfig.UNROLL);
     }
 
 
@@ -32,8 +58,37 @@ public class CompilerConfig {
         return Optional.of(new File(inputFile));
     }
 
+    /**
+     * @return a copy of the config that compiles the given file
+     */
+    public static Map<String, String> withInputFile(Map<String, String> config, File inputFile) {
+        var copy = new HashMap<>(config);
+        copy.put(INPUT_FILE, inputFile.getPath());
+
+        return copy;
+    }
+
     public static boolean getOptimize(Map<String, String> config) {
-        return Boolean.parseBoolean(config.getOrDefault(OPTIMIZE, "false"));
+        return !config.getOrDefault(OPTIMIZE, "false").equals("false");
+    }
+
+    /**
+     * @return the sub-options given to '-o', e.g. [treeshake] for '-o=treeshake'
+     */
+    public static Set<String> getOptimizeOptions(Map<String, String> config) {
+        final String value = config.getOrDefault(OPTIMIZE, "false");
+        if (value.equals("false") || value.equals("true")) {
+            return Set.of();
+        }
+
+        final Set<String> options = new HashSet<>(Arrays.asList(value.split(",")));
+        for (final String option : options) {
+            if (!OPTIMIZE_OPTIONS.contains(option)) {
+                throw new RuntimeException("Unrecognized optimization '" + option + "', expected one of " + OPTIMIZE_OPTIONS);
+            }
+        }
+
+        return options;
     }
 
     public static int getRegisterAllocation(Map<String, String> config) {
@@ -41,6 +96,84 @@ public class CompilerConfig {
     }
 
 
+    /**
+     * @return how many copies of the body loops that are too long to unroll fully get, '-u=1' disables it
+     */
+    public static int getUnrollFactor(Map<String, String> config) {
+        final int factor = Integer.parseInt(config.getOrDefault(UNROLL, "4"));
+        if (factor < 1) {
+            throw new RuntimeException("Unroll factor must be at least 1, got " + factor);
+        }
+
+        return factor;
+    }
+
+
+    /**
+     * @return where the instrumented program writes its profile, or empty if the program isn't instrumented.
+     * '-instrument' alone writes it next to the input file, e.g. 'Simple.profile' for 'Simple.jmm'
+     */
+    public static Optional<File> getInstrumentFile(Map<String, String> config) {
+        final String value = config.getOrDefault(INSTRUMENT, "false");
+        if (value.equals("false")) {
+            return Optional.empty();
+        }
+
+        if (!value.equals("true")) {
+            return Optional.of(new File(value).getAbsoluteFile());
+        }
+
+        final File inputFile = getInputFile(config).orElseThrow();
+        final String name = inputFile.getName().replaceFirst("\\.[^.]*$", "") + ".profile";
+        return Optional.of(new File(inputFile.getAbsoluteFile().getParentFile(), name));
+    }
+
+    /**
+     * @return the profile written by an instrumented build, given with '-profile=<PATH_TO_FILE>'
+     */
+    public static Optional<File> getProfileFile(Map<String, String> config) {
+        return Optional.ofNullable(config.get(PROFILE)).map(File::new);
+    }
+
+    /**
+     * @return how many methods can wait between two stages when methods are compiled one at a time, given with
+     * '-pipeline=<DEPTH>', or empty if the class is compiled as a whole. '-pipeline' alone allows 4 methods
+     */
+    public static OptionalInt getPipelineDepth(Map<String, String> config) {
+        final String value = config.getOrDefault(PIPELINE, "false");
+        if (value.equals("false")) {
+            return OptionalInt.empty();
+        }
+
+        final int depth = value.equals("true") ? 4 : Integer.parseInt(value);
+        if (depth < 1) {
+            throw new RuntimeException("Pipeline depth must be at least 1, got " + depth);
+        }
+
+        return OptionalInt.of(depth);
+    }
+
+
+    /**
+     * @return how to show the time and memory each phase of the compiler took, given with '-stats=<table|json>',
+     * or empty if they aren't measured. '-stats' alone shows a table
+     */
+    public static Optional<String> getStatsFormat(Map<String, String> config) {
+        final String value = config.getOrDefault(STATS, "false");
+        if (value.equals("false")) {
+            return Optional.empty();
+        }
+
+        final String format = value.equals("true") ? CompilerStats.TABLE : value;
+        if (!format.equals(CompilerStats.TABLE) && !format.equals(CompilerStats.JSON)) {
+            throw new RuntimeException("Unrecognized stats format '" + format + "', expected '"
+                    + CompilerStats.TABLE + "' or '" + CompilerStats.JSON + "'");
+        }
+
+        return Optional.of(format);
+    }
+
+
     public static Map<String, String> getDefault() {
 
         var config = new HashMap<String, String>();
@@ -72,6 +205,12 @@ public class CompilerConfig {
                 throw new RuntimeException("Arguments should start with '-'");
             }
 
+            final String longOption = arg.substring(1).split("=", 2)[0];
+            if (LONG_OPTIONS.contains(longOption)) {
+                config.put(longOption, arg.contains("=") ? arg.substring(arg.indexOf('=') + 1) : "true");
+                continue;
+            }
+
             String shortOption = arg.substring(1, 2);
             if (!isShortOpt(shortOption)) {
                 throw new RuntimeException("Unrecognized option '-" + shortOption + "'");
@@ -103,9 +242,19 @@ public class CompilerConfig {
         var absolutePath = inputFile.getAbsolutePath();
         config.put(INPUT_FILE, absolutePath);
 
+        getProfileFile(config).ifPresent(profileFile -> {
+            if (!profileFile.isFile()) {
+                throw new RuntimeException("Could not find profile file '" + profileFile + "'");
+            }
+        });
+
         // Verify if values are valid
         getOptimize(config);
+        getOptimizeOptions(config);
         getRegisterAllocation(config);
+        getUnrollFactor(config);
+        getPipelineDepth(config);
+        getStatsFormat(config);
 
         return config;
     }
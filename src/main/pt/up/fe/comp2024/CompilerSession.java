@@ -0,0 +1,135 @@
+package pt.up.fe.comp2024;
+
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.optimization.JmmOptimizationImpl;
+import pt.up.fe.comp2024.parser.JmmParserImpl;
+import pt.up.fe.comp2024.utils.ReportUtils;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Compiles programs one after the other with the same config, e.g. every file of a project, or a file each time it
+ * is saved.
+ * <p>
+ * A session borrows an instance of each stage from a pool shared by every session, and gives them back when it is
+ * closed. The lexer and parser are reset and reused instead of built for every program, and so are the analysis
+ * passes of each thread. The OLLIR and Jasmin generators are still built for every program, and for every method,
+ * since they hold the class being generated. A session belongs to the thread that opened it, and only that thread
+ * can compile with it; sessions on different threads compile at the same time.
+ * <pre>
+ * try (var session = CompilerSession.open(config)) {
+ *     CompilationResult result = session.compile(Path.of("Simple.jmm"));
+ * }
+ * </pre>
+ */
+public class CompilerSession implements AutoCloseable {
+
+    /**
+     * Runs a stage, e.g. once a processor is free.
+     */
+    interface StageGate {
+        <T> T run(Supplier<T> stage);
+    }
+
+    private record Stages(JmmParserImpl parser, JmmAnalysisImpl analysis, JmmOptimizationImpl optimization,
+                          JasminBackendImpl backend) {
+
+        Stages() {
+            this(new JmmParserImpl(), new JmmAnalysisImpl(), new JmmOptimizationImpl(), new JasminBackendImpl());
+        }
+    }
+
+    /**
+     * Stages given back by closed sessions. Past its size, stages are left to the garbage collector.
+     */
+    private static final BlockingQueue<Stages> POOL =
+            new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+
+    private final Map<String, String> config;
+
+    private final Thread owner;
+
+    private Stages stages;
+
+    private CompilerSession(Map<String, String> config, Stages stages) {
+        this.config = config;
+        this.owner = Thread.currentThread();
+        this.stages = stages;
+    }
+
+    public static CompilerSession open(Map<String, String> config) {
+        final Stages pooled = POOL.poll();
+        return new CompilerSession(config, pooled != null ? pooled : new Stages());
+    }
+
+    public CompilationResult compile(String code) {
+        return compile(code, config, Supplier::get);
+    }
+
+    /**
+     * Compiles the file, which is also the input file of the config, e.g. for where '-instrument' writes the profile.
+     */
+    public CompilationResult compile(Path file) {
+        return compile(SpecsIo.read(file.toFile()), CompilerConfig.withInputFile(config, file.toFile()),
+                Supplier::get);
+    }
+
+    CompilationResult compile(String code, StageGate gate) {
+        return compile(code, config, gate);
+    }
+
+    /**
+     * Gives the stages back to the pool. The session can't compile after it is closed.
+     */
+    @Override
+    public void close() {
+        checkOwner();
+        if (stages != null) {
+            POOL.offer(stages);
+            stages = null;
+        }
+    }
+
+    private CompilationResult compile(String code, Map<String, String> config, StageGate gate) {
+        checkOwner();
+        if (stages == null) {
+            throw new IllegalStateException("Compiler session is closed");
+        }
+
+        final JmmParserResult parserResult = gate.run(() -> stages.parser().parse(code, config));
+        if (ReportUtils.anyError(parserResult.getReports())) {
+            return new CompilationResult(parserResult, null, null, null);
+        }
+
+        final JmmSemanticsResult semanticsResult = gate.run(() -> stages.analysis().semanticAnalysis(parserResult));
+        if (ReportUtils.anyError(semanticsResult.getReports())) {
+            return new CompilationResult(parserResult, semanticsResult, null, null);
+        }
+
+        final OllirResult ollirResult = gate.run(
+                () -> stages.optimization().optimize(stages.optimization().toOllir(semanticsResult)));
+        if (ReportUtils.anyError(ollirResult.getReports())) {
+            return new CompilationResult(parserResult, semanticsResult, ollirResult, null);
+        }
+
+        final JasminResult jasminResult = gate.run(() -> stages.backend().toJasmin(ollirResult));
+        return new CompilationResult(parserResult, semanticsResult, ollirResult, jasminResult);
+    }
+
+    private void checkOwner() {
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("Compiler session opened by thread '" + owner.getName()
+                    + "' used by thread '" + Thread.currentThread().getName() + "'");
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package pt.up.fe.comp2024;
+
+import com.google.gson.GsonBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Wall time, CPU time and allocated bytes of each phase of the compiler, shown with '-stats'.
+ * <p>
+ * A phase is measured on the thread that runs it. Phases that run on many threads at once, e.g. an analysis pass
+ * on every method, add up what each thread spent, so their wall time can be longer than the whole compilation.
+ * Phases that spread their own work over the fork-join pool are measured with {@link #measureAllThreads}.
+ * <p>
+ * Thread-safe. Phases are listed in the order they first ran.
+ */
+public class CompilerStats {
+
+    /**
+     * Measures nothing, for when '-stats' isn't given.
+     */
+    public static final CompilerStats NONE = new CompilerStats(false);
+
+    public static final String TABLE = "table";
+
+    public static final String JSON = "json";
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Allocations are only counted by HotSpot.
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS =
+            THREADS instanceof com.sun.management.ThreadMXBean allocations ? allocations : null;
+
+    /**
+     * @param wallMillis     time between the start and the end of each call, added up
+     * @param cpuMillis      time the threads of the phase were running
+     * @param allocatedBytes bytes allocated on the heap by the threads of the phase, which includes garbage
+     */
+    public record PhaseStats(String phase, long calls, double wallMillis, double cpuMillis, long allocatedBytes) {
+    }
+
+    private static class Phase {
+        final LongAdder calls = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+    }
+
+    private final boolean enabled;
+
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+    public CompilerStats() {
+        this(true);
+    }
+
+    private CompilerStats(boolean enabled) {
+        this.enabled = enabled;
+
+        if (enabled && THREADS.isThreadCpuTimeSupported()) {
+            THREADS.setThreadCpuTimeEnabled(true);
+        }
+
+        if (enabled && ALLOCATIONS != null && ALLOCATIONS.isThreadAllocatedMemorySupported()) {
+            ALLOCATIONS.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    public <T> T measure(String phase, Supplier<T> work) {
+        if (!enabled) {
+            return work.get();
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long cpuStart = cpuTime(threadId);
+        final long allocatedStart = allocatedBytes(threadId);
+        final long wallStart = System.nanoTime();
+
+        try {
+            return work.get();
+        } finally {
+            record(phase, System.nanoTime() - wallStart, cpuTime(threadId) - cpuStart,
+                    allocatedBytes(threadId) - allocatedStart);
+        }
+    }
+
+    public void measure(String phase, Runnable work) {
+        measure(phase, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Measures a phase on every thread of the JVM, for phases that hand their work to other threads, e.g. the
+     * fork-join pool. Only right when nothing else runs at the same time, as in the {@link Launcher}.
+     */
+    public <T> T measureAllThreads(String phase, Supplier<T> work) {
+        if (!enabled) {
+            return work.get();
+        }
+
+        final Map<Long, long[]> start = threadCounters();
+        final long wallStart = System.nanoTime();
+
+        try {
+            return work.get();
+        } finally {
+            final long wall = System.nanoTime() - wallStart;
+
+            // Threads that ended during the phase are left out, and threads that started count from zero
+            long cpu = 0;
+            long allocated = 0;
+            for (final var end : threadCounters().entrySet()) {
+                final long[] before = start.getOrDefault(end.getKey(), new long[2]);
+                cpu += end.getValue()[0] - before[0];
+                allocated += end.getValue()[1] - before[1];
+            }
+
+            record(phase, wall, cpu, allocated);
+        }
+    }
+
+    public List<PhaseStats> getPhases() {
+        final List<PhaseStats> stats = new ArrayList<>();
+
+        synchronized (phases) {
+            phases.forEach((name, phase) -> stats.add(new PhaseStats(name, phase.calls.sum(),
+                    phase.wallNanos.sum() / 1e6, phase.cpuNanos.sum() / 1e6, phase.allocatedBytes.sum())));
+        }
+
+        return stats;
+    }
+
+    /**
+     * @param format {@link #TABLE} or {@link #JSON}
+     */
+    public String format(String format) {
+        return format.equals(JSON) ? toJson() : toTable();
+    }
+
+    public String toTable() {
+        final List<PhaseStats> stats = getPhases();
+        final int width = stats.stream().mapToInt(phase -> phase.phase().length()).max().orElse(0);
+
+        final StringBuilder table = new StringBuilder();
+        table.append(String.format("%-" + width + "s %8s %12s %12s %14s%n",
+                "phase", "calls", "wall ms", "cpu ms", "allocated KB"));
+        for (final PhaseStats phase : stats) {
+            table.append(String.format("%-" + width + "s %8d %12.3f %12.3f %14d%n", phase.phase(), phase.calls(),
+                    phase.wallMillis(), phase.cpuMillis(), phase.allocatedBytes() / 1024));
+        }
+
+        return table.toString();
+    }
+
+    public String toJson() {
+        return new GsonBuilder().setPrettyPrinting().create().toJson(getPhases());
+    }
+
+    private void record(String name, long wallNanos, long cpuNanos, long allocatedBytes) {
+        final Phase phase;
+        synchronized (phases) {
+            phase = phases.computeIfAbsent(name, key -> new Phase());
+        }
+
+        phase.calls.increment();
+        phase.wallNanos.add(wallNanos);
+        phase.cpuNanos.add(cpuNanos);
+        phase.allocatedBytes.add(allocatedBytes);
+    }
+
+    /**
+     * @return the CPU time and allocated bytes of every live thread, by id
+     */
+    private static Map<Long, long[]> threadCounters() {
+        final Map<Long, long[]> counters = new HashMap<>();
+
+        for (final long threadId : THREADS.getAllThreadIds()) {
+            final long cpu = cpuTime(threadId);
+            final long allocated = allocatedBytes(threadId);
+
+            // Ended while being read
+            if (cpu < 0 || allocated < 0) {
+                continue;
+            }
+
+            counters.put(threadId, new long[]{cpu, allocated});
+        }
+
+        return counters;
+    }
+
+    private static long cpuTime(long threadId) {
+        return THREADS.isThreadCpuTimeEnabled() ? THREADS.getThreadCpuTime(threadId) : 0;
+    }
+
+    private static long allocatedBytes(long threadId) {
+        return ALLOCATIONS != null && ALLOCATIONS.isThreadAllocatedMemoryEnabled()
+                ? ALLOCATIONS.getThreadAllocatedBytes(threadId)
+                : 0;
+    }
+}
@@ -5,8 +5,10 @@ import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
 import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.events.CompilerEvents;
 import pt.up.fe.comp2024.optimization.JmmOptimizationImpl;
 import pt.up.fe.comp2024.parser.JmmParserImpl;
 import pt.up.fe.specs.util.SpecsIo;
@@ -27,37 +29,78 @@ public class Launcher {
         }
         String code = SpecsIo.read(inputFile);
 
+        var statsFormat = CompilerConfig.getStatsFormat(config);
+        CompilerStats stats = statsFormat.isPresent() ? new CompilerStats() : CompilerStats.NONE;
+
         // Parsing stage
-        JmmParserImpl parser = new JmmParserImpl();
-        JmmParserResult parserResult = parser.parse(code, config);
+        JmmParserImpl parser = new JmmParserImpl(stats);
+        JmmParserResult parserResult = CompilerEvents.stage("parsing", config, () -> parser.parse(code, config));
         TestUtils.noErrors(parserResult.getReports());
 
         System.out.println("\n---ROOT JMM NODE (AST)---\n");
         System.out.println(parserResult.getRootNode().toTree());
 
         // Semantic analysis stage
-        JmmAnalysisImpl sema = new JmmAnalysisImpl();
-        JmmSemanticsResult semanticsResult = sema.semanticAnalysis(parserResult);
+        JmmAnalysisImpl sema = new JmmAnalysisImpl(stats);
+        JmmSemanticsResult semanticsResult = CompilerEvents.stage("semantic analysis", config,
+                () -> sema.semanticAnalysis(parserResult));
         TestUtils.noErrors(semanticsResult.getReports());
 
         System.out.println("\n---SYMBOL TABLE---\n");
         System.out.println(semanticsResult.getSymbolTable().print());
 
+        // Methods go through the later stages one at a time, so the whole OLLIR of the class is never printed
+        var pipelineDepth = CompilerConfig.getPipelineDepth(config);
+        if (pipelineDepth.isPresent()) {
+            JasminResult jasminResult = CompilerEvents.stage("pipeline", config,
+                    () -> new CompilationPipeline(pipelineDepth.getAsInt(), stats).compile(semanticsResult));
+            TestUtils.noErrors(jasminResult.getReports());
+
+            System.out.println("\n---OPTIMIZATIONS---\n");
+            jasminResult.getReports().stream()
+                    .filter(report -> report.getStage() == Stage.OPTIMIZATION)
+                    .forEach(report -> System.out.println(report.getMessage()));
+
+            System.out.println("\n---JASMIN CODE---\n");
+            System.out.println(jasminResult.getJasminCode());
+
+            statsFormat.ifPresent(format -> printStats(stats, format));
+            return;
+        }
+
         // Optimization stage
-        JmmOptimizationImpl ollirGen = new JmmOptimizationImpl();
-        OllirResult ollirResult = ollirGen.toOllir(semanticsResult);
+        JmmOptimizationImpl ollirGen = new JmmOptimizationImpl(stats);
+        OllirResult ollirResult = CompilerEvents.stage("ollir generation", config,
+                () -> ollirGen.toOllir(semanticsResult));
         TestUtils.noErrors(ollirResult.getReports());
 
         System.out.println("\n---OLLIR CODE---\n");
         System.out.println(ollirResult.getOllirCode());
 
+        OllirResult optimizedResult = CompilerEvents.stage("optimization", config,
+                () -> ollirGen.optimize(ollirResult));
+        TestUtils.noErrors(optimizedResult.getReports());
+
+        System.out.println("\n---OPTIMIZATIONS---\n");
+        optimizedResult.getReports().stream()
+                .filter(report -> report.getStage() == Stage.OPTIMIZATION)
+                .forEach(report -> System.out.println(report.getMessage()));
+
         // Code generation stage
-        JasminBackendImpl jasminGen = new JasminBackendImpl();
-        JasminResult jasminResult = jasminGen.toJasmin(ollirResult);
+        JasminBackendImpl jasminGen = new JasminBackendImpl(stats);
+        JasminResult jasminResult = CompilerEvents.stage("jasmin generation", config,
+                () -> jasminGen.toJasmin(optimizedResult));
         TestUtils.noErrors(jasminResult.getReports());
 
         System.out.println("\n---JASMIN CODE---\n");
         System.out.println(jasminResult.getJasminCode());
+
+        statsFormat.ifPresent(format -> printStats(stats, format));
+    }
+
+    private static void printStats(CompilerStats stats, String format) {
+        System.out.println("\n---STATS---\n");
+        System.out.println(stats.format(format));
     }
 
 }
@@ -20,4 +20,27 @@ public interface AnalysisPass {
      */
     List<Report> analyze(JmmNode root, SymbolTable table);
 
+    /**
+     * Analyses the nodes that are not inside a method, like imports, fields and the class itself.
+     *
+     * @param root  the root node of the program
+     * @param table the symbol table
+     * @return a list of reports with the results of the analysis
+     */
+    List<Report> analyzeClass(JmmNode root, SymbolTable table);
+
+    /**
+     * Analyses a single method and every node inside it.
+     *
+     * @param methodDecl the method declaration node
+     * @param table      the symbol table
+     * @return a list of reports with the results of the analysis
+     */
+    List<Report> analyzeMethod(JmmNode methodDecl, SymbolTable table);
+
+    /**
+     * Forgets the reports and the method of the last analysis, so the pass can analyse another shard.
+     */
+    void reset();
+
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.PreorderJmmVisitor;
 import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2024.ast.Kind;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -28,6 +29,15 @@ public abstract class AnalysisVisitor extends PreorderJmmVisitor<SymbolTable, Vo
         return reports;
     }
 
+    /**
+     * Passes that keep more state of the method being visited clear it too.
+     */
+    @Override
+    public void reset() {
+        // The reports of the last analysis were returned, so they get a new list
+        reports = new ArrayList<>();
+    }
+
 
     @Override
     public List<Report> analyze(JmmNode root, SymbolTable table) {
@@ -37,4 +47,33 @@ public abstract class AnalysisVisitor extends PreorderJmmVisitor<SymbolTable, Vo
         // Return reports
         return getReports();
     }
+
+    @Override
+    public List<Report> analyzeClass(JmmNode root, SymbolTable table) {
+        visitOutsideMethods(root, table);
+
+        return getReports();
+    }
+
+    @Override
+    public List<Report> analyzeMethod(JmmNode methodDecl, SymbolTable table) {
+        if (!methodDecl.isInstance(Kind.METHOD_DECL)) {
+            throw new RuntimeException("Node '" + methodDecl + "' is not a '" + Kind.METHOD_DECL + "'");
+        }
+
+        // The method declaration is visited first, so passes know the current method
+        visit(methodDecl, table);
+
+        return getReports();
+    }
+
+    private void visitOutsideMethods(JmmNode node, SymbolTable table) {
+        getVisit(node).apply(node, table);
+
+        for (var child : node.getChildren()) {
+            if (!child.isInstance(Kind.METHOD_DECL)) {
+                visitOutsideMethods(child, table);
+            }
+        }
+    }
 }
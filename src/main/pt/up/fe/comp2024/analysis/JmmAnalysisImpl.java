@@ -7,23 +7,52 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerStats;
+import pt.up.fe.comp2024.events.AnalysisPassEvent;
+import pt.up.fe.comp2024.events.CompilerEvents;
 import pt.up.fe.comp2024.analysis.passes.*;
+import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.comp2024.symboltable.JmmSymbolTableBuilder;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
+/**
+ * Runs the analysis passes on shards of the program: the nodes outside of methods, and then each method.
+ * <p>
+ * Passes keep the method being visited in their fields, so each worker thread builds its own instance of every pass
+ * once, and resets it before each shard. The methods are analysed at the same time on the fork-join pool. Reports
+ * are merged in line order, and reports on the same line keep the order of a sequential run.
+ */
 public class JmmAnalysisImpl implements JmmAnalysis {
-    private final List<AnalysisPass> analysisPasses;
+    private final List<Supplier<AnalysisPass>> analysisPasses;
+
+    /**
+     * The passes of each thread, built on its first shard.
+     */
+    private final ThreadLocal<List<AnalysisPass>> workerPasses;
+
+    private final CompilerStats stats;
 
     public JmmAnalysisImpl() {
+        this(CompilerStats.NONE);
+    }
+
+    public JmmAnalysisImpl(CompilerStats stats) {
+        this.stats = stats;
         this.analysisPasses = List.of(
-                new UndeclaredCheck(),
-                new TypeCheck(),
-                new ArrayCheck(),
-                new ConditionalCheck(),
-                new ImportCheck()
+                UndeclaredCheck::new,
+                TypeCheck::new,
+                ArrayCheck::new,
+                ConditionalCheck::new,
+                ImportCheck::new
         );
+        this.workerPasses = ThreadLocal.withInitial(
+                () -> analysisPasses.stream().map(Supplier::get).toList());
     }
 
     @Override
@@ -31,15 +60,55 @@ public class JmmAnalysisImpl implements JmmAnalysis {
 
         JmmNode rootNode = parserResult.getRootNode();
 
-        SymbolTable table = JmmSymbolTableBuilder.build(rootNode);
+        SymbolTable table = stats.measure("symbol table", () -> JmmSymbolTableBuilder.build(rootNode));
+
+        final String fileName = CompilerEvents.fileName(parserResult.getConfig());
+        final List<JmmNode> methods = rootNode.getDescendants(Kind.METHOD_DECL);
+
+        // Class-level checks run once, outside of every method
+        final LongSupplier classNodes = () -> CompilerEvents.countNodes(rootNode)
+                - methods.stream().mapToLong(CompilerEvents::countNodes).sum();
+        List<Report> reports = new ArrayList<>(analyzeShard(fileName, "", classNodes,
+                pass -> pass.analyzeClass(rootNode, table)));
+
+        final List<List<Report>> methodReports = methods.parallelStream()
+                .map(method -> analyzeShard(fileName, method.get("name"), () -> CompilerEvents.countNodes(method),
+                        pass -> pass.analyzeMethod(method, table)))
+                .toList();
+        methodReports.forEach(reports::addAll);
 
+        // Stable, so reports on the same line stay in source and pass order
+        reports.sort(Comparator.naturalOrder());
+
+        return new JmmSemanticsResult(parserResult, table, reports);
+    }
+
+    /**
+     * Runs every pass of the thread on one shard, and records each as an {@link AnalysisPassEvent}.
+     */
+    private List<Report> analyzeShard(String fileName, String methodName, LongSupplier nodeCount,
+                                      Function<AnalysisPass, List<Report>> analysis) {
         List<Report> reports = new ArrayList<>();
 
-        // Visit all nodes in the AST
-        for (var analysisPass : analysisPasses) {
+        for (var analysisPass : workerPasses.get()) {
+            analysisPass.reset();
+            var passName = analysisPass.getClass().getSimpleName();
+
+            var event = new AnalysisPassEvent();
+            event.begin();
             try {
-                var passReports = analysisPass.analyze(rootNode, table);
+                var passReports = stats.measure("analysis " + passName, () -> analysis.apply(analysisPass));
                 reports.addAll(passReports);
+
+                event.end();
+                if (event.shouldCommit()) {
+                    event.fileName = fileName;
+                    event.pass = passName;
+                    event.methodName = methodName;
+                    event.nodeCount = nodeCount.getAsLong();
+                    event.reportCount = passReports.size();
+                    event.commit();
+                }
             } catch (Exception e) {
                 reports.add(Report.newError(Stage.SEMANTIC,
                         -1,
@@ -51,6 +120,6 @@ public class JmmAnalysisImpl implements JmmAnalysis {
 
         }
 
-        return new JmmSemanticsResult(parserResult, table, reports);
+        return reports;
     }
 }
@@ -20,6 +20,12 @@ public class ArrayCheck extends AnalysisVisitor {
         addVisit(Kind.ARRAY_INDEX, this::visitArrIdx);
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        currentMethod = null;
+    }
+
     private Void visitArrIdx(JmmNode node, SymbolTable table) {
         var leftType = TypeUtils.getExprType(node.getChild(0),table);
         System.out.println("here");
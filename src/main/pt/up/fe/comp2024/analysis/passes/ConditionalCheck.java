@@ -22,33 +22,32 @@ public class ConditionalCheck extends AnalysisVisitor {
         addVisit(Kind.METHOD_DECL, this::dealWithMethod);
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        currentMethod = null;
+    }
+
     private Void dealWithMethod(JmmNode node, SymbolTable table) {
         currentMethod = node.get("name");
         return null;
     }
 
     private Void WhileStmtAccess(JmmNode node, SymbolTable table){
+        // The condition can be any expression (e.g. i < n), not only an identifier
+        final var conditionType = TypeUtils.getExprType(node.getChild(0), table);
 
-        for(var child : table.getLocalVariables(currentMethod)){
-
-            if(child.getName().equals(node.getChild(0).get("id"))){
-                if(child.getType().isArray()){
-                    var message = String.format("Array invalid as While Statment" );
-                    addReport(Report.newError(Stage.SEMANTIC, 5, 5, message, null));
-                    return null;
-                }
-
-
-                if(!child.getType().getName().equals("boolean")){
-                    var message = String.format("While statment must be boolean" );
-                    addReport(Report.newError(Stage.SEMANTIC, 5, 5, message, null));
-                    return null;
-
-                }
-
-            }
+        if(conditionType.isArray()){
+            var message = String.format("Array invalid as While Statment" );
+            addReport(Report.newError(Stage.SEMANTIC, 5, 5, message, null));
+            return null;
         }
 
+        if(!conditionType.getName().equals("boolean")){
+            var message = String.format("While statment must be boolean" );
+            addReport(Report.newError(Stage.SEMANTIC, 5, 5, message, null));
+            return null;
+        }
 
         return null;
     }
@@ -25,6 +25,12 @@ public class ImportCheck extends AnalysisVisitor {
         addVisit(Kind.METHOD_DECL, this::dealWithMethod);
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        currentMethod = null;
+    }
+
     private Void dealWithMethod(JmmNode node, SymbolTable table) {
 
         currentMethod = node.get("name");
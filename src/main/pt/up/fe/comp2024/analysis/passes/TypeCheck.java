@@ -31,6 +31,13 @@ public class TypeCheck extends AnalysisVisitor {
         addVisit(Kind.VAR_REF_EXPR, this::visitVarRefExpr);
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        currentMethod = null;
+        currentMethodNode = null;
+    }
+
     private Void visitIdUseExpr(JmmNode node, SymbolTable table) {
         if(!(Collections.frequency(table.getMethods(),node.get("name")) == 1)) {
             return null;
@@ -152,14 +159,14 @@ public class TypeCheck extends AnalysisVisitor {
 
     private Void visitCondOp(JmmNode node, SymbolTable table) {
         var leftType = TypeUtils.getExprType(node.getChild(0),table);
-        if(!node.getKind().equals("NOT_OP")) {
+        if(!Kind.NOT_OP.check(node)) {
             var rightType = TypeUtils.getExprType(node.getChild(1),table);
             if (leftType.getName().equals("boolean") && rightType.getName().equals("boolean")) {
                 return null;
             }
         }
 
-        if (leftType.getName().equals("bool")) {
+        if (Kind.NOT_OP.check(node) && leftType.getName().equals("boolean")) {
             return null;
         }
 
@@ -34,6 +34,12 @@ public class UndeclaredCheck extends AnalysisVisitor {
         addVisit(Kind.RETURN_STMT, this::visitReturnStmt);
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        currentMethod = null;
+    }
+
     private Void visitImportDecl(JmmNode node, SymbolTable table) {
 
         if(table.getImports().isEmpty()) return null;
@@ -34,6 +34,10 @@ public enum Kind {
     EXPRESSION_STMT, // TODO(bartek): Rename to EXPR
     WHILE_STMT,
     IF_ELSE_STMT,
+    IF_STATMENT,
+    ELSE_STATMENT,
+    CURLY_STMT,
+    PAREN_EXPR,
     NEW_OBJECT;
 
 
@@ -33,6 +33,7 @@ public class TypeUtils {
             case BOOL_OP -> getBoolExprType(expr);
             case NOT_OP-> new Type(BOOL_TYPE_NAME, false);
             case BINARY_EXPR -> getBinExprType(expr);
+            case PAREN_EXPR -> getExprType(expr.getChild(0), table);
             case VAR_REF_EXPR -> getVarExprType(expr, table);
             case BOOL -> new Type(BOOL_TYPE_NAME, false);
             case INTEGER_LITERAL -> new Type(INT_TYPE_NAME, false);
@@ -150,8 +151,9 @@ public class TypeUtils {
         String operator = binaryExpr.get("op");
 
         return switch (operator) {
-            case "+", "*", "-", "/", "<", ">" ->
-                    new Type(INT_TYPE_NAME, false); //todo(goncalo): added - and / ask where tf < and > r and how this func is used
+            case "+", "*", "-", "/" -> new Type(INT_TYPE_NAME, false);
+            // Comparisons take int operands, but produce a boolean
+            case "<", ">" -> new Type(BOOL_TYPE_NAME, false);
             default ->
                     throw new RuntimeException("Unknown operator '" + operator + "' of expression '" + binaryExpr + "'");
         };
@@ -0,0 +1,289 @@
+package pt.up.fe.comp2024.backend;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Reorders the instructions of a method so that fewer branches are taken at runtime.
+ * <p>
+ * Works on the OLLIR instructions of the method, right before Jasmin is generated:
+ * <ul>
+ *  <li>loops are rotated, so they are tested at the bottom and each iteration takes a single branch</li>
+ *  <li>a conditional jump over a <code>goto</code> is inverted, so that the fall-through continues straight ahead</li>
+ *  <li>jumps to a <code>goto</code> go straight to its final target</li>
+ *  <li>jumps to the next instruction are removed</li>
+ * </ul>
+ * <p>
+ * Labels are kept in the method's label table, so the generated code still refers to them by name.
+ */
+public class ControlFlowLayout {
+
+    private final List<Instruction> instructions;
+
+    private final Map<String, Instruction> labelTable;
+
+    private int newLabelNumber;
+
+    public ControlFlowLayout(Method method) {
+        this.instructions = method.getInstructions();
+        this.labelTable = method.getLabels();
+        this.newLabelNumber = 0;
+    }
+
+    public void apply() {
+        // Rotate one loop at a time, since rotation moves instructions around
+        while (rotateLoop()) {
+            // keep rotating
+        }
+
+        invertBranchesOverGotos();
+        threadJumps();
+        removeJumpsToNext();
+    }
+
+    /**
+     * Turns a loop tested at the top:
+     * <pre>
+     * whileCond0:
+     * if (i.i32 >=.bool n.i32) goto whileEnd0;
+     * body
+     * goto whileCond0;
+     * whileEnd0:
+     * </pre>
+     * into a loop tested at the bottom, entered by a single jump:
+     * <pre>
+     * goto whileCond0;
+     * loopBody0:
+     * body
+     * whileCond0:
+     * if (i.i32 <.bool n.i32) goto loopBody0;
+     * whileEnd0:
+     * </pre>
+     *
+     * @return true if a loop was rotated
+     */
+    private boolean rotateLoop() {
+        for (int backEdge = 0; backEdge < instructions.size() - 1; backEdge++) {
+            if (!(instructions.get(backEdge) instanceof GotoInstruction backJump)) {
+                continue;
+            }
+
+            final int head = instructions.indexOf(labelTable.get(backJump.getLabel()));
+            if (head < 0 || head >= backEdge) {
+                continue;
+            }
+
+            final List<String> exitLabels = labelsOf(instructions.get(backEdge + 1));
+            final int exitTest = findExitTest(head, backEdge, exitLabels);
+            if (exitTest < 0) {
+                continue;
+            }
+
+            final var exitBranch = (CondBranchInstruction) instructions.get(exitTest);
+            final Instruction bodyStart = instructions.get(exitTest + 1);
+            final String bodyLabel = bodyStart == backJump ? backJump.getLabel() : labelOf(bodyStart);
+
+            final Optional<CondBranchInstruction> bottomTest = invert(exitBranch, bodyLabel);
+            if (bottomTest.isEmpty()) {
+                continue;
+            }
+
+            // The header is moved to the bottom and keeps the loop label, so both the entry jump and
+            // whatever jumped to the back edge now reach the test directly
+            final List<Instruction> header = new ArrayList<>(instructions.subList(head, exitTest));
+            header.add(bottomTest.get());
+
+            moveLabels(exitBranch, bottomTest.get());
+            moveLabels(backJump, header.get(0));
+
+            final var entryJump = new GotoInstruction(backJump.getLabel());
+
+            // Rebuild: [... head-1] goto head; body; header; [backEdge+1 ...]
+            final List<Instruction> body = new ArrayList<>(instructions.subList(exitTest + 1, backEdge));
+            final List<Instruction> tail = new ArrayList<>(instructions.subList(backEdge + 1, instructions.size()));
+
+            instructions.subList(head, instructions.size()).clear();
+            instructions.add(entryJump);
+            instructions.addAll(body);
+            instructions.addAll(header);
+            instructions.addAll(tail);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return index of the last conditional branch that leaves the loop at the end of the loop header, or -1
+     */
+    private int findExitTest(int head, int backEdge, List<String> exitLabels) {
+        int exitTest = -1;
+
+        for (int i = head; i < backEdge; i++) {
+            final Instruction inst = instructions.get(i);
+
+            // Something jumps into the middle of the header, it can't be moved as a whole
+            if (i > head && !labelsOf(inst).isEmpty()) {
+                break;
+            }
+
+            if (inst instanceof GotoInstruction || inst instanceof ReturnInstruction) {
+                break;
+            }
+
+            if (inst instanceof CondBranchInstruction branch && exitLabels.contains(branch.getLabel())) {
+                exitTest = i;
+            }
+        }
+
+        return exitTest;
+    }
+
+    /**
+     * Replaces <code>if (c) goto A; goto B; A:</code> with <code>if (!c) goto B; A:</code>.
+     */
+    private void invertBranchesOverGotos() {
+        for (int i = 0; i < instructions.size() - 2; i++) {
+            if (!(instructions.get(i) instanceof CondBranchInstruction branch)) {
+                continue;
+            }
+
+            if (!(instructions.get(i + 1) instanceof GotoInstruction jump) || !labelsOf(jump).isEmpty()) {
+                continue;
+            }
+
+            if (!labelsOf(instructions.get(i + 2)).contains(branch.getLabel())) {
+                continue;
+            }
+
+            final Optional<CondBranchInstruction> inverted = invert(branch, jump.getLabel());
+            if (inverted.isEmpty()) {
+                continue;
+            }
+
+            moveLabels(branch, inverted.get());
+            instructions.set(i, inverted.get());
+            instructions.remove(i + 1);
+        }
+    }
+
+    /**
+     * Makes every jump to a <code>goto</code> go straight to the final target.
+     */
+    private void threadJumps() {
+        for (final Instruction inst : instructions) {
+            if (inst instanceof GotoInstruction jump) {
+                jump.setLabel(finalTarget(jump.getLabel()));
+            } else if (inst instanceof CondBranchInstruction branch) {
+                branch.setLabel(finalTarget(branch.getLabel()));
+            }
+        }
+    }
+
+    private String finalTarget(String label) {
+        final Set<String> visited = new HashSet<>();
+
+        // Stop on cycles, e.g. an empty infinite loop
+        while (labelTable.get(label) instanceof GotoInstruction jump && visited.add(label)) {
+            label = jump.getLabel();
+        }
+
+        return label;
+    }
+
+    /**
+     * Removes jumps to the next instruction. Conditions only read operands, so conditional jumps can go too.
+     */
+    private void removeJumpsToNext() {
+        for (int i = 0; i < instructions.size() - 1; i++) {
+            final Instruction inst = instructions.get(i);
+            final String target = inst instanceof GotoInstruction jump ? jump.getLabel()
+                    : inst instanceof CondBranchInstruction branch ? branch.getLabel()
+                    : null;
+
+            if (target != null && labelTable.get(target) == instructions.get(i + 1)) {
+                moveLabels(inst, instructions.get(i + 1));
+                instructions.remove(i);
+                i--;
+            }
+        }
+    }
+
+    /**
+     * Builds a branch to <code>target</code> that is taken exactly when <code>branch</code> isn't.
+     */
+    private static Optional<CondBranchInstruction> invert(CondBranchInstruction branch, String target) {
+        final CondBranchInstruction inverted;
+
+        if (branch instanceof SingleOpCondInstruction singleOpCond) {
+            // if (a) -> if (!a)
+            final Element operand = singleOpCond.getCondition().getSingleOperand();
+            final var not = new Operation(OperationType.NOTB, new Type(ElementType.BOOLEAN));
+            inverted = new OpCondInstruction(new UnaryOpInstruction(not, operand));
+        } else if (branch instanceof OpCondInstruction opCond
+                && opCond.getCondition() instanceof UnaryOpInstruction unaryOp
+                && unaryOp.getOperation().getOpType() == OperationType.NOTB) {
+            // if (!a) -> if (a)
+            inverted = new SingleOpCondInstruction(new SingleOpInstruction(unaryOp.getOperand()));
+        } else if (branch instanceof OpCondInstruction opCond
+                && opCond.getCondition() instanceof BinaryOpInstruction binaryOp
+                && JasminUtils.isComparison(binaryOp.getOperation().getOpType())) {
+            // if (a < b) -> if (a >= b)
+            final Operation operation = binaryOp.getOperation();
+            final var negated = new Operation(negateComparison(operation.getOpType()), operation.getTypeInfo());
+            inverted = new OpCondInstruction(
+                    new BinaryOpInstruction(binaryOp.getLeftOperand(), negated, binaryOp.getRightOperand()));
+        } else {
+            // && and || have no single-instruction negation
+            return Optional.empty();
+        }
+
+        inverted.setLabel(target);
+        return Optional.of(inverted);
+    }
+
+    private static OperationType negateComparison(OperationType opType) {
+        return switch (opType) {
+            case LTH -> OperationType.GTE;
+            case GTE -> OperationType.LTH;
+            case GTH -> OperationType.LTE;
+            case LTE -> OperationType.GTH;
+            case EQ -> OperationType.NEQ;
+            case NEQ -> OperationType.EQ;
+            default -> throw new IllegalArgumentException("Not a comparison: " + opType);
+        };
+    }
+
+    private List<String> labelsOf(Instruction inst) {
+        return labelTable.entrySet().stream()
+                .filter(entry -> entry.getValue() == inst)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * @return a label of the instruction, creating a new one if it has none
+     */
+    private String labelOf(Instruction inst) {
+        final List<String> labels = labelsOf(inst);
+        if (!labels.isEmpty()) {
+            return labels.get(0);
+        }
+
+        String label;
+        do {
+            label = "loopBody" + newLabelNumber++;
+        } while (labelTable.containsKey(label));
+
+        labelTable.put(label, inst);
+        return label;
+    }
+
+    private void moveLabels(Instruction from, Instruction to) {
+        for (final String label : labelsOf(from)) {
+            labelTable.put(label, to);
+        }
+    }
+}
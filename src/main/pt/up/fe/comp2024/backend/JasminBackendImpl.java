@@ -3,13 +3,25 @@ package pt.up.fe.comp2024.backend;
 import pt.up.fe.comp.jmm.jasmin.JasminBackend;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.CompilerStats;
 
 public class JasminBackendImpl implements JasminBackend {
 
+    private final CompilerStats stats;
+
+    public JasminBackendImpl() {
+        this(CompilerStats.NONE);
+    }
+
+    public JasminBackendImpl(CompilerStats stats) {
+        this.stats = stats;
+    }
+
     @Override
     public JasminResult toJasmin(OllirResult ollirResult) {
         final JasminGenerator jasminGenerator = new JasminGenerator(ollirResult);
-        final String jasminCode = jasminGenerator.build();
+        // Methods are generated on the fork-join pool
+        final String jasminCode = stats.measureAllThreads("jasmin generation", jasminGenerator::build);
 
         return new JasminResult(ollirResult, jasminCode, jasminGenerator.getReports());
     }
@@ -0,0 +1,477 @@
+package pt.up.fe.comp2024.backend;
+
+import org.specs.comp.ollir.*;
+import org.specs.comp.ollir.tree.TreeNode;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.specs.util.classmap.FunctionClassMap;
+import pt.up.fe.specs.util.exceptions.NotImplementedException;
+import pt.up.fe.specs.util.utilities.StringLines;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Generates the Jasmin code of one method, for {@link JasminGenerator}.
+ * <p>
+ * Everything that changes while generating, like the method, the values kept on the stack, label numbers and
+ * reports, belongs to the instance, so methods of the same class can be generated at the same time.
+ */
+class JasminMethodGenerator {
+
+    private static final String NL = "\n";
+    private static final String TAB = "   ";
+
+    private final ClassUnit ollirClass;
+
+    private final Method method;
+
+    /**
+     * Counters to add to the code, or null if the program isn't instrumented
+     */
+    private final ProfileCounters profileCounters;
+
+    private final List<Report> reports;
+
+    private final FunctionClassMap<TreeNode, String> generators;
+
+    private Set<String> profiledLabels;
+
+    private Set<String> stackTemps;
+
+    private int labelNumber;
+
+    JasminMethodGenerator(ClassUnit ollirClass, Method method, ProfileCounters profileCounters) {
+        this.ollirClass = ollirClass;
+        this.method = method;
+        this.profileCounters = profileCounters;
+        this.reports = new ArrayList<>();
+        this.profiledLabels = Set.of();
+        this.stackTemps = Set.of();
+        this.labelNumber = 0;
+
+        // Each of these visitors must be stack-neutral.
+        this.generators = new FunctionClassMap<>();
+        generators.put(AssignInstruction.class, this::generateAssign);
+        generators.put(SingleOpInstruction.class, this::generateSingleOp);
+        generators.put(LiteralElement.class, this::generateLiteral);
+        generators.put(Operand.class, this::generateOperand);
+        generators.put(BinaryOpInstruction.class, this::generateBinaryOp);
+        generators.put(ReturnInstruction.class, this::generateReturn);
+        generators.put(CallInstruction.class, this::generateCall);
+        generators.put(PutFieldInstruction.class, this::generatePutField);
+        generators.put(GetFieldInstruction.class, this::generateGetField);
+        generators.put(OpCondInstruction.class, this::generateOpCond);
+        generators.put(SingleOpCondInstruction.class, this::generateSingleOpCond);
+        generators.put(GotoInstruction.class, this::generateGoto);
+        generators.put(UnaryOpInstruction.class, this::generateUnaryOp);
+    }
+
+    List<Report> getReports() {
+        return reports;
+    }
+
+    /**
+     * Rotates loops and picks the values that stay on the stack, which changes the labels of the method.
+     * <p>
+     * Runs before the profile counters are registered, so only the labels that are left get one.
+     */
+    void prepare() {
+        // Only the labels given by the OLLIR generator are counted, they are the ones a profile refers to
+        profiledLabels = new HashSet<>(method.getLabels().keySet());
+
+        // rotate loops and thread jumps before emitting any branch
+        new ControlFlowLayout(method).apply();
+
+        // values that go straight from one instruction to the next stay on the stack
+        stackTemps = new StackForwarding(method).apply();
+    }
+
+    /**
+     * Registers the counters of the method and of its labels, in the order they appear.
+     */
+    void registerCounters() {
+        profileCounters.registerMethod(method.getMethodName());
+
+        for (final Instruction inst : method.getInstructions()) {
+            for (final String label : method.getLabels(inst)) {
+                if (profiledLabels.contains(label)) {
+                    profileCounters.registerLabel(method.getMethodName(), label);
+                }
+            }
+        }
+    }
+
+    String generate() {
+        final StringBuilder code = new StringBuilder();
+
+        // calculate access accessModifier
+        final String accessModifier = method.getMethodAccessModifier() != AccessModifier.DEFAULT ?
+                method.getMethodAccessModifier().name().toLowerCase() + " " :
+                "";
+
+        final String nonAccessModifier = method.isStaticMethod() ? "static " : "";
+        final String methodName = method.getMethodName();
+
+        code.append("\n.method ").append(accessModifier).append(nonAccessModifier).append(methodName);
+
+        // generate parameters
+        code.append("(");
+        for (final Element param : method.getParams()) {
+            code.append(JasminUtils.toJasminType(param.getType()));
+        }
+        code.append(")");
+
+        code.append(JasminUtils.toJasminType(method.getReturnType())); // Return type
+
+        code.append(NL);
+
+        // add limits
+        code.append(TAB).append(".limit stack 99").append(NL);
+        code.append(TAB).append(".limit locals 99").append(NL);
+
+        if (profileCounters != null) {
+            code.append(profileCounters.countMethod(methodName));
+        }
+
+        for (final Instruction inst : method.getInstructions()) {
+            for (final String label : method.getLabels(inst)) {
+                code.append(label).append(":").append(NL);
+
+                if (profileCounters != null && profiledLabels.contains(label)) {
+                    code.append(profileCounters.countLabel(methodName, label));
+                }
+            }
+
+            final List<String> instLines = StringLines.getLines(generators.apply(inst)).stream()
+                    .filter(line -> !line.isBlank())
+                    .toList();
+
+            // Copies between values on the stack generate nothing
+            if (instLines.isEmpty()) {
+                continue;
+            }
+
+            final String instCode = instLines.stream()
+                    .collect(Collectors.joining(NL + TAB, TAB, NL));
+
+            code.append(instCode);
+        }
+
+        code.append(".end method\n");
+
+        return code.toString();
+    }
+
+    private String generateAssign(AssignInstruction assign) {
+        final StringBuilder code = new StringBuilder();
+
+        // generate code for loading what's on the right
+        code.append(generators.apply(assign.getRhs()));
+
+        // store value in the stack in destination
+        final Element lhs = assign.getDest();
+
+        if (!(lhs instanceof Operand operand)) {
+            throw new NotImplementedException(lhs.getClass());
+        }
+
+        // The value is left on the stack for the next instruction
+        if (stackTemps.contains(operand.getName())) {
+            return code.toString();
+        }
+
+        final int reg = method.getVarTable().get(operand.getName()).getVirtualReg();
+        final ElementType elementType = lhs.getType().getTypeOfElement();
+
+        code.append(JasminUtils.store(elementType, reg)).append(NL);
+
+        return code.toString();
+    }
+
+    private String generateSingleOp(SingleOpInstruction singleOp) {
+        return generators.apply(singleOp.getSingleOperand());
+    }
+
+    private String generateLiteral(LiteralElement literal) {
+        return "ldc " + literal.getLiteral() + NL;
+    }
+
+    private String generateOperand(Operand operand) {
+        // The value is already on the stack, left there by the previous instruction
+        if (stackTemps.contains(operand.getName())) {
+            return "";
+        }
+
+        // get register
+        final int reg = method.getVarTable().get(operand.getName()).getVirtualReg();
+        final ElementType elementType = operand.getType().getTypeOfElement();
+        return JasminUtils.load(elementType, reg) + NL;
+    }
+
+    private String generateBinaryOp(BinaryOpInstruction binaryOp) {
+        final StringBuilder code = new StringBuilder();
+
+        // load values on the left and on the right
+        code.append(generators.apply(binaryOp.getLeftOperand()));
+        code.append(generators.apply(binaryOp.getRightOperand()));
+
+        // A comparison whose result is stored has to be materialised as 0 or 1.
+        // When it feeds a branch instead, generateOpCond() jumps on it directly.
+        final OperationType opType = binaryOp.getOperation().getOpType();
+        if (JasminUtils.isComparison(opType)) {
+            final String trueLabel = "cmpTrue" + labelNumber;
+            final String endLabel = "cmpEnd" + labelNumber;
+            labelNumber++;
+
+            code.append(JasminUtils.compareAndBranch(opType)).append(" ").append(trueLabel).append(NL);
+            code.append("iconst_0").append(NL);
+            code.append("goto ").append(endLabel).append(NL);
+            code.append(trueLabel).append(":").append(NL);
+            code.append("iconst_1").append(NL);
+            code.append(endLabel).append(":").append(NL);
+
+            return code.toString();
+        }
+
+        // apply operationComplexArgsFuncCall
+        final String op = switch (opType) {
+            case ADD -> "iadd";
+            case MUL -> "imul";
+            case DIV -> "idiv"; //TODO(goncalo)
+            case SUB -> "isub";//TODO(goncalo)
+            // Only produced by strength reduction, the right operand is the shift distance
+            case SHL -> "ishl";
+            case SHR -> "ishr";
+            case SHRR -> "iushr";
+            // Both operands are already evaluated, so there is nothing left to short-circuit
+            case ANDB -> "iand";
+            case ORB -> "ior";
+            default -> throw new NotImplementedException(binaryOp.getOperation().getOpType());
+        };
+
+        code.append(op).append(NL);
+
+        return code.toString();
+    }
+
+    private String generateUnaryOp(UnaryOpInstruction unaryOp) {
+        final StringBuilder code = new StringBuilder();
+
+        code.append(generators.apply(unaryOp.getOperand()));
+
+        final String op = switch (unaryOp.getOperation().getOpType()) {
+            // Booleans are 0 or 1, so flipping the lowest bit negates them
+            case NOTB -> "iconst_1" + NL + "ixor";
+            default -> throw new NotImplementedException(unaryOp.getOperation().getOpType());
+        };
+
+        code.append(op).append(NL);
+
+        return code.toString();
+    }
+
+    private String generateOpCond(OpCondInstruction opCond) {
+        final StringBuilder code = new StringBuilder();
+        final String label = opCond.getLabel();
+        final OpInstruction condition = opCond.getCondition();
+        final OperationType opType = condition.getOperation().getOpType();
+
+        if (condition instanceof BinaryOpInstruction binaryOp && JasminUtils.isComparison(opType)) {
+            code.append(generators.apply(binaryOp.getLeftOperand()));
+
+            // Comparing against zero doesn't need the zero on the stack
+            if (JasminUtils.isZero(binaryOp.getRightOperand())) {
+                code.append(JasminUtils.compareWithZeroAndBranch(opType)).append(" ").append(label).append(NL);
+                return code.toString();
+            }
+
+            code.append(generators.apply(binaryOp.getRightOperand()));
+            code.append(JasminUtils.compareAndBranch(opType)).append(" ").append(label).append(NL);
+            return code.toString();
+        }
+
+        if (condition instanceof BinaryOpInstruction binaryOp && opType == OperationType.ANDB) {
+            // Chain the tests: a false left operand skips the jump without testing the right one
+            final String skipLabel = "andSkip" + labelNumber;
+            labelNumber++;
+
+            code.append(generators.apply(binaryOp.getLeftOperand()));
+            code.append("ifeq ").append(skipLabel).append(NL);
+            code.append(generators.apply(binaryOp.getRightOperand()));
+            code.append("ifne ").append(label).append(NL);
+            code.append(skipLabel).append(":").append(NL);
+            return code.toString();
+        }
+
+        if (condition instanceof BinaryOpInstruction binaryOp && opType == OperationType.ORB) {
+            // Chain the tests: a true left operand takes the jump without testing the right one
+            code.append(generators.apply(binaryOp.getLeftOperand()));
+            code.append("ifne ").append(label).append(NL);
+            code.append(generators.apply(binaryOp.getRightOperand()));
+            code.append("ifne ").append(label).append(NL);
+            return code.toString();
+        }
+
+        if (condition instanceof UnaryOpInstruction unaryOp && opType == OperationType.NOTB) {
+            // Jump if the operand is false, instead of negating it first
+            code.append(generators.apply(unaryOp.getOperand()));
+            code.append("ifeq ").append(label).append(NL);
+            return code.toString();
+        }
+
+        // Any other operation is computed as a value and then tested
+        code.append(generators.apply(condition));
+        code.append("ifne ").append(label).append(NL);
+
+        return code.toString();
+    }
+
+    private String generateSingleOpCond(SingleOpCondInstruction singleOpCond) {
+        final Element operand = singleOpCond.getCondition().getSingleOperand();
+        final String label = singleOpCond.getLabel();
+
+        // A constant condition is either an unconditional jump, or no jump at all
+        if (operand instanceof LiteralElement literal) {
+            return JasminUtils.isZero(literal) ? "" : "goto " + label + NL;
+        }
+
+        return generators.apply(operand) + "ifne " + label + NL;
+    }
+
+    private String generateGoto(GotoInstruction gotoInst) {
+        return "goto " + gotoInst.getLabel() + NL;
+    }
+
+    private String generateReturn(ReturnInstruction returnInst) {
+        final StringBuilder code = new StringBuilder();
+
+        final Element operand = returnInst.getOperand();
+        if (operand != null) {
+            code.append(generators.apply(operand));
+            code.append("ireturn").append(NL);
+        } else {
+            code.append("return");
+        }
+
+
+        return code.toString();
+    }
+
+    private String generateCall(CallInstruction callInst) {
+        final StringBuilder code = new StringBuilder();
+
+        switch (callInst.getInvocationType()) {
+            case invokevirtual -> {
+                final String classname = ((ClassType) callInst.getCaller().getType()).getName();
+                final String methodname = ((LiteralElement) callInst.getMethodName()).getLiteral().replace("\"", "");
+
+                // Find matching method by name. Java-- does not support method overloading.
+                // TODO(bartek): Support imported and inherited methods (i.e. methods not present in ClassUnit)
+
+                final var caller = (Operand) callInst.getCaller();
+                code.append(generateObjectref(caller));
+                // Push operands onto the stack from the registers.
+                for (final Element element : callInst.getArguments()) {
+                    code.append(generators.apply(element));
+                }
+
+                code.append("invokevirtual ");
+                code.append(classname).append("/").append(methodname);
+                code.append("(");
+                code.append(callInst.getArguments().stream()
+                        .map(p -> JasminUtils.toJasminType(p.getType()))
+                        .collect(Collectors.joining())
+                );
+                code.append(")");
+                code.append(JasminUtils.toJasminType(callInst.getReturnType()));
+
+
+                code.append(NL);
+            }
+            case invokeinterface -> throw new NotImplementedException("Not supported by Java--.");
+            case invokespecial -> {
+                // invokespecial was named invokenonvirtual in the past.
+                // The difference to invokevirtual is that invokespecial is resolved at compile time.
+                // The first argument to invokespecial is an objectref.
+
+                final Operand operand = ((Operand) callInst.getCaller());
+                final String classname = ((ClassType) operand.getType()).getName();
+                final String methodname = "<init>";
+                final String descriptor = "()V";
+
+                code.append(generateObjectref(operand));
+                code.append("invokespecial ").append(classname).append("/").append(methodname).append(descriptor).append(NL);
+                code.append("pop ").append(NL); // Dismiss the void result of invokespecial
+
+            }
+            case invokestatic -> {
+                var classname = ((Operand) callInst.getCaller()).getName();
+                // If this classname is imported, use the fully-qualified name
+                for (final var fullImportPath : ollirClass.getImports()) {
+                    final var importParts = fullImportPath.split("\\.");
+                    if (importParts.length > 1) {
+                        final var importedClass = importParts[importParts.length - 1];
+                        if (importedClass.equals(classname)) {
+                            classname = fullImportPath.replace(".", "/");
+                        }
+                    }
+                }
+
+                final String methodname = ((LiteralElement) callInst.getMethodName()).getLiteral().replace("\"", "");
+                final String descriptor = "(" + JasminUtils.argumentsToDescriptor(callInst.getArguments()) + ")" + JasminUtils.toJasminType(callInst.getReturnType());
+
+                for (final Element element : callInst.getArguments()) {
+                    code.append(generators.apply(element));
+                }
+
+                code.append("invokestatic ").append(classname).append("/").append(methodname).append(descriptor).append(NL);
+            }
+            case NEW -> {
+                final String classname = ((Operand) callInst.getCaller()).getName();
+
+                code.append("new ").append(classname).append(NL);
+                code.append("dup").append(NL);
+            }
+            case arraylength -> throw new NotImplementedException("arraylength is not yet implemented");
+            case ldc -> throw new NotImplementedException("Not suported by Java--");
+        }
+
+        return code.toString();
+    }
+
+    private String generateObjectref(Operand operand) {
+        // The value is already on the stack, left there by the previous instruction
+        if (stackTemps.contains(operand.getName())) {
+            return "";
+        }
+
+        final int reg = method.getVarTable().get(operand.getName()).getVirtualReg();
+        return "aload " + reg + NL;
+    }
+
+    private String generatePutField(PutFieldInstruction putFieldInst) {
+        final StringBuilder code = new StringBuilder();
+        final String className = ollirClass.getClassName();
+
+        // Example:
+        // aload 0
+        // iload 1
+        // putfield ClassName/fieldName I
+        code.append(generateObjectref(putFieldInst.getObject()));
+        code.append(generators.apply(putFieldInst.getValue()));
+        code.append("putfield ").append(className).append("/").append(putFieldInst.getField().getName()).append(" ").append(JasminUtils.toJasminType(putFieldInst.getField().getType())).append(NL);
+
+        return code.toString();
+    }
+
+    private String generateGetField(GetFieldInstruction putFieldInst) {
+        final String className = ollirClass.getClassName();
+        final StringBuilder code = new StringBuilder();
+        code.append(generateObjectref(putFieldInst.getObject()));
+        code.append("getfield ").append(className).append("/").append(putFieldInst.getField().getName()).append(" ").append(JasminUtils.toJasminType(putFieldInst.getField().getType())).append(NL);
+        return code.toString();
+    }
+}
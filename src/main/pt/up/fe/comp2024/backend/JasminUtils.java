@@ -3,6 +3,8 @@ package pt.up.fe.comp2024.backend;
 import org.specs.comp.ollir.ArrayType;
 import org.specs.comp.ollir.Element;
 import org.specs.comp.ollir.ElementType;
+import org.specs.comp.ollir.LiteralElement;
+import org.specs.comp.ollir.OperationType;
 import org.specs.comp.ollir.Type;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
 
@@ -38,6 +40,47 @@ public class JasminUtils {
         return bytecode + " " + reg;
     }
 
+    public static boolean isComparison(OperationType opType) {
+        return switch (opType) {
+            case LTH, GTH, LTE, GTE, EQ, NEQ -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return the instruction that compares the two ints on top of the stack and jumps if the comparison holds
+     */
+    public static String compareAndBranch(OperationType opType) {
+        return switch (opType) {
+            case LTH -> "if_icmplt";
+            case GTH -> "if_icmpgt";
+            case LTE -> "if_icmple";
+            case GTE -> "if_icmpge";
+            case EQ -> "if_icmpeq";
+            case NEQ -> "if_icmpne";
+            default -> throw new NotImplementedException(opType);
+        };
+    }
+
+    /**
+     * @return the instruction that compares the int on top of the stack with zero and jumps if the comparison holds
+     */
+    public static String compareWithZeroAndBranch(OperationType opType) {
+        return switch (opType) {
+            case LTH -> "iflt";
+            case GTH -> "ifgt";
+            case LTE -> "ifle";
+            case GTE -> "ifge";
+            case EQ -> "ifeq";
+            case NEQ -> "ifne";
+            default -> throw new NotImplementedException(opType);
+        };
+    }
+
+    public static boolean isZero(Element element) {
+        return element instanceof LiteralElement literal && literal.getLiteral().equals("0");
+    }
+
     /**
      * Converts OLLIR type into Jasmin type.
      */
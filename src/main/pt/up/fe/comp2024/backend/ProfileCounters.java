@@ -0,0 +1,167 @@
+package pt.up.fe.comp2024.backend;
+
+import pt.up.fe.comp2024.optimization.Profile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters added to the generated class by <code>-instrument</code>, one per method and per label.
+ * <p>
+ * The counts are kept in a static <code>int[]</code> of the class, and each counted point increments its entry.
+ * When the class is loaded, it registers a shutdown hook that writes every count to the profile file, in the format
+ * read by {@link Profile}, so the profile is written however the program ends: when <code>main</code> returns,
+ * throws, or something calls <code>System.exit</code>.
+ */
+public class ProfileCounters {
+
+    private static final String NL = "\n";
+    private static final String TAB = "   ";
+
+    private static final String FIELD = "jmm$counters";
+    private static final String FLUSH_METHOD = "jmm$flushProfile";
+
+    private final String className;
+
+    private final File profileFile;
+
+    private final Map<String, Integer> indexes;
+
+    private final List<String> keys;
+
+    public ProfileCounters(String className, File profileFile) {
+        this.className = className;
+        this.profileFile = profileFile;
+        this.indexes = new HashMap<>();
+        this.keys = new ArrayList<>();
+    }
+
+    /**
+     * @return the declaration of the array with the counts
+     */
+    public String field() {
+        return ".field private static " + FIELD + " [I" + NL + NL;
+    }
+
+    /**
+     * Gives the method the next counter. Every counter is registered before any code is generated, so their
+     * numbers don't depend on the order methods are generated in.
+     */
+    public void registerMethod(String methodName) {
+        register(Profile.key(methodName));
+    }
+
+    public void registerLabel(String methodName, String label) {
+        register(Profile.key(methodName, label));
+    }
+
+    /**
+     * @return stack-neutral code that increments the count of the method
+     */
+    public String countMethod(String methodName) {
+        return increment(Profile.key(methodName));
+    }
+
+    /**
+     * @return stack-neutral code that increments the count of the label
+     */
+    public String countLabel(String methodName, String label) {
+        return increment(Profile.key(methodName, label));
+    }
+
+    /**
+     * @return the methods that create the array and write the profile, once every counter is known
+     */
+    public String methods() {
+        final StringBuilder code = new StringBuilder();
+
+        code.append(NL).append(".method static <clinit>()V").append(NL);
+        code.append(TAB).append(".limit stack 8").append(NL);
+        code.append(TAB).append(".limit locals 0").append(NL);
+        code.append(TAB).append("ldc ").append(keys.size()).append(NL);
+        code.append(TAB).append("newarray int").append(NL);
+        code.append(TAB).append("putstatic ").append(className).append("/").append(FIELD).append(" [I").append(NL);
+
+        // Runtime.getRuntime().addShutdownHook(new Thread(<Runnable that calls the flush method>)), the Runnable
+        // comes from a method handle, since the backend generates a single class
+        code.append(TAB).append("invokestatic java/lang/Runtime/getRuntime()Ljava/lang/Runtime;").append(NL);
+        code.append(TAB).append("new java/lang/Thread").append(NL);
+        code.append(TAB).append("dup").append(NL);
+        code.append(TAB).append("ldc \"java.lang.Runnable\"").append(NL);
+        code.append(TAB).append("invokestatic java/lang/Class/forName(Ljava/lang/String;)Ljava/lang/Class;").append(NL);
+        code.append(TAB).append("invokestatic java/lang/invoke/MethodHandles/lookup()")
+                .append("Ljava/lang/invoke/MethodHandles$Lookup;").append(NL);
+        code.append(TAB).append("dup").append(NL);
+        code.append(TAB).append("invokevirtual java/lang/invoke/MethodHandles$Lookup/lookupClass()Ljava/lang/Class;")
+                .append(NL);
+        code.append(TAB).append("ldc ").append(quote(FLUSH_METHOD)).append(NL);
+        code.append(TAB).append("getstatic java/lang/Void/TYPE Ljava/lang/Class;").append(NL);
+        code.append(TAB).append("invokestatic java/lang/invoke/MethodType/methodType(Ljava/lang/Class;)")
+                .append("Ljava/lang/invoke/MethodType;").append(NL);
+        code.append(TAB).append("invokevirtual java/lang/invoke/MethodHandles$Lookup/findStatic(Ljava/lang/Class;")
+                .append("Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/MethodHandle;").append(NL);
+        code.append(TAB).append("invokestatic java/lang/invoke/MethodHandleProxies/asInterfaceInstance(")
+                .append("Ljava/lang/Class;Ljava/lang/invoke/MethodHandle;)Ljava/lang/Object;").append(NL);
+        code.append(TAB).append("checkcast java/lang/Runnable").append(NL);
+        code.append(TAB).append("invokespecial java/lang/Thread/<init>(Ljava/lang/Runnable;)V").append(NL);
+        code.append(TAB).append("invokevirtual java/lang/Runtime/addShutdownHook(Ljava/lang/Thread;)V").append(NL);
+        code.append(TAB).append("return").append(NL);
+        code.append(".end method").append(NL);
+
+        code.append(NL).append(".method private static ").append(FLUSH_METHOD).append("()V").append(NL);
+        code.append(TAB).append(".limit stack 4").append(NL);
+        code.append(TAB).append(".limit locals 1").append(NL);
+        code.append(TAB).append("new java/io/PrintStream").append(NL);
+        code.append(TAB).append("dup").append(NL);
+        code.append(TAB).append("ldc ").append(quote(profileFile.getPath())).append(NL);
+        code.append(TAB).append("invokespecial java/io/PrintStream/<init>(Ljava/lang/String;)V").append(NL);
+        code.append(TAB).append("astore_0").append(NL);
+
+        for (int i = 0; i < keys.size(); i++) {
+            code.append(TAB).append("aload_0").append(NL);
+            code.append(TAB).append("ldc ").append(quote(keys.get(i) + " ")).append(NL);
+            code.append(TAB).append("invokevirtual java/io/PrintStream/print(Ljava/lang/String;)V").append(NL);
+            code.append(TAB).append("aload_0").append(NL);
+            code.append(TAB).append("getstatic ").append(className).append("/").append(FIELD).append(" [I").append(NL);
+            code.append(TAB).append("ldc ").append(i).append(NL);
+            code.append(TAB).append("iaload").append(NL);
+            code.append(TAB).append("invokevirtual java/io/PrintStream/println(I)V").append(NL);
+        }
+
+        code.append(TAB).append("aload_0").append(NL);
+        code.append(TAB).append("invokevirtual java/io/PrintStream/close()V").append(NL);
+        code.append(TAB).append("return").append(NL);
+        code.append(".end method").append(NL);
+
+        return code.toString();
+    }
+
+    private void register(String key) {
+        indexes.computeIfAbsent(key, k -> {
+            keys.add(k);
+            return keys.size() - 1;
+        });
+    }
+
+    private String increment(String key) {
+        final Integer index = indexes.get(key);
+        if (index == null) {
+            throw new IllegalStateException("Counter '" + key + "' was not registered");
+        }
+
+        return TAB + "getstatic " + className + "/" + FIELD + " [I" + NL
+                + TAB + "ldc " + index + NL
+                + TAB + "dup2" + NL
+                + TAB + "iaload" + NL
+                + TAB + "iconst_1" + NL
+                + TAB + "iadd" + NL
+                + TAB + "iastore" + NL;
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
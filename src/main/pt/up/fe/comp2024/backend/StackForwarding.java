@@ -0,0 +1,221 @@
+package pt.up.fe.comp2024.backend;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Finds the variables of a method whose value can stay on the JVM operand stack, instead of going through a local.
+ * <p>
+ * OLLIR saves every subexpression in a temporary, which becomes a store immediately followed by a load:
+ * <pre>
+ * tmp0.i32 :=.i32 a.i32 +.i32 b.i32;     iload 1; iload 2; iadd; istore 3
+ * c.i32 :=.i32 tmp0.i32;                 iload 3; istore 4
+ * </pre>
+ * A variable can skip its store and load when it is assigned once, read once, and the read is the first value
+ * pushed by the instruction right after the assignment. Then, the value is already on top of the stack:
+ * <pre>
+ * iload 1; iload 2; iadd; istore 3
+ * </pre>
+ * Forwarded variables don't get a register, and the remaining locals are renumbered to fill the gaps.
+ */
+public class StackForwarding {
+
+    private final Method method;
+
+    private final List<Instruction> instructions;
+
+    public StackForwarding(Method method) {
+        this.method = method;
+        this.instructions = method.getInstructions();
+    }
+
+    /**
+     * @return names of the variables that are kept on the stack
+     */
+    public Set<String> apply() {
+        final Map<String, Integer> occurrences = countOccurrences();
+        final Set<Instruction> jumpTargets = new HashSet<>(method.getLabels().values());
+        final Set<String> forwarded = new HashSet<>();
+
+        for (int i = 0; i < instructions.size() - 1; i++) {
+            if (!(instructions.get(i) instanceof AssignInstruction assign)) {
+                continue;
+            }
+
+            if (!isForwardable(assign)) {
+                continue;
+            }
+
+            final String name = ((Operand) assign.getDest()).getName();
+
+            // One occurrence is the assignment itself, the other is the only read
+            if (occurrences.getOrDefault(name, 0) != 2) {
+                continue;
+            }
+
+            // Reaching the next instruction through a jump would skip the value
+            final Instruction next = instructions.get(i + 1);
+            if (jumpTargets.contains(next)) {
+                continue;
+            }
+
+            moveToFront(next, name);
+
+            if (firstLoaded(next) instanceof Operand operand && operand.getName().equals(name)) {
+                forwarded.add(name);
+            }
+        }
+
+        compactRegisters(forwarded);
+
+        return forwarded;
+    }
+
+    private boolean isForwardable(AssignInstruction assign) {
+        if (!(assign.getDest() instanceof Operand dest) || dest instanceof ArrayOperand) {
+            return false;
+        }
+
+        final Descriptor descriptor = method.getVarTable().get(dest.getName());
+        if (descriptor == null || descriptor.getScope() != VarScope.LOCAL) {
+            return false;
+        }
+
+        // 'new' leaves an extra reference on the stack for the constructor call
+        return !(assign.getRhs() instanceof CallInstruction call && call.getInvocationType() == CallType.NEW);
+    }
+
+    private Map<String, Integer> countOccurrences() {
+        final Map<String, Integer> occurrences = new HashMap<>();
+
+        for (final Instruction inst : instructions) {
+            inst.getDescendantsStream()
+                    .filter(node -> node instanceof Operand)
+                    .map(node -> ((Operand) node).getName())
+                    .forEach(name -> occurrences.merge(name, 1, Integer::sum));
+        }
+
+        return occurrences;
+    }
+
+    /**
+     * @return the element whose value is the first one pushed onto the stack by <code>inst</code>, or null
+     */
+    private static Element firstLoaded(Instruction inst) {
+        if (inst instanceof AssignInstruction assign) {
+            // Array stores push the array reference first
+            return assign.getDest() instanceof ArrayOperand ? null : firstLoaded(assign.getRhs());
+        }
+
+        if (inst instanceof SingleOpInstruction singleOp) {
+            return singleOp.getSingleOperand();
+        }
+
+        if (inst instanceof UnaryOpInstruction unaryOp) {
+            return unaryOp.getOperand();
+        }
+
+        if (inst instanceof BinaryOpInstruction binaryOp) {
+            return binaryOp.getLeftOperand();
+        }
+
+        if (inst instanceof OpCondInstruction opCond) {
+            return firstLoaded(opCond.getCondition());
+        }
+
+        if (inst instanceof SingleOpCondInstruction singleOpCond) {
+            return singleOpCond.getCondition().getSingleOperand();
+        }
+
+        if (inst instanceof ReturnInstruction returnInst) {
+            return returnInst.getOperand();
+        }
+
+        if (inst instanceof CallInstruction call) {
+            return switch (call.getInvocationType()) {
+                case invokevirtual, invokespecial -> call.getCaller();
+                case invokestatic -> call.getArguments().isEmpty() ? null : call.getArguments().get(0);
+                default -> null;
+            };
+        }
+
+        if (inst instanceof GetFieldInstruction getField) {
+            return getField.getObject();
+        }
+
+        if (inst instanceof PutFieldInstruction putField) {
+            return putField.getObject();
+        }
+
+        return null;
+    }
+
+    /**
+     * Swaps the operands of a commutative operation, so that <code>name</code> is loaded first.
+     * Comparisons are mirrored, e.g. a < b becomes b > a.
+     */
+    private static void moveToFront(Instruction inst, String name) {
+        if (inst instanceof AssignInstruction assign) {
+            moveToFront(assign.getRhs(), name);
+            return;
+        }
+
+        if (inst instanceof OpCondInstruction opCond) {
+            moveToFront(opCond.getCondition(), name);
+            return;
+        }
+
+        if (!(inst instanceof BinaryOpInstruction binaryOp)) {
+            return;
+        }
+
+        if (!(binaryOp.getRightOperand() instanceof Operand right) || !right.getName().equals(name)) {
+            return;
+        }
+
+        final Operation operation = binaryOp.getOperation();
+        final OperationType swapped = switch (operation.getOpType()) {
+            case ADD, MUL, AND, OR, XOR, ANDB, ORB, EQ, NEQ -> operation.getOpType();
+            case LTH -> OperationType.GTH;
+            case GTH -> OperationType.LTH;
+            case LTE -> OperationType.GTE;
+            case GTE -> OperationType.LTE;
+            default -> null;
+        };
+
+        if (swapped == null) {
+            return;
+        }
+
+        final Element left = binaryOp.getLeftOperand();
+        binaryOp.setLeftOperand(right);
+        binaryOp.setRightOperand(left);
+        operation.setOpType(swapped);
+    }
+
+    /**
+     * Gives consecutive registers to the locals that are still stored, after 'this' and the parameters.
+     */
+    private void compactRegisters(Set<String> forwarded) {
+        final List<Map.Entry<String, Descriptor>> locals = method.getVarTable().entrySet().stream()
+                .filter(entry -> entry.getValue().getScope() == VarScope.LOCAL)
+                .filter(entry -> !entry.getKey().equals("this"))
+                .sorted(Comparator.comparingInt(entry -> entry.getValue().getVirtualReg()))
+                .toList();
+
+        int nextReg = method.getVarTable().values().stream()
+                .filter(descriptor -> descriptor.getScope() == VarScope.PARAMETER)
+                .mapToInt(Descriptor::getVirtualReg)
+                .max()
+                .orElse(method.isStaticMethod() ? -1 : 0) + 1;
+
+        for (final var local : locals) {
+            if (forwarded.contains(local.getKey())) {
+                continue;
+            }
+
+            local.getValue().setVirtualReg(nextReg++);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package pt.up.fe.comp2024.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An analysis pass over one shard of the program, the nodes outside methods or one method.
+ */
+@Name("pt.up.fe.comp2024.AnalysisPass")
+@Label("Analysis Pass")
+@Category({"J--", "Compiler", "Analysis"})
+public class AnalysisPassEvent extends Event {
+
+    @Label("File")
+    public String fileName;
+
+    @Label("Pass")
+    public String pass;
+
+    @Label("Method")
+    @Description("Empty for the nodes outside methods")
+    public String methodName;
+
+    @Label("AST Nodes")
+    @Description("Nodes of the shard")
+    public long nodeCount;
+
+    @Label("Reports")
+    public int reportCount;
+}
@@ -0,0 +1,84 @@
+package pt.up.fe.comp2024.events;
+
+import org.specs.comp.ollir.ClassUnit;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp2024.CompilerConfig;
+
+import java.io.File;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Records what the compiler does as JFR events, to look at next to the GC and the JIT of the same run, e.g. with
+ * <code>JAVA_OPTS=-XX:StartFlightRecording=filename=jmm.jfr</code>.
+ * <p>
+ * Events cost next to nothing when they aren't recorded: nodes and instructions are only counted for events that
+ * are.
+ */
+public class CompilerEvents {
+
+    /**
+     * Runs a stage of the compiler as a {@link StageEvent}, with the nodes or instructions of what it produced.
+     */
+    public static <T> T stage(String stage, Map<String, String> config, Supplier<T> work) {
+        final var event = new StageEvent();
+        event.begin();
+
+        final T result = work.get();
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.fileName = fileName(config);
+            event.stage = stage;
+
+            if (result instanceof JmmParserResult parserResult && parserResult.getRootNode() != null) {
+                event.nodeCount = countNodes(parserResult.getRootNode());
+            } else if (result instanceof JmmSemanticsResult semanticsResult) {
+                event.nodeCount = countNodes(semanticsResult.getRootNode());
+            } else if (result instanceof OllirResult ollirResult) {
+                event.instructionCount = countInstructions(ollirResult.getOllirClass());
+            } else if (result instanceof JasminResult jasminResult) {
+                event.instructionCount = countInstructions(jasminResult.getJasminCode());
+            }
+
+            event.commit();
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the name of the file being compiled, or empty if the code didn't come from a file
+     */
+    public static String fileName(Map<String, String> config) {
+        return CompilerConfig.getInputFile(config).map(File::getName).orElse("");
+    }
+
+    public static long countNodes(JmmNode node) {
+        return 1 + node.getDescendants().size();
+    }
+
+    public static long countInstructions(ClassUnit ollirClass) {
+        return ollirClass.getMethods().stream().mapToLong(CompilerEvents::countInstructions).sum();
+    }
+
+    public static long countInstructions(Method method) {
+        return method.getInstructions().size();
+    }
+
+    /**
+     * @return the lines of Jasmin code that are instructions, leaving out directives, labels and comments
+     */
+    public static long countInstructions(String jasminCode) {
+        return jasminCode.lines()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .filter(line -> !line.startsWith(".") && !line.startsWith(";") && !line.endsWith(":"))
+                .count();
+    }
+}
@@ -0,0 +1,36 @@
+package pt.up.fe.comp2024.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * An optimization of the OLLIR of a method, or of the whole class.
+ */
+@Name("pt.up.fe.comp2024.Optimization")
+@Label("Optimization")
+@Category({"J--", "Compiler", "Optimization"})
+public class OptimizationEvent extends Event {
+
+    @Label("File")
+    public String fileName;
+
+    @Label("Optimization")
+    public String optimization;
+
+    @Label("Method")
+    @Description("Empty for optimizations of the whole class")
+    public String methodName;
+
+    @Label("Instructions Before")
+    public long instructionsBefore;
+
+    @Label("Instructions After")
+    public long instructionsAfter;
+
+    @Label("Changed")
+    @Description("If the optimization reported a change, or the number of instructions changed")
+    public boolean changed;
+}
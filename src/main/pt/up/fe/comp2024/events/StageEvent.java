@@ -0,0 +1,30 @@
+package pt.up.fe.comp2024.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A stage of the compiler run by the {@link pt.up.fe.comp2024.Launcher}, e.g. parsing or Jasmin generation.
+ */
+@Name("pt.up.fe.comp2024.Stage")
+@Label("Compiler Stage")
+@Category({"J--", "Compiler"})
+public class StageEvent extends Event {
+
+    @Label("File")
+    public String fileName;
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("AST Nodes")
+    @Description("Nodes of the AST the stage produced, for parsing and semantic analysis")
+    public long nodeCount;
+
+    @Label("Instructions")
+    @Description("OLLIR or Jasmin instructions the stage produced, for the later stages")
+    public long instructionCount;
+}
@@ -0,0 +1,390 @@
+package pt.up.fe.comp2024.generator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates J-- programs to compile, e.g. inputs of any size for benchmarks. The same seed and options always give
+ * the same program.
+ * <p>
+ * Programs follow Javamm.g4, pass semantic analysis and run:
+ * <ul>
+ *     <li>every local is assigned at the start of its method, and loop counters are only read in their loop;</li>
+ *     <li>loops count up to a constant, and their counters are never assigned in the body;</li>
+ *     <li>methods only call methods declared before them, from at most one place outside loops;</li>
+ *     <li>divisions are by constants other than zero.</li>
+ * </ul>
+ * They only use what the rest of the compiler handles: int and boolean values, no arrays, '&lt;' as the only
+ * comparison, methods that return a local, and imports of classes outside of packages.
+ * <p>
+ * Imports come from libs-jmm first, e.g. io, and classes that don't exist after those. Only io.println and
+ * ioPlus.printResult are called, so the classes that don't exist are only needed to compile, not to run.
+ */
+public class ProgramGenerator {
+
+    /**
+     * @param methods         methods of the class, besides main
+     * @param fields          fields of the class
+     * @param locals          locals of each method, besides its result and loop counters
+     * @param statements      statements of each method body, and at most as many in each nested block
+     * @param statementDepth  how deep ifs, loops and blocks nest
+     * @param expressionDepth how deep operators nest in an expression
+     * @param loops           loops in each method, nested or not
+     * @param imports         imported classes
+     */
+    public record Options(int methods, int fields, int locals, int statements, int statementDepth,
+                          int expressionDepth, int loops, int imports) {
+
+        public static final Options DEFAULT = new Options(10, 4, 4, 6, 3, 3, 2, 1);
+
+        public Options {
+            for (final int count : new int[]{methods, fields, locals, statements, statementDepth, expressionDepth,
+                    loops, imports}) {
+                if (count < 0) {
+                    throw new IllegalArgumentException("Generator options can't be negative, got " + count);
+                }
+            }
+        }
+
+        /**
+         * @return the same options, with a different number of methods, which mostly decides the size of the program
+         */
+        public Options withMethods(int methods) {
+            return new Options(methods, fields, locals, statements, statementDepth, expressionDepth, loops, imports);
+        }
+    }
+
+    /**
+     * Classes in libs-jmm outside of packages, the ones imported first.
+     */
+    private static final List<String> LIBRARIES = List.of("io", "ioPlus", "MathUtils", "Quicksort", "BoardBase");
+
+    private static final String INT = "int";
+
+    private static final String BOOLEAN = "boolean";
+
+    private final long seed;
+
+    private final Options options;
+
+    private final Random random;
+
+    private final StringBuilder code = new StringBuilder();
+
+    private int indentation;
+
+    private final List<String> imports = new ArrayList<>();
+
+    /**
+     * Parameters of each method generated so far, for the calls to it.
+     */
+    private final List<Integer> parameterCounts = new ArrayList<>();
+
+    /**
+     * Fields and locals that can be assigned, by type.
+     */
+    private final Map<String, List<String>> assignable = new HashMap<>();
+
+    /**
+     * Variables that can be read, by type, which also has parameters and loop counters.
+     */
+    private final Map<String, List<String>> readable = new HashMap<>();
+
+    private int method;
+
+    private int loopsLeft;
+
+    private int counters;
+
+    private boolean callLeft;
+
+    private int loopDepth;
+
+    public ProgramGenerator(long seed, Options options) {
+        this.seed = seed;
+        this.options = options;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @return a program with a class with the given name, which must be a valid identifier
+     */
+    public String generate(String className) {
+        random.setSeed(seed);
+        code.setLength(0);
+        indentation = 0;
+        imports.clear();
+        parameterCounts.clear();
+
+        for (int i = 0; i < options.imports(); i++) {
+            final String library = i < LIBRARIES.size() ? LIBRARIES.get(i) : "Lib" + (i - LIBRARIES.size());
+            line("import " + library + ";");
+            imports.add(library);
+        }
+
+        line("class " + className + " {");
+        indentation++;
+
+        for (int i = 0; i < options.fields(); i++) {
+            line(type(i) + " f" + i + ";");
+        }
+
+        for (method = 0; method < options.methods(); method++) {
+            generateMethod();
+        }
+
+        generateMain(className);
+
+        indentation--;
+        line("}");
+
+        return code.toString();
+    }
+
+    private void generateMethod() {
+        assignable.clear();
+        readable.clear();
+        loopsLeft = options.loops();
+        counters = 0;
+        callLeft = method > 0;
+
+        for (int i = 0; i < options.fields(); i++) {
+            addVariable("f" + i, type(i), true);
+        }
+
+        final int parameters = random.nextInt(3);
+        parameterCounts.add(parameters);
+        final List<String> declarations = new ArrayList<>();
+        for (int i = 0; i < parameters; i++) {
+            declarations.add(INT + " p" + i);
+            addVariable("p" + i, INT, false);
+        }
+
+        line("public int m" + method + "(" + String.join(", ", declarations) + ") {");
+        indentation++;
+
+        line(INT + " r;");
+        for (int i = 0; i < options.locals(); i++) {
+            line(type(i) + " l" + i + ";");
+        }
+        for (int i = 0; i < options.loops(); i++) {
+            line(INT + " i" + i + ";");
+        }
+
+        // Every local has a value before the body reads it
+        line("r = " + method + ";");
+        addVariable("r", INT, true);
+        for (int i = 0; i < options.locals(); i++) {
+            line("l" + i + " = " + literal(type(i)) + ";");
+            addVariable("l" + i, type(i), true);
+        }
+
+        statements(options.statements(), options.statementDepth());
+
+        // The result depends on the body, and is a local since returning an expression isn't handled
+        line("r = r + " + expression(INT, options.expressionDepth()) + ";");
+        line("return r;");
+
+        indentation--;
+        line("}");
+    }
+
+    private void generateMain(String className) {
+        line("public static void main(String[] args) {");
+        indentation++;
+
+        line(className + " o;");
+        line(INT + " v;");
+        line("o = new " + className + "();");
+        for (int i = 0; i < options.methods(); i++) {
+            final int parameters = parameterCounts.get(i);
+            final List<String> arguments = new ArrayList<>();
+            for (int j = 0; j < parameters; j++) {
+                arguments.add(Integer.toString(random.nextInt(10)));
+            }
+
+            line("v = o.m" + i + "(" + String.join(", ", arguments) + ");");
+            if (imports.contains("io")) {
+                line("io.println(v);");
+            }
+        }
+
+        indentation--;
+        line("}");
+    }
+
+    private void statements(int count, int depth) {
+        for (int i = 0; i < count; i++) {
+            statement(depth);
+        }
+    }
+
+    private void statement(int depth) {
+        final int kind = random.nextInt(depth > 0 ? 7 : 4);
+
+        switch (kind) {
+            case 0, 1, 2 -> assignment();
+            case 3 -> print();
+            case 4 -> {
+                line("if (" + expression(BOOLEAN, options.expressionDepth()) + ") {");
+                block(depth);
+                line("} else {");
+                block(depth);
+                line("}");
+            }
+            case 5 -> {
+                if (loopsLeft == 0) {
+                    assignment();
+                    return;
+                }
+
+                loop(depth);
+            }
+            default -> {
+                line("{");
+                block(depth);
+                line("}");
+            }
+        }
+    }
+
+    private void block(int depth) {
+        indentation++;
+        statements(1 + random.nextInt(Math.max(options.statements(), 1)), depth - 1);
+        indentation--;
+    }
+
+    private void loop(int depth) {
+        loopsLeft--;
+        final String counter = "i" + counters++;
+
+        line(counter + " = 0;");
+        line("while (" + counter + " < " + (1 + random.nextInt(8)) + ") {");
+
+        // Readable in the body, but never assigned there. Not after the loop, since the paths that skip it don't
+        // assign the counter
+        readable.get(INT).add(counter);
+        loopDepth++;
+        block(depth);
+        loopDepth--;
+        readable.get(INT).remove(counter);
+
+        indentation++;
+        line(counter + " = " + counter + " + 1;");
+        indentation--;
+        line("}");
+    }
+
+    private void assignment() {
+        final String type = random.nextInt(3) == 0 ? BOOLEAN : INT;
+        final List<String> targets = assignable.getOrDefault(type, List.of());
+        if (targets.isEmpty()) {
+            line("r = " + expression(INT, options.expressionDepth()) + ";");
+            return;
+        }
+
+        line(pick(targets) + " = " + expression(type, options.expressionDepth()) + ";");
+    }
+
+    private void print() {
+        if (imports.contains("ioPlus") && random.nextBoolean()) {
+            line("ioPlus.printResult(" + expression(INT, options.expressionDepth()) + ");");
+        } else if (imports.contains("io")) {
+            line("io.println(" + expression(INT, options.expressionDepth()) + ");");
+        } else {
+            assignment();
+        }
+    }
+
+    private String expression(String type, int depth) {
+        return type.equals(INT) ? intExpression(depth) : booleanExpression(depth);
+    }
+
+    private String intExpression(int depth) {
+        if (depth <= 0 || random.nextInt(3) == 0) {
+            return intAtom(depth);
+        }
+
+        return switch (random.nextInt(5)) {
+            case 0 -> intExpression(depth - 1) + " + " + intExpression(depth - 1);
+            case 1 -> intExpression(depth - 1) + " - " + intExpression(depth - 1);
+            case 2 -> intExpression(depth - 1) + " * " + intExpression(depth - 1);
+            case 3 -> intExpression(depth - 1) + " / " + (1 + random.nextInt(9));
+            default -> "(" + intExpression(depth - 1) + ")";
+        };
+    }
+
+    private String intAtom(int depth) {
+        // Calls stay out of loops, and each method makes one at most, so running the program takes linear time
+        if (callLeft && loopDepth == 0 && random.nextInt(4) == 0) {
+            callLeft = false;
+
+            final int callee = random.nextInt(method);
+            final List<String> arguments = new ArrayList<>();
+            for (int i = 0; i < parameterCounts.get(callee); i++) {
+                arguments.add(intExpression(Math.max(depth - 1, 0)));
+            }
+
+            return "this.m" + callee + "(" + String.join(", ", arguments) + ")";
+        }
+
+        final List<String> variables = readable.getOrDefault(INT, List.of());
+        if (variables.isEmpty() || random.nextInt(3) == 0) {
+            return literal(INT);
+        }
+
+        return pick(variables);
+    }
+
+    private String booleanExpression(int depth) {
+        if (depth <= 0 || random.nextInt(3) == 0) {
+            return booleanAtom(depth);
+        }
+
+        return switch (random.nextInt(4)) {
+            case 0 -> booleanExpression(depth - 1) + " && " + booleanExpression(depth - 1);
+            case 1 -> booleanExpression(depth - 1) + " || " + booleanExpression(depth - 1);
+            case 2 -> "!(" + booleanExpression(depth - 1) + ")";
+            default -> "(" + booleanExpression(depth - 1) + ")";
+        };
+    }
+
+    private String booleanAtom(int depth) {
+        final List<String> variables = readable.getOrDefault(BOOLEAN, List.of());
+
+        return switch (random.nextInt(3)) {
+            case 0 -> intExpression(Math.max(depth - 1, 0)) + " < " + intExpression(Math.max(depth - 1, 0));
+            case 1 -> variables.isEmpty() ? literal(BOOLEAN) : pick(variables);
+            default -> literal(BOOLEAN);
+        };
+    }
+
+    private String literal(String type) {
+        return type.equals(INT) ? Integer.toString(random.nextInt(100)) : Boolean.toString(random.nextBoolean());
+    }
+
+    private void addVariable(String name, String type, boolean isAssignable) {
+        readable.computeIfAbsent(type, key -> new ArrayList<>()).add(name);
+        if (isAssignable) {
+            assignable.computeIfAbsent(type, key -> new ArrayList<>()).add(name);
+        }
+    }
+
+    /**
+     * Fields and locals alternate between int and boolean, so there are as many of each.
+     */
+    private static String type(int index) {
+        return index % 2 == 0 ? INT : BOOLEAN;
+    }
+
+    private String pick(List<String> values) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    private void line(String line) {
+        code.append("    ".repeat(indentation)).append(line).append("\n");
+    }
+}
@@ -0,0 +1,432 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Rewrites operations of a method into cheaper, equivalent ones, following a table of rules:
+ * <pre>
+ * x + 0, x - 0, x * 1, x / 1   ->  x
+ * x * 0, x - x                 ->  0
+ * x / -1                       ->  0 - x
+ * x * 2^k                      ->  x << k
+ * x / 2^k                      ->  x >> k, only when x is known to be non-negative
+ * b && true, b || false        ->  b
+ * b && false, b || true        ->  false, true
+ * !!b                          ->  b
+ * </pre>
+ * Operations on literals only are folded into a literal.
+ * <p>
+ * Division rounds towards zero, while a right shift rounds down, so the two only agree on non-negative dividends:
+ * -7 / 2 is -3, but -7 >> 1 is -4.
+ * <p>
+ * Every rewrite is logged as a report, so the quality of the generated code can be followed over time. Runs only
+ * with '-o', so the default build stays a direct translation of the source.
+ */
+public class AlgebraicSimplification {
+
+    private record Rule(String name, Function<OpInstruction, Instruction> rewrite) {
+    }
+
+    private final List<Rule> rules = List.of(
+            new Rule("fold-constants", this::foldConstants),
+            new Rule("add-zero", op -> is(op, OperationType.ADD) ? dropNeutral(op, 0, true) : null),
+            new Rule("sub-zero", op -> is(op, OperationType.SUB) ? dropNeutral(op, 0, false) : null),
+            new Rule("mul-one", op -> is(op, OperationType.MUL) ? dropNeutral(op, 1, true) : null),
+            new Rule("div-one", op -> is(op, OperationType.DIV) ? dropNeutral(op, 1, false) : null),
+            new Rule("mul-zero", this::multiplyByZero),
+            new Rule("sub-self", this::subtractSelf),
+            new Rule("div-minus-one", this::divideByMinusOne),
+            new Rule("mul-pow2-to-shl", this::multiplyByPowerOfTwo),
+            new Rule("div-pow2-to-shr", this::divideByPowerOfTwo),
+            new Rule("and-literal", op -> is(op, OperationType.ANDB) ? booleanWithLiteral(op, 1) : null),
+            new Rule("or-literal", op -> is(op, OperationType.ORB) ? booleanWithLiteral(op, 0) : null),
+            new Rule("not-not", this::doubleNegation)
+    );
+
+    private final Method method;
+
+    private final List<Instruction> instructions;
+
+    private final Map<String, Instruction> labelTable;
+
+    private final List<Report> reports;
+
+    public AlgebraicSimplification(Method method, List<Report> reports) {
+        this.method = method;
+        this.instructions = method.getInstructions();
+        this.labelTable = method.getLabels();
+        this.reports = reports;
+    }
+
+    /**
+     * @return true if any operation was rewritten
+     */
+    public boolean apply() {
+        boolean changed = false;
+
+        for (int i = 0; i < instructions.size(); i++) {
+            final Instruction inst = instructions.get(i);
+
+            if (inst instanceof AssignInstruction assign && assign.getRhs() instanceof OpInstruction op) {
+                final Instruction simplified = simplify(op, i);
+                if (simplified != null) {
+                    replace(i, new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(), simplified));
+                    changed = true;
+                }
+            } else if (inst instanceof OpCondInstruction branch) {
+                final Instruction simplified = simplify(branch.getCondition(), i);
+                if (simplified != null) {
+                    final CondBranchInstruction newBranch = simplified instanceof OpInstruction op
+                            ? new OpCondInstruction(op)
+                            : new SingleOpCondInstruction((SingleOpInstruction) simplified);
+                    newBranch.setLabel(branch.getLabel());
+                    replace(i, newBranch);
+                    changed = true;
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Applies the first rule that matches, and reports it.
+     *
+     * @return the rewritten operation, or null if no rule matches
+     */
+    private Instruction simplify(OpInstruction op, int index) {
+        for (final Rule rule : rules) {
+            final Instruction simplified = rule.rewrite().apply(op);
+            if (simplified == null) {
+                continue;
+            }
+
+            final String message = String.format("Simplified '%s' to '%s' in method %s (rule %s, instruction %d)",
+                    show(op), show(simplified), method.getMethodName(), rule.name(), index);
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+
+            return simplified;
+        }
+
+        return null;
+    }
+
+    private Instruction foldConstants(OpInstruction op) {
+        if (op instanceof UnaryOpInstruction unaryOp) {
+            final Integer value = intLiteral(unaryOp.getOperand());
+            if (value == null || unaryOp.getOperation().getOpType() != OperationType.NOTB) {
+                return null;
+            }
+
+            return single(bool(value == 0));
+        }
+
+        if (!(op instanceof BinaryOpInstruction binaryOp)) {
+            return null;
+        }
+
+        final Integer left = intLiteral(binaryOp.getLeftOperand());
+        final Integer right = intLiteral(binaryOp.getRightOperand());
+        if (left == null || right == null) {
+            return null;
+        }
+
+        // Integer arithmetic wraps around, exactly like at runtime
+        return switch (binaryOp.getOperation().getOpType()) {
+            case ADD -> single(integer(left + right));
+            case SUB -> single(integer(left - right));
+            case MUL -> single(integer(left * right));
+            // Division by zero must still throw at runtime
+            case DIV -> right == 0 ? null : single(integer(left / right));
+            case SHL -> single(integer(left << right));
+            case SHR -> single(integer(left >> right));
+            case SHRR -> single(integer(left >>> right));
+            case LTH -> single(bool(left < right));
+            case GTH -> single(bool(left > right));
+            case LTE -> single(bool(left <= right));
+            case GTE -> single(bool(left >= right));
+            case EQ -> single(bool(left.equals(right)));
+            case NEQ -> single(bool(!left.equals(right)));
+            case ANDB -> single(bool(left != 0 && right != 0));
+            case ORB -> single(bool(left != 0 || right != 0));
+            default -> null;
+        };
+    }
+
+    /**
+     * x op neutral -> x, and neutral op x -> x if the operation is commutative.
+     */
+    private static Instruction dropNeutral(OpInstruction op, int neutral, boolean commutative) {
+        final var binaryOp = (BinaryOpInstruction) op;
+
+        if (isLiteral(binaryOp.getRightOperand(), neutral)) {
+            return single(binaryOp.getLeftOperand());
+        }
+
+        if (commutative && isLiteral(binaryOp.getLeftOperand(), neutral)) {
+            return single(binaryOp.getRightOperand());
+        }
+
+        return null;
+    }
+
+    private Instruction multiplyByZero(OpInstruction op) {
+        if (!is(op, OperationType.MUL)) {
+            return null;
+        }
+
+        final var binaryOp = (BinaryOpInstruction) op;
+        if (isLiteral(binaryOp.getLeftOperand(), 0) || isLiteral(binaryOp.getRightOperand(), 0)) {
+            return single(integer(0));
+        }
+
+        return null;
+    }
+
+    private Instruction subtractSelf(OpInstruction op) {
+        if (!is(op, OperationType.SUB)) {
+            return null;
+        }
+
+        final var binaryOp = (BinaryOpInstruction) op;
+        if (binaryOp.getLeftOperand() instanceof Operand left && !(left instanceof ArrayOperand)
+                && binaryOp.getRightOperand() instanceof Operand right && !(right instanceof ArrayOperand)
+                && left.getName().equals(right.getName())) {
+            return single(integer(0));
+        }
+
+        return null;
+    }
+
+    private Instruction divideByMinusOne(OpInstruction op) {
+        if (!is(op, OperationType.DIV) || !isLiteral(((BinaryOpInstruction) op).getRightOperand(), -1)) {
+            return null;
+        }
+
+        // Also right for the smallest int, which is its own negation in both cases
+        return binary(integer(0), OperationType.SUB, ((BinaryOpInstruction) op).getLeftOperand());
+    }
+
+    private Instruction multiplyByPowerOfTwo(OpInstruction op) {
+        if (!is(op, OperationType.MUL)) {
+            return null;
+        }
+
+        final var binaryOp = (BinaryOpInstruction) op;
+
+        final int rightShift = log2(binaryOp.getRightOperand());
+        if (rightShift > 0) {
+            return binary(binaryOp.getLeftOperand(), OperationType.SHL, integer(rightShift));
+        }
+
+        final int leftShift = log2(binaryOp.getLeftOperand());
+        if (leftShift > 0) {
+            return binary(binaryOp.getRightOperand(), OperationType.SHL, integer(leftShift));
+        }
+
+        return null;
+    }
+
+    private Instruction divideByPowerOfTwo(OpInstruction op) {
+        if (!is(op, OperationType.DIV)) {
+            return null;
+        }
+
+        final var binaryOp = (BinaryOpInstruction) op;
+        final int shift = log2(binaryOp.getRightOperand());
+        if (shift <= 0 || !isNonNegative(binaryOp.getLeftOperand(), new HashSet<>())) {
+            return null;
+        }
+
+        return binary(binaryOp.getLeftOperand(), OperationType.SHR, integer(shift));
+    }
+
+    /**
+     * b && true -> b, b && false -> false, and b || false -> b, b || true -> true.
+     *
+     * @param neutral the literal that leaves the other operand unchanged
+     */
+    private static Instruction booleanWithLiteral(OpInstruction op, int neutral) {
+        final var binaryOp = (BinaryOpInstruction) op;
+
+        for (final boolean literalOnRight : new boolean[]{true, false}) {
+            final Element literal = literalOnRight ? binaryOp.getRightOperand() : binaryOp.getLeftOperand();
+            final Element other = literalOnRight ? binaryOp.getLeftOperand() : binaryOp.getRightOperand();
+
+            final Integer value = intLiteral(literal);
+            if (value == null) {
+                continue;
+            }
+
+            return value == neutral ? single(other) : single(bool(neutral == 0));
+        }
+
+        return null;
+    }
+
+    /**
+     * t := !b; x := !t -> x := b, when t and b are different variables.
+     */
+    private Instruction doubleNegation(OpInstruction op) {
+        if (!is(op, OperationType.NOTB) || !(((UnaryOpInstruction) op).getOperand() instanceof Operand negated)) {
+            return null;
+        }
+
+        final int index = indexOfRhs(op);
+        if (index <= 0 || labelTable.containsValue(instructions.get(index))) {
+            return null;
+        }
+
+        if (!(instructions.get(index - 1) instanceof AssignInstruction previous)
+                || !(previous.getDest() instanceof Operand dest) || !dest.getName().equals(negated.getName())
+                || !(previous.getRhs() instanceof UnaryOpInstruction inner)
+                || inner.getOperation().getOpType() != OperationType.NOTB
+                || (inner.getOperand() instanceof Operand original && original.getName().equals(dest.getName()))) {
+            return null;
+        }
+
+        return single(inner.getOperand());
+    }
+
+    /**
+     * @return true if every value <code>element</code> can hold is a non-negative integer
+     */
+    private boolean isNonNegative(Element element, Set<String> visited) {
+        final Integer value = intLiteral(element);
+        if (value != null) {
+            return value >= 0;
+        }
+
+        if (!(element instanceof Operand operand) || element instanceof ArrayOperand) {
+            return false;
+        }
+
+        final Descriptor descriptor = method.getVarTable().get(operand.getName());
+        if (descriptor == null || descriptor.getScope() != VarScope.LOCAL) {
+            return false;
+        }
+
+        // Assumed while its definitions are checked, which makes loops like i = i >> 1 work
+        if (!visited.add(operand.getName())) {
+            return true;
+        }
+
+        // Every assignment must produce a non-negative value: a literal, a copy or a right shift of one
+        for (final Instruction inst : instructions) {
+            if (!(inst instanceof AssignInstruction assign) || !(assign.getDest() instanceof Operand dest)
+                    || !dest.getName().equals(operand.getName())) {
+                continue;
+            }
+
+            final Instruction rhs = assign.getRhs();
+            final boolean nonNegative;
+            if (rhs instanceof SingleOpInstruction singleOp) {
+                nonNegative = isNonNegative(singleOp.getSingleOperand(), visited);
+            } else if (rhs instanceof BinaryOpInstruction binaryOp
+                    && binaryOp.getOperation().getOpType() == OperationType.SHR) {
+                nonNegative = isNonNegative(binaryOp.getLeftOperand(), visited);
+            } else {
+                nonNegative = false;
+            }
+
+            if (!nonNegative) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int indexOfRhs(OpInstruction op) {
+        for (int i = 0; i < instructions.size(); i++) {
+            if (instructions.get(i) instanceof AssignInstruction assign && assign.getRhs() == op) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private void replace(int index, Instruction replacement) {
+        final Instruction old = instructions.get(index);
+        labelTable.replaceAll((label, target) -> target == old ? replacement : target);
+        instructions.set(index, replacement);
+    }
+
+    private static boolean is(OpInstruction op, OperationType opType) {
+        return op.getOperation().getOpType() == opType;
+    }
+
+    private static Integer intLiteral(Element element) {
+        if (!(element instanceof LiteralElement literal)) {
+            return null;
+        }
+
+        try {
+            return Integer.parseInt(literal.getLiteral());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isLiteral(Element element, int value) {
+        final Integer literal = intLiteral(element);
+        return literal != null && literal == value;
+    }
+
+    /**
+     * @return k if element is the literal 2^k, or -1
+     */
+    private static int log2(Element element) {
+        final Integer value = intLiteral(element);
+        if (value == null || value <= 0 || Integer.bitCount(value) != 1) {
+            return -1;
+        }
+
+        return Integer.numberOfTrailingZeros(value);
+    }
+
+    private static SingleOpInstruction single(Element element) {
+        return new SingleOpInstruction(element);
+    }
+
+    private static BinaryOpInstruction binary(Element left, OperationType opType, Element right) {
+        return new BinaryOpInstruction(left, new Operation(opType, new Type(ElementType.INT32)), right);
+    }
+
+    private static LiteralElement integer(int value) {
+        return new LiteralElement(String.valueOf(value), new Type(ElementType.INT32));
+    }
+
+    private static LiteralElement bool(boolean value) {
+        return new LiteralElement(value ? "1" : "0", new Type(ElementType.BOOLEAN));
+    }
+
+    private static String show(Instruction inst) {
+        if (inst instanceof SingleOpInstruction singleOp) {
+            return show(singleOp.getSingleOperand());
+        }
+
+        if (inst instanceof UnaryOpInstruction unaryOp) {
+            return unaryOp.getOperation().getOpType() + " " + show(unaryOp.getOperand());
+        }
+
+        if (inst instanceof BinaryOpInstruction binaryOp) {
+            return show(binaryOp.getLeftOperand()) + " " + binaryOp.getOperation().getOpType() + " "
+                    + show(binaryOp.getRightOperand());
+        }
+
+        return inst.getInstType().toString();
+    }
+
+    private static String show(Element element) {
+        return element instanceof LiteralElement literal ? literal.getLiteral()
+                : element instanceof Operand operand ? operand.getName()
+                : element.toString();
+    }
+}
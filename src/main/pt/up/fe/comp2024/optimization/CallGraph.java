@@ -0,0 +1,296 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Which methods of the class each method calls, and what each method can do to the program state.
+ * <p>
+ * Built once per compilation, from the OLLIR of the class before it is optimized, and passed to every optimization
+ * that needs it, so every query is a lookup. The optimizations only copy or remove code inside the class, so a
+ * summary stays a safe approximation of the optimized code. Field and import effects are transitive: a method is summarized
+ * together with every method it can call.
+ */
+public class CallGraph {
+
+    /**
+     * What a method can do when called.
+     *
+     * @param name           name of the method
+     * @param callees        methods of this class called directly
+     * @param fieldsRead     fields read, by this method or anything it calls
+     * @param fieldsWritten  fields written, by this method or anything it calls
+     * @param importedCalls  methods of imported classes called, by this method or anything it calls, e.g. io.println
+     * @param usesThis       if the body of this method refers to <code>this</code>
+     * @param allocates      if this method, or anything it calls, creates objects
+     * @param recursive      if this method can end up calling itself
+     */
+    public record MethodSummary(String name, Set<String> callees, Set<String> fieldsRead, Set<String> fieldsWritten,
+                                Set<String> importedCalls, boolean usesThis, boolean allocates, boolean recursive) {
+
+        /**
+         * @return true if calling this method changes no state that can be observed after it returns
+         */
+        public boolean isSideEffectFree() {
+            return fieldsWritten.isEmpty() && importedCalls.isEmpty();
+        }
+
+        /**
+         * @return true if the result only depends on the arguments, so a call can be evaluated ahead of time
+         */
+        public boolean isPure() {
+            return isSideEffectFree() && fieldsRead.isEmpty() && !allocates;
+        }
+    }
+
+    private final ClassUnit classUnit;
+
+    private final Map<String, MethodSummary> summaries;
+
+    private CallGraph(ClassUnit classUnit) {
+        this.classUnit = classUnit;
+        this.summaries = new HashMap<>();
+        build();
+    }
+
+    /**
+     * @return the call graph of the class as it is now
+     */
+    public static CallGraph of(ClassUnit classUnit) {
+        return new CallGraph(classUnit);
+    }
+
+    /**
+     * @return the summary of the method, or null if the class has no such method
+     */
+    public MethodSummary get(String methodName) {
+        return summaries.get(methodName);
+    }
+
+    /**
+     * Gives a copy of a method, added to the class after the graph was built, the summary of the original.
+     */
+    void addCopy(String methodName, String copyName) {
+        final MethodSummary summary = summaries.get(methodName);
+        summaries.put(copyName, new MethodSummary(copyName, summary.callees(), summary.fieldsRead(),
+                summary.fieldsWritten(), summary.importedCalls(), false, summary.allocates(), summary.recursive()));
+    }
+
+    public Set<String> callees(String methodName) {
+        return summaries.containsKey(methodName) ? summaries.get(methodName).callees() : Set.of();
+    }
+
+    public boolean isRecursive(String methodName) {
+        return summaries.containsKey(methodName) && summaries.get(methodName).recursive();
+    }
+
+    /**
+     * @return the method of this class that the call reaches, if any
+     */
+    public Optional<Method> resolve(CallInstruction call) {
+        if (!(call.getCaller() instanceof Operand caller)
+                || !(call.getMethodNameTry().orElse(null) instanceof LiteralElement nameLiteral)) {
+            return Optional.empty();
+        }
+
+        final boolean sameClass = switch (call.getInvocationType()) {
+            case invokevirtual -> caller.getName().equals("this")
+                    || caller.getType() instanceof ClassType type && type.getName().equals(classUnit.getClassName());
+            case invokestatic -> caller.getName().equals(classUnit.getClassName());
+            default -> false;
+        };
+
+        if (!sameClass) {
+            return Optional.empty();
+        }
+
+        final String methodName = nameLiteral.getLiteral().replace("\"", "");
+        return classUnit.getMethods().stream()
+                .filter(method -> !method.isConstructMethod())
+                .filter(method -> method.getMethodName().equals(methodName))
+                .filter(method -> method.getParams().size() == call.getArguments().size())
+                .findFirst();
+    }
+
+    /**
+     * @return the method of this class that the call reaches even when other classes extend this one: a static
+     * method, a method that can't be overridden, or any method called on an object created as this class
+     */
+    public Optional<Method> resolveExactly(Method caller, CallInstruction call) {
+        return resolve(call).filter(callee -> call.getInvocationType() == CallType.invokestatic
+                || !isOverridable(callee) || hasExactReceiver(caller, call));
+    }
+
+    /**
+     * @return true if the call is made on a local that only holds objects created with <code>new</code> of this
+     * class, and not of a subclass
+     */
+    public boolean hasExactReceiver(Method caller, CallInstruction call) {
+        if (call.getInvocationType() != CallType.invokevirtual || !(call.getCaller() instanceof Operand receiver)) {
+            return false;
+        }
+
+        // 'this' may be an object of a subclass
+        final Descriptor descriptor = caller.getVarTable().get(receiver.getName());
+        if (receiver.getName().equals("this") || descriptor == null || descriptor.getScope() != VarScope.LOCAL) {
+            return false;
+        }
+
+        final List<Instruction> assignments = caller.getInstructions().stream()
+                .filter(inst -> inst instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest
+                        && dest.getName().equals(receiver.getName()))
+                .toList();
+
+        return !assignments.isEmpty() && assignments.stream()
+                .allMatch(inst -> ((AssignInstruction) inst).getRhs() instanceof CallInstruction rhs
+                        && rhs.getInvocationType() == CallType.NEW
+                        && rhs.getReturnType() instanceof ClassType type
+                        && type.getName().equals(classUnit.getClassName()));
+    }
+
+    /**
+     * @return true if a subclass can override the method, so a virtual call to it may run the code of another class.
+     * Every method of a Java-- class can be, since nothing in the language is private or final
+     */
+    public static boolean isOverridable(Method method) {
+        return !method.isStaticMethod() && !method.isConstructMethod() && !method.isFinalMethod()
+                && method.getMethodAccessModifier() != AccessModifier.PRIVATE
+                && !method.getOllirClass().isFinalClass();
+    }
+
+    /**
+     * @return the call made by the instruction, either on its own or as the value of an assignment
+     */
+    public static Optional<CallInstruction> callOf(Instruction inst) {
+        if (inst instanceof CallInstruction call) {
+            return Optional.of(call);
+        }
+
+        if (inst instanceof AssignInstruction assign && assign.getRhs() instanceof CallInstruction call) {
+            return Optional.of(call);
+        }
+
+        return Optional.empty();
+    }
+
+    private void build() {
+        final Map<String, Set<String>> callees = new HashMap<>();
+        final Map<String, Set<String>> fieldsRead = new HashMap<>();
+        final Map<String, Set<String>> fieldsWritten = new HashMap<>();
+        final Map<String, Set<String>> importedCalls = new HashMap<>();
+        final Set<String> usesThis = new HashSet<>();
+        final Set<String> allocates = new HashSet<>();
+
+        // Effects of each body on its own
+        for (final Method method : classUnit.getMethods()) {
+            final String name = method.getMethodName();
+            callees.put(name, new HashSet<>());
+            fieldsRead.put(name, new HashSet<>());
+            fieldsWritten.put(name, new HashSet<>());
+            importedCalls.put(name, new HashSet<>());
+
+            for (final Instruction inst : method.getInstructions()) {
+                final boolean refersToThis = inst.getDescendantsStream()
+                        .anyMatch(node -> node instanceof Operand operand && operand.getName().equals("this"));
+                if (refersToThis) {
+                    usesThis.add(name);
+                }
+
+                final Instruction effect = inst instanceof AssignInstruction assign ? assign.getRhs() : inst;
+
+                if (effect instanceof GetFieldInstruction getField) {
+                    fieldsRead.get(name).add(getField.getField().getName());
+                } else if (effect instanceof PutFieldInstruction putField) {
+                    fieldsWritten.get(name).add(putField.getField().getName());
+                } else if (effect instanceof CallInstruction call) {
+                    addCall(name, call, callees, importedCalls, allocates);
+                }
+            }
+        }
+
+        // Effects of the methods called, until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (final var entry : callees.entrySet()) {
+                final String name = entry.getKey();
+
+                for (final String callee : entry.getValue()) {
+                    changed |= fieldsRead.get(name).addAll(fieldsRead.get(callee));
+                    changed |= fieldsWritten.get(name).addAll(fieldsWritten.get(callee));
+                    changed |= importedCalls.get(name).addAll(importedCalls.get(callee));
+                    if (allocates.contains(callee)) {
+                        changed |= allocates.add(name);
+                    }
+                }
+            }
+        }
+
+        for (final Method method : classUnit.getMethods()) {
+            final String name = method.getMethodName();
+            summaries.put(name, new MethodSummary(name,
+                    Collections.unmodifiableSet(callees.get(name)),
+                    Collections.unmodifiableSet(fieldsRead.get(name)),
+                    Collections.unmodifiableSet(fieldsWritten.get(name)),
+                    Collections.unmodifiableSet(importedCalls.get(name)),
+                    usesThis.contains(name),
+                    allocates.contains(name),
+                    reaches(callees, name, name)));
+        }
+    }
+
+    private void addCall(String name, CallInstruction call, Map<String, Set<String>> callees,
+                         Map<String, Set<String>> importedCalls, Set<String> allocates) {
+        if (call.getInvocationType() == CallType.NEW) {
+            allocates.add(name);
+            return;
+        }
+
+        // Constructors of this class have an empty body
+        if (call.getInvocationType() == CallType.invokespecial) {
+            return;
+        }
+
+        final Optional<Method> callee = resolve(call);
+        if (callee.isPresent()) {
+            callees.get(name).add(callee.get().getMethodName());
+            return;
+        }
+
+        // Anything else runs code outside the class: an imported class, or an inherited method
+        // Static calls name the class, virtual calls have an object of the class
+        final String receiver;
+        if (!(call.getCaller() instanceof Operand operand)) {
+            receiver = "?";
+        } else if (call.getInvocationType() != CallType.invokestatic && operand.getType() instanceof ClassType type) {
+            receiver = type.getName();
+        } else {
+            receiver = operand.getName();
+        }
+
+        final String method = call.getMethodNameTry()
+                .map(element -> element instanceof LiteralElement literal ? literal.getLiteral().replace("\"", "") : "?")
+                .orElse("?");
+        importedCalls.get(name).add(receiver + "." + method);
+    }
+
+    private static boolean reaches(Map<String, Set<String>> callees, String from, String to) {
+        final Set<String> visited = new HashSet<>();
+        final Deque<String> pending = new ArrayDeque<>(callees.getOrDefault(from, Set.of()));
+
+        while (!pending.isEmpty()) {
+            final String current = pending.pop();
+            if (current.equals(to)) {
+                return true;
+            }
+
+            if (visited.add(current)) {
+                pending.addAll(callees.getOrDefault(current, Set.of()));
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,412 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.optimization.SsaForm.Phi;
+import pt.up.fe.comp2024.optimization.SsaForm.Value;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation, by Wegman and Zadeck, on the {@link SsaForm} of a method.
+ * <p>
+ * Every value starts as unknown, and only instructions reached through edges that can run are evaluated, so a
+ * branch whose test is constant only makes one of its targets run. Values that reach a phi only from edges that
+ * can't run don't spoil it:
+ * <pre>
+ * a.i32 :=.i32 1.i32;
+ * if (a.i32 ==.bool 1.i32) goto ifThen0;
+ * a.i32 :=.i32 2.i32;
+ * goto ifEnd0;
+ * ifThen0:
+ * ifEnd0:
+ * io.println(a.i32).V;
+ * </pre>
+ * prints <code>1</code> without a test, as the else branch never runs and is removed. Reads of constant values become
+ * literals, tests that are always true become jumps, tests that are always false are removed, and so is every
+ * instruction that can't be reached.
+ * <p>
+ * Only literals replace reads, so the values of a variable never overlap and the form is left by keeping the
+ * variables as they are.
+ */
+public class ConditionalConstantPropagation {
+
+    /**
+     * Element of the lattice: unknown yet, a single constant, or more than one value.
+     */
+    private record Lattice(Kind kind, int constant) {
+
+        enum Kind {TOP, CONSTANT, BOTTOM}
+
+        static final Lattice TOP = new Lattice(Kind.TOP, 0);
+
+        static final Lattice BOTTOM = new Lattice(Kind.BOTTOM, 0);
+
+        static Lattice of(int constant) {
+            return new Lattice(Kind.CONSTANT, constant);
+        }
+
+        boolean isConstant() {
+            return kind == Kind.CONSTANT;
+        }
+
+        Lattice meet(Lattice other) {
+            if (kind == Kind.TOP) {
+                return other;
+            }
+
+            if (other.kind == Kind.TOP || equals(other)) {
+                return this;
+            }
+
+            return BOTTOM;
+        }
+    }
+
+    private final List<Report> reports;
+
+    private Method method;
+
+    private List<Instruction> instructions;
+
+    private SsaForm ssa;
+
+    private Map<Value, Lattice> lattice;
+
+    private boolean[] executable;
+
+    private Set<Long> executableEdges;
+
+    private Deque<long[]> flowWork;
+
+    private Deque<Value> ssaWork;
+
+    public ConditionalConstantPropagation(List<Report> reports) {
+        this.reports = reports;
+    }
+
+    /**
+     * @return true if the method changed
+     */
+    public boolean apply(Method method) {
+        this.method = method;
+        this.instructions = method.getInstructions();
+        this.ssa = SsaForm.build(method);
+        this.lattice = new HashMap<>();
+        this.executable = new boolean[ssa.entry() + 1];
+        this.executableEdges = new HashSet<>();
+        this.flowWork = new ArrayDeque<>();
+        this.ssaWork = new ArrayDeque<>();
+
+        propagate();
+        return rewrite();
+    }
+
+    private void propagate() {
+        // Parameters can be anything, and variables read before being set get their default value
+        for (final Value value : ssa.values()) {
+            if (value.getNode() == ssa.entry() && !value.isPhi()) {
+                lattice.put(value, Lattice.BOTTOM);
+            }
+        }
+
+        executable[ssa.entry()] = true;
+        ssa.successors(ssa.entry()).forEach(successor -> flowWork.add(new long[]{ssa.entry(), successor}));
+
+        while (!flowWork.isEmpty() || !ssaWork.isEmpty()) {
+            while (!flowWork.isEmpty()) {
+                final long[] edge = flowWork.poll();
+                final int node = (int) edge[1];
+                if (!executableEdges.add(edgeKey((int) edge[0], node))) {
+                    continue;
+                }
+
+                ssa.phis(node).forEach(this::visitPhi);
+
+                if (!executable[node]) {
+                    executable[node] = true;
+                    visitInstruction(node);
+                }
+            }
+
+            while (!ssaWork.isEmpty()) {
+                final Value value = ssaWork.poll();
+
+                for (final Phi phi : ssa.phiUsers(value)) {
+                    if (executable[phi.node()]) {
+                        visitPhi(phi);
+                    }
+                }
+
+                for (final int user : ssa.instructionUsers(value)) {
+                    if (executable[user]) {
+                        visitInstruction(user);
+                    }
+                }
+            }
+        }
+    }
+
+    private void visitPhi(Phi phi) {
+        Lattice value = Lattice.TOP;
+        for (final var operand : phi.operands().entrySet()) {
+            if (executableEdges.contains(edgeKey(operand.getKey(), phi.node()))) {
+                value = value.meet(get(operand.getValue()));
+            }
+        }
+
+        lower(phi.result(), value);
+    }
+
+    private void visitInstruction(int node) {
+        final Instruction inst = instructions.get(node);
+
+        ssa.definition(node).ifPresent(value -> lower(value, evaluate(((AssignInstruction) inst).getRhs(), node)));
+
+        if (inst instanceof ReturnInstruction) {
+            return;
+        }
+
+        if (inst instanceof GotoInstruction jump) {
+            markEdge(node, target(jump.getLabel()));
+            return;
+        }
+
+        if (inst instanceof CondBranchInstruction branch) {
+            final Lattice condition = evaluate(condition(branch), node);
+            if (condition.kind() == Lattice.Kind.TOP) {
+                return;
+            }
+
+            if (!condition.isConstant() || condition.constant() != 0) {
+                markEdge(node, target(branch.getLabel()));
+            }
+            if (!condition.isConstant() || condition.constant() == 0) {
+                markEdge(node, node + 1);
+            }
+            return;
+        }
+
+        markEdge(node, node + 1);
+    }
+
+    private void markEdge(int from, int to) {
+        if (to >= 0 && to < instructions.size() && !executableEdges.contains(edgeKey(from, to))) {
+            flowWork.add(new long[]{from, to});
+        }
+    }
+
+    private void lower(Value value, Lattice newValue) {
+        final Lattice old = get(value);
+        final Lattice lowered = old.meet(newValue);
+        if (!lowered.equals(old)) {
+            lattice.put(value, lowered);
+            ssaWork.add(value);
+        }
+    }
+
+    private Lattice get(Value value) {
+        return lattice.getOrDefault(value, Lattice.TOP);
+    }
+
+    private Lattice evaluate(Instruction inst, int node) {
+        if (inst instanceof SingleOpInstruction singleOp) {
+            return value(singleOp.getSingleOperand(), node);
+        }
+
+        if (inst instanceof UnaryOpInstruction unaryOp && unaryOp.getOperation().getOpType() == OperationType.NOTB) {
+            final Lattice operand = value(unaryOp.getOperand(), node);
+            return operand.isConstant() ? Lattice.of(operand.constant() == 0 ? 1 : 0) : operand;
+        }
+
+        if (inst instanceof BinaryOpInstruction binaryOp) {
+            final Lattice left = value(binaryOp.getLeftOperand(), node);
+            final Lattice right = value(binaryOp.getRightOperand(), node);
+
+            if (left.kind() == Lattice.Kind.BOTTOM || right.kind() == Lattice.Kind.BOTTOM) {
+                return Lattice.BOTTOM;
+            }
+            if (!left.isConstant() || !right.isConstant()) {
+                return Lattice.TOP;
+            }
+
+            return compute(binaryOp.getOperation().getOpType(), left.constant(), right.constant());
+        }
+
+        // Calls, fields and arrays
+        return Lattice.BOTTOM;
+    }
+
+    private static Lattice compute(OperationType opType, int left, int right) {
+        return switch (opType) {
+            case ADD -> Lattice.of(left + right);
+            case SUB -> Lattice.of(left - right);
+            case MUL -> Lattice.of(left * right);
+            // Left to throw at runtime
+            case DIV -> right == 0 ? Lattice.BOTTOM : Lattice.of(left / right);
+            case SHL -> Lattice.of(left << right);
+            case SHR -> Lattice.of(left >> right);
+            case SHRR -> Lattice.of(left >>> right);
+            case AND, ANDB -> Lattice.of(left & right);
+            case OR, ORB -> Lattice.of(left | right);
+            case XOR -> Lattice.of(left ^ right);
+            case LTH -> Lattice.of(left < right ? 1 : 0);
+            case GTH -> Lattice.of(left > right ? 1 : 0);
+            case LTE -> Lattice.of(left <= right ? 1 : 0);
+            case GTE -> Lattice.of(left >= right ? 1 : 0);
+            case EQ -> Lattice.of(left == right ? 1 : 0);
+            case NEQ -> Lattice.of(left != right ? 1 : 0);
+            default -> Lattice.BOTTOM;
+        };
+    }
+
+    private Lattice value(Element element, int node) {
+        if (element instanceof LiteralElement literal) {
+            try {
+                return Lattice.of(Integer.parseInt(literal.getLiteral()));
+            } catch (NumberFormatException e) {
+                return Lattice.BOTTOM;
+            }
+        }
+
+        if (element instanceof Operand operand && !(operand instanceof ArrayOperand)) {
+            final Value value = ssa.uses(node).get(operand.getName());
+            if (value != null) {
+                return get(value);
+            }
+        }
+
+        return Lattice.BOTTOM;
+    }
+
+    /**
+     * Replaces constant reads and tests, and removes what can't run.
+     *
+     * @return true if the method changed
+     */
+    private boolean rewrite() {
+        int replacedReads = 0;
+        int foldedBranches = 0;
+
+        for (int node = 0; node < instructions.size(); node++) {
+            if (!executable[node]) {
+                continue;
+            }
+
+            final Instruction inst = instructions.get(node);
+            if (inst instanceof CondBranchInstruction branch) {
+                final Lattice condition = evaluate(condition(branch), node);
+                if (condition.isConstant()) {
+                    // Removed below when the test never jumps, as nothing reaches it through the jump
+                    if (condition.constant() != 0) {
+                        final var jump = new GotoInstruction(branch.getLabel());
+                        method.getLabels().replaceAll((label, target) -> target == inst ? jump : target);
+                        instructions.set(node, jump);
+                    } else {
+                        executable[node] = false;
+                    }
+                    foldedBranches++;
+                    continue;
+                }
+            }
+
+            for (final var use : ssa.uses(node).entrySet()) {
+                final Lattice value = get(use.getValue());
+                if (!value.isConstant()) {
+                    continue;
+                }
+
+                final Type type = method.getVarTable().get(use.getKey()).getVarType();
+                CopyPropagation.replaceUses(inst, use.getKey(),
+                        new LiteralElement(String.valueOf(value.constant()), type));
+
+                // Reads in an array index stay
+                if (!CopyPropagation.uses(inst).contains(use.getKey())) {
+                    replacedReads++;
+                }
+            }
+        }
+
+        final int removed = removeUnreachable();
+
+        if (replacedReads + foldedBranches + removed == 0) {
+            return false;
+        }
+
+        final String message = String.format("Propagated %d constants in method %s, folded %d branches and " +
+                "removed %d unreachable instructions", replacedReads, method.getMethodName(), foldedBranches, removed);
+        reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+
+        return true;
+    }
+
+    /**
+     * @return how many instructions were removed
+     */
+    private int removeUnreachable() {
+        final Set<Instruction> unreachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int node = 0; node < instructions.size(); node++) {
+            if (!executable[node]) {
+                unreachable.add(instructions.get(node));
+            }
+        }
+
+        if (unreachable.isEmpty()) {
+            return 0;
+        }
+
+        // A removed test that never jumped hands its labels to the instruction after it
+        for (int node = instructions.size() - 1; node >= 0; node--) {
+            final Instruction inst = instructions.get(node);
+            if (!unreachable.contains(inst) || !(inst instanceof CondBranchInstruction)) {
+                continue;
+            }
+
+            final Instruction next = node + 1 < instructions.size() ? instructions.get(node + 1) : null;
+            if (next != null) {
+                method.getLabels().replaceAll((label, target) -> target == inst ? next : target);
+            }
+        }
+
+        // Every jump that is left must still have somewhere to go
+        for (final Instruction inst : instructions) {
+            if (!unreachable.contains(inst) && jumpLabel(inst)
+                    .map(label -> unreachable.contains(method.getLabels().get(label)))
+                    .orElse(false)) {
+                return 0;
+            }
+        }
+
+        instructions.removeIf(unreachable::contains);
+        method.getLabels().values().removeIf(unreachable::contains);
+
+        return unreachable.size();
+    }
+
+    private static Optional<String> jumpLabel(Instruction inst) {
+        if (inst instanceof GotoInstruction jump) {
+            return Optional.of(jump.getLabel());
+        }
+
+        if (inst instanceof CondBranchInstruction branch) {
+            return Optional.of(branch.getLabel());
+        }
+
+        return Optional.empty();
+    }
+
+    private static Instruction condition(CondBranchInstruction branch) {
+        return branch instanceof OpCondInstruction opCond
+                ? opCond.getCondition()
+                : ((SingleOpCondInstruction) branch).getCondition();
+    }
+
+    private int target(String label) {
+        return instructions.indexOf(method.getLabels().get(label));
+    }
+
+    private static long edgeKey(int from, int to) {
+        return (long) from << 32 | to;
+    }
+}
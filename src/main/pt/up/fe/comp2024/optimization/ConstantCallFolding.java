@@ -0,0 +1,107 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Replaces calls to pure methods of the class, whose arguments are all literals, with the value they return:
+ * <pre>
+ * a.i32 :=.i32 invokestatic(MathUtils, "pow", 2.i32, 10.i32).i32;
+ * </pre>
+ * becomes
+ * <pre>
+ * a.i32 :=.i32 1024.i32;
+ * </pre>
+ * The value is computed by {@link OllirInterpreter}, and calls it can't finish within its budget are kept.
+ * Calls on objects that may be null are kept too, since they would throw a NullPointerException.
+ * <p>
+ * Other classes can extend this one and override its methods, so only calls that always reach the method of this
+ * class are folded, see {@link CallGraph#resolveExactly(Method, CallInstruction)}: static calls, and calls on a
+ * local assigned <code>new</code> of this class. Runs only with '-o'.
+ */
+public class ConstantCallFolding {
+
+    private final CallGraph callGraph;
+
+    private final OllirInterpreter interpreter;
+
+    private final List<Report> reports;
+
+    public ConstantCallFolding(CallGraph callGraph, List<Report> reports) {
+        this.callGraph = callGraph;
+        this.interpreter = new OllirInterpreter(callGraph);
+        this.reports = reports;
+    }
+
+    /**
+     * @return true if any call was replaced
+     */
+    public boolean apply(Method method) {
+        final List<Instruction> instructions = method.getInstructions();
+        boolean changed = false;
+
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!(instructions.get(i) instanceof AssignInstruction assign)
+                    || !(assign.getRhs() instanceof CallInstruction call)) {
+                continue;
+            }
+
+            if (!Devirtualization.hasKnownReceiver(method, call)) {
+                continue;
+            }
+
+            final Optional<Method> callee = callGraph.resolveExactly(method, call);
+            if (callee.isEmpty() || !callGraph.get(callee.get().getMethodName()).isPure()) {
+                continue;
+            }
+
+            final List<Integer> arguments = literalArguments(call);
+            if (arguments == null) {
+                continue;
+            }
+
+            final Optional<Integer> result = interpreter.evaluate(callee.get(), arguments,
+                    callGraph.hasExactReceiver(method, call));
+            if (result.isEmpty()) {
+                continue;
+            }
+
+            final var literal = new LiteralElement(String.valueOf(result.get()), call.getReturnType());
+            final var folded = new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(),
+                    new SingleOpInstruction(literal));
+            method.getLabels().replaceAll((label, target) -> target == assign ? folded : target);
+            instructions.set(i, folded);
+            changed = true;
+
+            final String message = String.format("Evaluated call to %s%s in method %s, it returns %d",
+                    callee.get().getMethodName(), arguments, method.getMethodName(), result.get());
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return the values of the arguments, or null if any isn't a literal
+     */
+    private static List<Integer> literalArguments(CallInstruction call) {
+        final List<Integer> arguments = new ArrayList<>();
+
+        for (final Element argument : call.getArguments()) {
+            if (!(argument instanceof LiteralElement literal)) {
+                return null;
+            }
+
+            try {
+                arguments.add(Integer.parseInt(literal.getLiteral()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        return arguments;
+    }
+}
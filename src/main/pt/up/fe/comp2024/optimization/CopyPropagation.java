@@ -0,0 +1,346 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Removes the trivial moves left in the OLLIR of a method.
+ * <ul>
+ *  <li>coalescing: a temporary that is only copied into another variable is replaced by that variable
+ *  <pre>
+ *  tmp0.i32 :=.i32 a.i32 +.i32 b.i32;        c.i32 :=.i32 a.i32 +.i32 b.i32;
+ *  c.i32 :=.i32 tmp0.i32;
+ *  </pre>
+ *  </li>
+ *  <li>copy propagation: after <code>x := y</code>, reads of <code>x</code> in the same block read <code>y</code>
+ *  instead, until either of them is assigned again</li>
+ *  <li>copies and operations whose value is never read, according to a liveness analysis, are removed</li>
+ * </ul>
+ */
+public class CopyPropagation {
+
+    private final Method method;
+
+    private final List<Instruction> instructions;
+
+    private final Map<String, Instruction> labelTable;
+
+    public CopyPropagation(Method method) {
+        this.method = method;
+        this.instructions = method.getInstructions();
+        this.labelTable = method.getLabels();
+    }
+
+    public void apply() {
+        coalesce();
+        propagateCopies();
+
+        // Removing an assignment can leave the ones that fed it unread
+        while (removeDeadAssignments()) {
+            // keep removing
+        }
+    }
+
+    private void coalesce() {
+        final Map<String, Integer> occurrences = countOccurrences();
+
+        for (int i = 0; i < instructions.size() - 1; i++) {
+            if (!(instructions.get(i) instanceof AssignInstruction def) || !isLocal(def.getDest())) {
+                continue;
+            }
+
+            final String temp = ((Operand) def.getDest()).getName();
+            if (occurrences.getOrDefault(temp, 0) != 2) {
+                continue;
+            }
+
+            if (!(instructions.get(i + 1) instanceof AssignInstruction copy) || hasLabels(copy)) {
+                continue;
+            }
+
+            if (copy.getDest() instanceof ArrayOperand || !(copiedElement(copy) instanceof Operand source)
+                    || !source.getName().equals(temp)) {
+                continue;
+            }
+
+            final var coalesced = new AssignInstruction(copy.getDest(), copy.getTypeOfAssign(), def.getRhs());
+            moveLabels(def, coalesced);
+            instructions.set(i, coalesced);
+            instructions.remove(i + 1);
+            method.getVarTable().remove(temp);
+        }
+    }
+
+    private void propagateCopies() {
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!(instructions.get(i) instanceof AssignInstruction copy) || !isLocal(copy.getDest())) {
+                continue;
+            }
+
+            final Element value = copiedElement(copy);
+            if (value == null || value instanceof ArrayOperand) {
+                continue;
+            }
+
+            final String name = ((Operand) copy.getDest()).getName();
+            final String valueName = value instanceof Operand operand ? operand.getName() : null;
+
+            for (int j = i + 1; j < instructions.size(); j++) {
+                final Instruction inst = instructions.get(j);
+
+                // Something else may jump here, where the copy doesn't hold
+                if (hasLabels(inst)) {
+                    break;
+                }
+
+                // Operands are read before the assignment writes its destination
+                replaceUses(inst, name, value);
+
+                if (inst instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest
+                        && (dest.getName().equals(name) || dest.getName().equals(valueName))) {
+                    break;
+                }
+
+                if (inst instanceof GotoInstruction || inst instanceof ReturnInstruction) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the side-effect free assignments whose destination is overwritten, or never read again, on every
+     * path that follows them.
+     *
+     * @return true if an assignment was removed
+     */
+    private boolean removeDeadAssignments() {
+        final List<Set<String>> liveOut = computeLiveOut();
+        final Set<Instruction> dead = new HashSet<>();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!(instructions.get(i) instanceof AssignInstruction assign) || !isLocal(assign.getDest())
+                    || !isPure(assign.getRhs())) {
+                continue;
+            }
+
+            final String name = ((Operand) assign.getDest()).getName();
+            if (liveOut.get(i).contains(name)) {
+                continue;
+            }
+
+            // Jumps to the assignment now go to the instruction after it
+            if (i + 1 < instructions.size()) {
+                moveLabels(assign, instructions.get(i + 1));
+            } else if (hasLabels(assign)) {
+                continue;
+            }
+
+            dead.add(assign);
+        }
+
+        instructions.removeIf(dead::contains);
+
+        final Map<String, Integer> occurrences = countOccurrences();
+        method.getVarTable().entrySet().removeIf(entry -> entry.getValue().getScope() == VarScope.LOCAL
+                && !entry.getKey().equals("this") && !occurrences.containsKey(entry.getKey()));
+
+        return !dead.isEmpty();
+    }
+
+    /**
+     * Backwards liveness analysis over the instructions of the method.
+     *
+     * @return for each instruction, the variables that may still be read after it
+     */
+    private List<Set<String>> computeLiveOut() {
+        final int size = instructions.size();
+        final List<Set<String>> liveIn = new ArrayList<>();
+        final List<Set<String>> liveOut = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            liveIn.add(new HashSet<>());
+            liveOut.add(new HashSet<>());
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int i = size - 1; i >= 0; i--) {
+                final Instruction inst = instructions.get(i);
+
+                final Set<String> out = new HashSet<>();
+                for (final int successor : successors(i)) {
+                    out.addAll(liveIn.get(successor));
+                }
+
+                // in = uses + (out - defs)
+                final Set<String> in = new HashSet<>(out);
+                if (inst instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest
+                        && !(dest instanceof ArrayOperand)) {
+                    in.remove(dest.getName());
+                }
+                in.addAll(uses(inst));
+
+                changed |= !out.equals(liveOut.get(i)) || !in.equals(liveIn.get(i));
+                liveOut.set(i, out);
+                liveIn.set(i, in);
+            }
+        }
+
+        return liveOut;
+    }
+
+    private List<Integer> successors(int index) {
+        final Instruction inst = instructions.get(index);
+        final List<Integer> successors = new ArrayList<>();
+
+        if (inst instanceof ReturnInstruction) {
+            return successors;
+        }
+
+        if (inst instanceof GotoInstruction jump) {
+            successors.add(instructions.indexOf(labelTable.get(jump.getLabel())));
+            return successors;
+        }
+
+        if (inst instanceof CondBranchInstruction branch) {
+            successors.add(instructions.indexOf(labelTable.get(branch.getLabel())));
+        }
+
+        if (index + 1 < instructions.size()) {
+            successors.add(index + 1);
+        }
+
+        return successors;
+    }
+
+    static Set<String> uses(Instruction inst) {
+        final Set<String> uses = new HashSet<>();
+
+        if (inst instanceof AssignInstruction assign) {
+            // An array store reads the array and the index, a plain store reads nothing of its destination
+            if (assign.getDest() instanceof ArrayOperand) {
+                assign.getDest().getDescendantsStream()
+                        .filter(node -> node instanceof Operand)
+                        .forEach(node -> uses.add(((Operand) node).getName()));
+                uses.add(((Operand) assign.getDest()).getName());
+            }
+
+            uses.addAll(uses(assign.getRhs()));
+            return uses;
+        }
+
+        inst.getDescendantsStream()
+                .filter(node -> node instanceof Operand)
+                .forEach(node -> uses.add(((Operand) node).getName()));
+
+        return uses;
+    }
+
+    /**
+     * Replaces the reads of <code>name</code> in <code>inst</code> by <code>value</code>.
+     */
+    static void replaceUses(Instruction inst, String name, Element value) {
+        if (inst instanceof AssignInstruction assign) {
+            replaceUses(assign.getRhs(), name, value);
+        } else if (inst instanceof SingleOpInstruction singleOp) {
+            if (reads(singleOp.getSingleOperand(), name)) {
+                singleOp.setSingleOperand(value);
+            }
+        } else if (inst instanceof UnaryOpInstruction unaryOp) {
+            if (reads(unaryOp.getOperand(), name)) {
+                unaryOp.setOperand(value);
+            }
+        } else if (inst instanceof BinaryOpInstruction binaryOp) {
+            if (reads(binaryOp.getLeftOperand(), name)) {
+                binaryOp.setLeftOperand(value);
+            }
+            if (reads(binaryOp.getRightOperand(), name)) {
+                binaryOp.setRightOperand(value);
+            }
+        } else if (inst instanceof OpCondInstruction opCond) {
+            replaceUses(opCond.getCondition(), name, value);
+        } else if (inst instanceof SingleOpCondInstruction singleOpCond) {
+            replaceUses(singleOpCond.getCondition(), name, value);
+        } else if (inst instanceof ReturnInstruction returnInst) {
+            if (returnInst.hasReturnValue() && reads(returnInst.getOperand(), name)) {
+                returnInst.setOperand(value);
+            }
+        } else if (inst instanceof CallInstruction call) {
+            // The caller can't be replaced, and must stay an object anyway
+            final List<Element> arguments = call.getArguments();
+            arguments.replaceAll(argument -> reads(argument, name) ? value : argument);
+        } else if (inst instanceof PutFieldInstruction putField) {
+            if (reads(putField.getValue(), name)) {
+                putField.setOperands(putField.getObject(), putField.getField(), value);
+            }
+        }
+    }
+
+    private static boolean reads(Element element, String name) {
+        return element instanceof Operand operand && !(operand instanceof ArrayOperand)
+                && operand.getName().equals(name);
+    }
+
+    /**
+     * @return true if computing <code>rhs</code> can't throw or have any other effect
+     */
+    private static boolean isPure(Instruction rhs) {
+        if (rhs instanceof SingleOpInstruction singleOp) {
+            return !(singleOp.getSingleOperand() instanceof ArrayOperand);
+        }
+
+        if (rhs instanceof UnaryOpInstruction unaryOp) {
+            return !(unaryOp.getOperand() instanceof ArrayOperand);
+        }
+
+        if (rhs instanceof BinaryOpInstruction binaryOp) {
+            // Division by zero throws
+            return !(binaryOp.getLeftOperand() instanceof ArrayOperand)
+                    && !(binaryOp.getRightOperand() instanceof ArrayOperand)
+                    && (binaryOp.getOperation().getOpType() != OperationType.DIV
+                    || binaryOp.getRightOperand() instanceof LiteralElement literal && !literal.getLiteral().equals("0"));
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the element copied by <code>x := y</code>, or null if <code>assign</code> computes something
+     */
+    private static Element copiedElement(AssignInstruction assign) {
+        return assign.getRhs() instanceof SingleOpInstruction singleOp ? singleOp.getSingleOperand() : null;
+    }
+
+    private boolean isLocal(Element element) {
+        if (!(element instanceof Operand operand) || element instanceof ArrayOperand) {
+            return false;
+        }
+
+        final Descriptor descriptor = method.getVarTable().get(operand.getName());
+        return descriptor != null && descriptor.getScope() == VarScope.LOCAL;
+    }
+
+    private Map<String, Integer> countOccurrences() {
+        final Map<String, Integer> occurrences = new HashMap<>();
+
+        for (final Instruction inst : instructions) {
+            inst.getDescendantsStream()
+                    .filter(node -> node instanceof Operand)
+                    .map(node -> ((Operand) node).getName())
+                    .forEach(name -> occurrences.merge(name, 1, Integer::sum));
+        }
+
+        return occurrences;
+    }
+
+    private boolean hasLabels(Instruction inst) {
+        return labelTable.containsValue(inst);
+    }
+
+    private void moveLabels(Instruction from, Instruction to) {
+        labelTable.replaceAll((label, target) -> target == from ? to : target);
+    }
+}
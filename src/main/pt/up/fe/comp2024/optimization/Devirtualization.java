@@ -0,0 +1,292 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Calls methods of the class that never refer to <code>this</code> with <code>invokestatic</code>, so no receiver is
+ * loaded and the call needs no virtual dispatch.
+ * <p>
+ * Private methods are made static, and every call to them is rewritten:
+ * <pre>
+ * tmp0.i32 :=.i32 invokevirtual(this, "twice", a.i32).i32;
+ * </pre>
+ * becomes
+ * <pre>
+ * tmp0.i32 :=.i32 invokestatic(Simple, "twice", a.i32).i32;
+ * </pre>
+ * Every call to a method must be rewritten, since <code>invokevirtual</code> can't call a static method.
+ * A call on an object that may be null would throw a NullPointerException, and the static call wouldn't, so
+ * methods are only changed when every receiver is <code>this</code>, or a local that is only assigned new objects.
+ * Methods of classes that extend another class are left as they are, as a method may override one of the superclass.
+ * <p>
+ * Other classes can call or override any method that isn't private, and a static method would break them, so the
+ * public and package-visible methods of Java-- get a private static copy instead, named with
+ * {@link #STATIC_COPY_SUFFIX}. Only the calls on a local that only holds objects created with <code>new</code> of
+ * this class are rewritten to the copy, see {@link CallGraph#hasExactReceiver}, since those always reach the method
+ * of this class and the object is never null:
+ * <pre>
+ * tmp0.i32 :=.i32 invokevirtual(o.Simple, "twice", a.i32).i32;
+ * </pre>
+ * becomes
+ * <pre>
+ * tmp0.i32 :=.i32 invokestatic(Simple, "twice$static", a.i32).i32;
+ * </pre>
+ * Runs after inlining, so only the calls that are kept get a copy.
+ */
+public class Devirtualization {
+
+    /**
+     * Appended to the name of a method to name its static copy.
+     */
+    static final String STATIC_COPY_SUFFIX = "$static";
+
+    private final ClassUnit classUnit;
+
+    private final CallGraph callGraph;
+
+    private final List<Report> reports;
+
+    public Devirtualization(ClassUnit classUnit, CallGraph callGraph, List<Report> reports) {
+        this.classUnit = classUnit;
+        this.callGraph = callGraph;
+        this.reports = reports;
+    }
+
+    public void apply() {
+        if (!hasSuperClass(classUnit)) {
+            makePrivateMethodsStatic();
+        }
+
+        addStaticCopies();
+    }
+
+    private void makePrivateMethodsStatic() {
+        final Set<Method> candidates = new HashSet<>();
+        for (final Method method : classUnit.getMethods()) {
+            if (!method.isConstructMethod() && !method.isStaticMethod()
+                    && method.getMethodAccessModifier() == AccessModifier.PRIVATE
+                    && !callGraph.get(method.getMethodName()).usesThis()) {
+                candidates.add(method);
+            }
+        }
+
+        // Drop the methods that are called on objects that may be null
+        for (final Method caller : classUnit.getMethods()) {
+            for (final Instruction inst : caller.getInstructions()) {
+                CallGraph.callOf(inst).ifPresent(call -> callGraph.resolve(call)
+                        .filter(callee -> !hasKnownReceiver(caller, call))
+                        .ifPresent(candidates::remove));
+            }
+        }
+
+        for (final Method method : candidates) {
+            makeStatic(method);
+
+            final String message = String.format("Made method %s static, it never uses 'this'", method.getMethodName());
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+        }
+
+        for (final Method caller : classUnit.getMethods()) {
+            rewriteCalls(caller, candidates);
+        }
+    }
+
+    private void addStaticCopies() {
+        final Map<Method, Method> copies = new LinkedHashMap<>();
+        final Set<String> methodNames = new HashSet<>();
+        classUnit.getMethods().forEach(method -> methodNames.add(method.getMethodName()));
+
+        for (final Method caller : classUnit.getMethods()) {
+            for (final Instruction inst : caller.getInstructions()) {
+                CallGraph.callOf(inst)
+                        .filter(call -> callGraph.hasExactReceiver(caller, call))
+                        .flatMap(callGraph::resolve)
+                        .filter(callee -> !callee.isStaticMethod() && !usesThis(callee))
+                        .filter(callee -> !methodNames.contains(callee.getMethodName() + STATIC_COPY_SUFFIX))
+                        .ifPresent(callee -> copies.computeIfAbsent(callee, this::staticCopy));
+            }
+        }
+
+        for (final var entry : copies.entrySet()) {
+            final String name = entry.getKey().getMethodName();
+            classUnit.addMethod(entry.getValue());
+            callGraph.addCopy(name, entry.getValue().getMethodName());
+
+            final String message = String.format("Made a static copy of method %s, for the calls on objects created "
+                    + "as the class", name);
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+        }
+
+        // The copies call other copies too
+        for (final Method caller : classUnit.getMethods()) {
+            rewriteExactCalls(caller, copies);
+        }
+    }
+
+    /**
+     * @return a private static method with the body of <code>method</code>, which doesn't use <code>this</code>, or
+     * null if the body contains instructions that can't be copied
+     */
+    private Method staticCopy(Method method) {
+        final Map<String, String> renamed = new HashMap<>();
+        method.getVarTable().keySet().forEach(name -> renamed.put(name, name));
+        renamed.remove("this");
+
+        final Map<String, String> labels = new HashMap<>();
+        method.getLabels().keySet().forEach(label -> labels.put(label, label));
+
+        final var copier = new InstructionCopier(renamed, labels);
+        final var copy = new Method(classUnit);
+        copy.setMethodName(method.getMethodName() + STATIC_COPY_SUFFIX);
+        copy.setMethodAccessModifier(AccessModifier.PRIVATE);
+        copy.setStaticMethod();
+        copy.setReturnType(method.getReturnType());
+        method.getParams().forEach(param -> copy.addParam(copier.copy(param)));
+
+        final Map<Instruction, Instruction> copyOf = new HashMap<>();
+        for (final Instruction inst : method.getInstructions()) {
+            final Instruction instCopy = copier.copy(inst);
+            if (instCopy == null) {
+                return null;
+            }
+
+            copy.addInstr(instCopy);
+            copyOf.put(inst, instCopy);
+        }
+
+        method.getLabels().forEach((label, target) -> copy.addLabel(label, copyOf.get(target)));
+
+        // Without 'this', the parameters and locals move down one register
+        for (final var entry : renamed.entrySet()) {
+            final Descriptor descriptor = method.getVarTable().get(entry.getKey());
+            final int reg = descriptor.getScope() == VarScope.FIELD
+                    ? descriptor.getVirtualReg()
+                    : descriptor.getVirtualReg() - 1;
+            copy.getVarTable().put(entry.getValue(), new Descriptor(descriptor.getScope(), reg,
+                    descriptor.getVarType()));
+        }
+
+        return copy;
+    }
+
+    /**
+     * @return true if any instruction of the method refers to <code>this</code>
+     */
+    private static boolean usesThis(Method method) {
+        return method.getInstructions().stream()
+                .flatMap(Instruction::getDescendantsStream)
+                .anyMatch(node -> node instanceof Operand operand && operand.getName().equals("this"));
+    }
+
+    /**
+     * @return true if the class extends a class other than Object
+     */
+    static boolean hasSuperClass(ClassUnit classUnit) {
+        final String superClass = classUnit.getSuperClass();
+        return superClass != null && !superClass.equals("Object") && !superClass.equals("java.lang.Object");
+    }
+
+    /**
+     * Without <code>this</code>, the parameters and locals move down one register.
+     */
+    private static void makeStatic(Method method) {
+        method.setStaticMethod();
+        method.getVarTable().remove("this");
+
+        for (final Descriptor descriptor : method.getVarTable().values()) {
+            if (descriptor.getScope() != VarScope.FIELD) {
+                descriptor.setVirtualReg(descriptor.getVirtualReg() - 1);
+            }
+        }
+    }
+
+    private void rewriteCalls(Method caller, Set<Method> staticMethods) {
+        final List<Instruction> instructions = caller.getInstructions();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            final Instruction inst = instructions.get(i);
+            final Optional<CallInstruction> call = CallGraph.callOf(inst);
+            if (call.isEmpty() || call.get().getInvocationType() != CallType.invokevirtual) {
+                continue;
+            }
+
+            final Optional<Method> callee = callGraph.resolve(call.get());
+            if (callee.isEmpty() || !staticMethods.contains(callee.get())) {
+                continue;
+            }
+
+            replaceWithStaticCall(caller, i, call.get(), callee.get().getMethodName());
+        }
+    }
+
+    private void rewriteExactCalls(Method caller, Map<Method, Method> copies) {
+        final List<Instruction> instructions = caller.getInstructions();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            final Optional<CallInstruction> call = CallGraph.callOf(instructions.get(i));
+            if (call.isEmpty() || !callGraph.hasExactReceiver(caller, call.get())) {
+                continue;
+            }
+
+            final Optional<Method> callee = callGraph.resolve(call.get());
+            if (callee.isEmpty() || !copies.containsKey(callee.get())) {
+                continue;
+            }
+
+            replaceWithStaticCall(caller, i, call.get(), copies.get(callee.get()).getMethodName());
+        }
+    }
+
+    /**
+     * Replaces the call made by the instruction at <code>index</code> with an <code>invokestatic</code> of the
+     * method of this class named <code>methodName</code>, with the same arguments.
+     */
+    private void replaceWithStaticCall(Method caller, int index, CallInstruction call, String methodName) {
+        final Instruction inst = caller.getInstructions().get(index);
+        final String className = classUnit.getClassName();
+        final var classOperand = new Operand(className, new ClassType(ElementType.CLASS, className));
+        final var name = new LiteralElement("\"" + methodName + "\"", new Type(ElementType.STRING));
+        final var staticCall = new CallInstruction(CallType.invokestatic, classOperand, name, call.getArguments(),
+                call.getReturnType());
+
+        final Instruction replacement = inst instanceof AssignInstruction assign
+                ? new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(), staticCall)
+                : staticCall;
+
+        caller.getLabels().replaceAll((label, target) -> target == inst ? replacement : target);
+        caller.getInstructions().set(index, replacement);
+    }
+
+    /**
+     * @return true if the receiver of the call can't be null
+     */
+    static boolean hasKnownReceiver(Method caller, CallInstruction call) {
+        if (call.getInvocationType() != CallType.invokevirtual) {
+            return true;
+        }
+
+        if (!(call.getCaller() instanceof Operand receiver)) {
+            return false;
+        }
+
+        if (receiver.getName().equals("this")) {
+            return true;
+        }
+
+        final Descriptor descriptor = caller.getVarTable().get(receiver.getName());
+        if (descriptor == null || descriptor.getScope() != VarScope.LOCAL) {
+            return false;
+        }
+
+        // Locals must be assigned before they are read, so a local only assigned new objects is never null
+        return caller.getInstructions().stream()
+                .filter(inst -> inst instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest
+                        && dest.getName().equals(receiver.getName()))
+                .allMatch(inst -> ((AssignInstruction) inst).getRhs() instanceof CallInstruction rhs
+                        && rhs.getInvocationType() == CallType.NEW);
+    }
+}
@@ -0,0 +1,222 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Keeps the fields a method uses in locals, so each access is a register instead of a <code>getfield</code> or
+ * <code>putfield</code>:
+ * <pre>
+ * whileCond0:
+ * if (i.i32 >=.bool 10.i32) goto whileEnd0;
+ * tmp0.i32 :=.i32 getfield(this, count.i32).i32;
+ * tmp1.i32 :=.i32 tmp0.i32 +.i32 i.i32;
+ * putfield(this, count.i32, tmp1.i32).V;
+ * ...
+ * </pre>
+ * becomes
+ * <pre>
+ * fld_count.i32 :=.i32 getfield(this, count.i32).i32;
+ * whileCond0:
+ * if (i.i32 >=.bool 10.i32) goto whileEnd0;
+ * tmp0.i32 :=.i32 fld_count.i32;
+ * tmp1.i32 :=.i32 tmp0.i32 +.i32 i.i32;
+ * fld_count.i32 :=.i32 tmp1.i32;
+ * ...
+ * </pre>
+ * The field is loaded once when the method starts and, if the method writes it, stored before each return.
+ * Calls that may read the field, according to the {@link CallGraph} effects, get it stored before them, and calls
+ * that may write it get it loaded again after them. Imported code can only reach the fields through an object of
+ * this class, so imported calls only count when they are given one. A subclass may override the method a call on
+ * <code>this</code> reaches, so only the effects of calls that {@link CallGraph#resolveExactly} are known, and the
+ * others are taken to read and write every field.
+ * <p>
+ * Only fields used at least twice in a method are promoted, and only when every access is on <code>this</code>.
+ * Adds loads and stores around calls, so it only runs when optimizations are enabled.
+ */
+public class FieldPromotion {
+
+    private final ClassUnit classUnit;
+
+    private final CallGraph callGraph;
+
+    private final List<Report> reports;
+
+    public FieldPromotion(ClassUnit classUnit, CallGraph callGraph, List<Report> reports) {
+        this.classUnit = classUnit;
+        this.callGraph = callGraph;
+        this.reports = reports;
+    }
+
+    public void apply() {
+        for (final Method method : classUnit.getMethods()) {
+            if (method.isStaticMethod() || method.isConstructMethod()) {
+                continue;
+            }
+
+            // Every field of the method, with how many times it is accessed on 'this'
+            final Map<String, FieldInstruction> firstAccess = new LinkedHashMap<>();
+            final Map<String, Integer> accesses = new HashMap<>();
+            final Set<String> written = new HashSet<>();
+            final Set<String> otherObjects = new HashSet<>();
+
+            for (final Instruction inst : method.getInstructions()) {
+                if (!(access(inst) instanceof FieldInstruction fieldInst)) {
+                    continue;
+                }
+
+                final String name = fieldInst.getField().getName();
+                if (!fieldInst.getObject().getName().equals("this")) {
+                    otherObjects.add(name);
+                    continue;
+                }
+
+                firstAccess.putIfAbsent(name, fieldInst);
+                accesses.merge(name, 1, Integer::sum);
+                if (fieldInst instanceof PutFieldInstruction) {
+                    written.add(name);
+                }
+            }
+
+            for (final var entry : firstAccess.entrySet()) {
+                final String name = entry.getKey();
+                if (accesses.get(name) < 2 || otherObjects.contains(name)) {
+                    continue;
+                }
+
+                promote(method, entry.getValue(), written.contains(name));
+
+                final String message = String.format("Promoted field %s to a local in method %s (%d accesses)",
+                        name, method.getMethodName(), accesses.get(name));
+                reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+            }
+        }
+    }
+
+    private void promote(Method method, FieldInstruction access, boolean written) {
+        final Operand object = access.getObject();
+        final Operand field = access.getField();
+        final Type type = field.getType();
+        final String name = field.getName();
+
+        String localName = "fld_" + name;
+        for (int n = 1; method.getVarTable().containsKey(localName); n++) {
+            localName = "fld" + n + "_" + name;
+        }
+
+        final int reg = method.getVarTable().values().stream().mapToInt(Descriptor::getVirtualReg).max().orElse(0) + 1;
+        method.getVarTable().put(localName, new Descriptor(VarScope.LOCAL, reg, type));
+
+        final String local = localName;
+        final List<Instruction> instructions = method.getInstructions();
+
+        // Jumps to the first instruction stay after the load
+        instructions.add(0, load(object, field, local));
+
+        for (int i = 1; i < instructions.size(); i++) {
+            final Instruction inst = instructions.get(i);
+
+            if (inst instanceof AssignInstruction assign && isAccess(assign.getRhs(), name)) {
+                replace(method, i, new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(),
+                        new SingleOpInstruction(new Operand(local, type))));
+                continue;
+            }
+
+            if (inst instanceof PutFieldInstruction putField && isAccess(putField, name)) {
+                replace(method, i, new AssignInstruction(new Operand(local, type), type,
+                        new SingleOpInstruction(putField.getValue())));
+                continue;
+            }
+
+            final boolean isReturn = inst instanceof ReturnInstruction;
+            final Optional<CallInstruction> call = CallGraph.callOf(inst);
+
+            if (written && (isReturn || call.isPresent() && mayRead(method, call.get(), name))) {
+                final var store = new PutFieldInstruction(object, new Operand(name, type),
+                        new Operand(local, type), new Type(ElementType.VOID));
+                method.getLabels().replaceAll((label, target) -> target == inst ? store : target);
+                instructions.add(i, store);
+                i++;
+            }
+
+            if (call.isPresent() && mayWrite(method, call.get(), name)) {
+                instructions.add(i + 1, load(object, field, local));
+                i++;
+            }
+        }
+    }
+
+    private static Instruction load(Operand object, Operand field, String local) {
+        final Type type = field.getType();
+        return new AssignInstruction(new Operand(local, type), type,
+                new GetFieldInstruction(object, new Operand(field.getName(), type), type));
+    }
+
+    private static void replace(Method method, int index, Instruction replacement) {
+        final Instruction inst = method.getInstructions().get(index);
+        method.getLabels().replaceAll((label, target) -> target == inst ? replacement : target);
+        method.getInstructions().set(index, replacement);
+    }
+
+    /**
+     * @return the field access done by the instruction, either on its own or as the value of an assignment
+     */
+    private static Instruction access(Instruction inst) {
+        return inst instanceof AssignInstruction assign ? assign.getRhs() : inst;
+    }
+
+    private static boolean isAccess(Instruction inst, String name) {
+        return inst instanceof FieldInstruction fieldInst && fieldInst.getObject().getName().equals("this")
+                && fieldInst.getField().getName().equals(name);
+    }
+
+    private boolean mayRead(Method caller, CallInstruction call, String field) {
+        return callGraph.resolveExactly(caller, call)
+                .map(callee -> callGraph.get(callee.getMethodName()).fieldsRead().contains(field)
+                        || reachesImports(callee))
+                .orElseGet(() -> givesObjectOfClass(call));
+    }
+
+    private boolean mayWrite(Method caller, CallInstruction call, String field) {
+        return callGraph.resolveExactly(caller, call)
+                .map(callee -> callGraph.get(callee.getMethodName()).fieldsWritten().contains(field)
+                        || reachesImports(callee))
+                .orElseGet(() -> givesObjectOfClass(call));
+    }
+
+    /**
+     * Imported code called by the method may have been given an object of this class.
+     */
+    private boolean reachesImports(Method callee) {
+        return !callGraph.get(callee.getMethodName()).importedCalls().isEmpty();
+    }
+
+    /**
+     * @return true if the call is to code outside the class, or that a subclass may override, and it receives an
+     * object of this class
+     */
+    private boolean givesObjectOfClass(CallInstruction call) {
+        // Constructors of this class have an empty body, and new objects have no fields set yet
+        if (call.getInvocationType() == CallType.NEW || call.getInvocationType() == CallType.invokespecial) {
+            return false;
+        }
+
+        final List<Element> operands = new ArrayList<>(call.getArguments());
+        if (call.getInvocationType() != CallType.invokestatic) {
+            operands.add(call.getCaller());
+        }
+
+        return operands.stream().anyMatch(this::isObjectOfClass);
+    }
+
+    private boolean isObjectOfClass(Element element) {
+        if (element instanceof Operand operand && operand.getName().equals("this")) {
+            return true;
+        }
+
+        return element.getType() instanceof ClassType type && type.getName().equals(classUnit.getClassName());
+    }
+}
@@ -0,0 +1,123 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Deep copies instructions, renaming variables and labels, and optionally replacing 'this' with another object.
+ */
+class InstructionCopier {
+
+    private final Map<String, String> renamed;
+
+    private final Map<String, String> labels;
+
+    private final Operand receiver;
+
+    InstructionCopier(Map<String, String> renamed, Map<String, String> labels) {
+        this(renamed, labels, null);
+    }
+
+    /**
+     * @param receiver variable that takes the place of 'this' in the copies, or null to keep 'this'
+     */
+    InstructionCopier(Map<String, String> renamed, Map<String, String> labels, Operand receiver) {
+        this.renamed = renamed;
+        this.labels = labels;
+        this.receiver = receiver;
+    }
+
+    /**
+     * @return the copy, or null for instructions that can't be copied
+     */
+    Instruction copy(Instruction inst) {
+        if (inst instanceof AssignInstruction assign) {
+            final Instruction rhs = copy(assign.getRhs());
+            return rhs == null ? null : new AssignInstruction(copy(assign.getDest()), assign.getTypeOfAssign(), rhs);
+        }
+
+        if (inst instanceof SingleOpInstruction singleOp) {
+            return new SingleOpInstruction(copy(singleOp.getSingleOperand()));
+        }
+
+        if (inst instanceof UnaryOpInstruction unaryOp) {
+            return new UnaryOpInstruction(copy(unaryOp.getOperation()), copy(unaryOp.getOperand()));
+        }
+
+        if (inst instanceof BinaryOpInstruction binaryOp) {
+            return new BinaryOpInstruction(copy(binaryOp.getLeftOperand()), copy(binaryOp.getOperation()),
+                    copy(binaryOp.getRightOperand()));
+        }
+
+        if (inst instanceof CallInstruction call) {
+            final List<Element> arguments = new ArrayList<>();
+            call.getArguments().forEach(argument -> arguments.add(copy(argument)));
+
+            return new CallInstruction(call.getInvocationType(), copy(call.getCaller()),
+                    call.getMethodNameTry().orElse(null), arguments, call.getReturnType());
+        }
+
+        // The field operand names a field, never a variable
+        if (inst instanceof GetFieldInstruction getField) {
+            return new GetFieldInstruction((Operand) copy(getField.getObject()), getField.getField(),
+                    getField.getFieldType());
+        }
+
+        if (inst instanceof PutFieldInstruction putField) {
+            return new PutFieldInstruction((Operand) copy(putField.getObject()), putField.getField(),
+                    copy(putField.getValue()), putField.getFieldType());
+        }
+
+        if (inst instanceof GotoInstruction jump) {
+            return new GotoInstruction(labels.get(jump.getLabel()));
+        }
+
+        if (inst instanceof OpCondInstruction opCond) {
+            final var copy = new OpCondInstruction((OpInstruction) copy(opCond.getCondition()));
+            copy.setLabel(labels.get(opCond.getLabel()));
+            return copy;
+        }
+
+        if (inst instanceof SingleOpCondInstruction singleOpCond) {
+            final var copy = new SingleOpCondInstruction((SingleOpInstruction) copy(singleOpCond.getCondition()));
+            copy.setLabel(labels.get(singleOpCond.getLabel()));
+            return copy;
+        }
+
+        if (inst instanceof ReturnInstruction returnInst) {
+            final var copy = returnInst.hasReturnValue()
+                    ? new ReturnInstruction(copy(returnInst.getOperand()))
+                    : new ReturnInstruction();
+            copy.setReturnType(returnInst.getReturnType());
+            return copy;
+        }
+
+        return null;
+    }
+
+    Element copy(Element element) {
+        if (receiver != null && element instanceof Operand operand && operand.getName().equals("this")) {
+            return new Operand(receiver.getName(), receiver.getType());
+        }
+
+        if (!(element instanceof Operand operand) || !renamed.containsKey(operand.getName())) {
+            // Literals, 'this' and class names are never modified, so they are shared with the original
+            return element;
+        }
+
+        final String name = renamed.get(operand.getName());
+
+        if (operand instanceof ArrayOperand arrayOperand) {
+            final List<Element> indexes = new ArrayList<>();
+            arrayOperand.getIndexOperands().forEach(index -> indexes.add(copy(index)));
+            return new ArrayOperand(name, operand.getType(), indexes);
+        }
+
+        return new Operand(name, operand.getType());
+    }
+
+    private static Operation copy(Operation operation) {
+        return new Operation(operation.getOpType(), operation.getTypeInfo());
+    }
+}
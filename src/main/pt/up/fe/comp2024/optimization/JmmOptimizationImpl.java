@@ -1,26 +1,219 @@
 package pt.up.fe.comp2024.optimization;
 
+import org.specs.comp.ollir.ClassUnit;
+import org.specs.comp.ollir.Method;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ollir.JmmOptimization;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.CompilerStats;
+import pt.up.fe.comp2024.events.CompilerEvents;
+import pt.up.fe.comp2024.events.OptimizationEvent;
 
 import java.util.Collections;
+import java.util.function.BooleanSupplier;
 
 public class JmmOptimizationImpl implements JmmOptimization {
 
+    private final CompilerStats stats;
+
+    public JmmOptimizationImpl() {
+        this(CompilerStats.NONE);
+    }
+
+    public JmmOptimizationImpl(CompilerStats stats) {
+        this.stats = stats;
+    }
+
     @Override
     public OllirResult toOllir(JmmSemanticsResult semanticsResult) {
 
-        var visitor = new OllirGeneratorVisitor(semanticsResult.getSymbolTable());
-        var ollirCode = visitor.visit(semanticsResult.getRootNode());
+        // Methods are generated on the fork-join pool
+        var ollirCode = stats.measureAllThreads("ollir generation", () -> {
+            var visitor = new OllirGeneratorVisitor(semanticsResult.getSymbolTable());
+            return visitor.visit(semanticsResult.getRootNode());
+        });
 
-        return new OllirResult(semanticsResult, ollirCode, Collections.emptyList());
+        return stats.measure("ollir parsing",
+                () -> new OllirResult(semanticsResult, ollirCode, Collections.emptyList()));
+    }
+
+    /**
+     * Generates the OLLIR of the class with only one of its methods, so methods can go through the later stages
+     * one at a time.
+     */
+    public String toOllir(JmmSemanticsResult semanticsResult, JmmNode methodDecl) {
+        return stats.measure("ollir generation", () -> {
+            var visitor = new OllirGeneratorVisitor(semanticsResult.getSymbolTable(), method -> method == methodDecl);
+            return visitor.visit(semanticsResult.getRootNode());
+        });
     }
 
     @Override
     public OllirResult optimize(OllirResult ollirResult) {
-        // TODO: Do your OLLIR-based optimizations here
+        final Profile profile = CompilerConfig.getProfileFile(ollirResult.getConfig())
+                .map(Profile::read)
+                .orElse(Profile.empty());
+
+        final boolean optimize = CompilerConfig.getOptimize(ollirResult.getConfig());
+        if (!optimize) {
+            optimizeMethods(ollirResult, profile, null);
+            return ollirResult;
+        }
+
+        // Every optimization of the class shares the summaries of this compilation
+        final ClassUnit classUnit = ollirResult.getOllirClass();
+        final CallGraph callGraph = stats.measure("call graph", () -> CallGraph.of(classUnit));
+
+        // Nothing is spent optimizing code that is removed
+        if (CompilerConfig.getOptimizeOptions(ollirResult.getConfig()).contains(CompilerConfig.TREE_SHAKE)) {
+            optimizeClass("TreeShaking", ollirResult,
+                    () -> new TreeShaking(classUnit, callGraph, ollirResult.getReports()).apply());
+        }
+
+        // A call that can be evaluated is cheaper as its value than inlined
+        final var callFolding = new ConstantCallFolding(callGraph, ollirResult.getReports());
+        final String fileName = CompilerEvents.fileName(ollirResult.getConfig());
+        for (final Method method : classUnit.getMethods()) {
+            optimizeMethod("ConstantCallFolding", fileName, method, () -> callFolding.apply(method));
+        }
+
+        // Inlined bodies get simplified together with the code around them
+        optimizeClass("MethodInliner", ollirResult,
+                () -> new MethodInliner(classUnit, callGraph, profile, ollirResult.getReports()).apply());
+
+        // Calls that weren't inlined still skip the virtual dispatch
+        optimizeClass("Devirtualization", ollirResult,
+                () -> new Devirtualization(classUnit, callGraph, ollirResult.getReports()).apply());
+
+        // Inlined getters and setters become accesses of the caller
+        optimizeClass("FieldPromotion", ollirResult,
+                () -> new FieldPromotion(classUnit, callGraph, ollirResult.getReports()).apply());
+
+        optimizeMethods(ollirResult, profile, callFolding);
+
+        return ollirResult;
+    }
+
+    /**
+     * Runs only the optimizations that look at one method at a time, so a class with some of the methods of the
+     * program can be optimized without the others. Inlining, devirtualization, field promotion, tree shaking and
+     * folding of calls are left out, as they need the whole class.
+     */
+    public OllirResult optimizeLocally(OllirResult ollirResult, Profile profile) {
+        optimizeMethods(ollirResult, profile, null);
 
         return ollirResult;
     }
+
+    private void optimizeMethods(OllirResult ollirResult, Profile profile, ConstantCallFolding callFolding) {
+        final String fileName = CompilerEvents.fileName(ollirResult.getConfig());
+        final boolean optimize = CompilerConfig.getOptimize(ollirResult.getConfig());
+        final var constantPropagation = optimize
+                ? new ConditionalConstantPropagation(ollirResult.getReports())
+                : null;
+        final var unrolling = optimize
+                ? new LoopUnrolling(CompilerConfig.getUnrollFactor(ollirResult.getConfig()), profile,
+                        ollirResult.getReports())
+                : null;
+
+        for (final Method method : ollirResult.getOllirClass().getMethods()) {
+            final var simplification = optimize ? new AlgebraicSimplification(method, ollirResult.getReports()) : null;
+            simplify(fileName, method, simplification, callFolding, constantPropagation);
+
+            // Loop variables only start with a constant once copies are propagated, and unrolled bodies
+            // are simplified with the values of each iteration
+            if (unrolling != null && optimizeMethod("LoopUnrolling", fileName, method,
+                    () -> unrolling.apply(method))) {
+                simplify(fileName, method, simplification, callFolding, constantPropagation);
+            }
+        }
+
+        // Last, since other passes look up counts by the labels before each instruction
+        if (!profile.isEmpty()) {
+            final var layout = new ProfileGuidedLayout(profile, ollirResult.getReports());
+            for (final Method method : ollirResult.getOllirClass().getMethods()) {
+                optimizeMethod("ProfileGuidedLayout", fileName, method, () -> {
+                    layout.apply(method);
+                    return false;
+                });
+            }
+        }
+    }
+
+    private void simplify(String fileName, Method method, AlgebraicSimplification simplification,
+                          ConstantCallFolding callFolding,
+                          ConditionalConstantPropagation constantPropagation) {
+        // Propagated literals can enable further simplifications, and simplifications leave new copies,
+        // so it stops once the propagated code has nothing left to simplify. Without '-o', only the copies left by
+        // OLLIR generation are propagated
+        boolean simplified;
+        do {
+            optimizeMethod("CopyPropagation", fileName, method, () -> {
+                new CopyPropagation(method).apply();
+                return false;
+            });
+            simplified = simplification != null
+                    && optimizeMethod("AlgebraicSimplification", fileName, method, simplification::apply);
+            if (callFolding != null) {
+                simplified |= optimizeMethod("ConstantCallFolding", fileName, method,
+                        () -> callFolding.apply(method));
+            }
+
+            // Constants that only hold on the paths that can run, and the branches they decide
+            if (constantPropagation != null) {
+                simplified |= optimizeMethod("ConditionalConstantPropagation", fileName, method,
+                        () -> constantPropagation.apply(method));
+            }
+        } while (simplified);
+    }
+
+    /**
+     * Runs an optimization of the whole class, measured for '-stats' and recorded as an {@link OptimizationEvent}.
+     */
+    private void optimizeClass(String name, OllirResult ollirResult, Runnable optimization) {
+        final var event = new OptimizationEvent();
+        final long before = event.isEnabled() ? CompilerEvents.countInstructions(ollirResult.getOllirClass()) : 0;
+
+        event.begin();
+        stats.measure("optimization " + name, optimization);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.fileName = CompilerEvents.fileName(ollirResult.getConfig());
+            event.optimization = name;
+            event.methodName = "";
+            event.instructionsBefore = before;
+            event.instructionsAfter = CompilerEvents.countInstructions(ollirResult.getOllirClass());
+            event.changed = event.instructionsBefore != event.instructionsAfter;
+            event.commit();
+        }
+    }
+
+    /**
+     * Runs an optimization of one method, measured for '-stats' and recorded as an {@link OptimizationEvent}.
+     *
+     * @param optimization returns if it changed the method, or false if it doesn't tell
+     */
+    private boolean optimizeMethod(String name, String fileName, Method method, BooleanSupplier optimization) {
+        final var event = new OptimizationEvent();
+        final long before = event.isEnabled() ? CompilerEvents.countInstructions(method) : 0;
+
+        event.begin();
+        final boolean changed = stats.measure("optimization " + name, optimization::getAsBoolean);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.fileName = fileName;
+            event.optimization = name;
+            event.methodName = method.getMethodName();
+            event.instructionsBefore = before;
+            event.instructionsAfter = CompilerEvents.countInstructions(method);
+            event.changed = changed || event.instructionsBefore != event.instructionsAfter;
+            event.commit();
+        }
+
+        return changed;
+    }
 }
@@ -0,0 +1,476 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Unrolls counted loops, whose variable starts with a constant and changes by a constant each iteration until it
+ * passes a constant bound, so the number of iterations is known when compiling:
+ * <pre>
+ * i.i32 :=.i32 0.i32;
+ * whileCond0:
+ * if (i.i32 >=.bool 3.i32) goto whileEnd0;
+ * s.i32 :=.i32 s.i32 +.i32 i.i32;
+ * i.i32 :=.i32 i.i32 +.i32 1.i32;
+ * goto whileCond0;
+ * whileEnd0:
+ * </pre>
+ * Loops with at most {@link #MAX_FULL_TRIPS} iterations are replaced with a copy of the body for each iteration,
+ * and the tests and jumps are gone. Longer loops get a loop in front that runs the body <code>factor</code> times
+ * per test, for as many iterations as are a multiple of the factor, and the original loop runs the rest.
+ * Unrolling never leaves more than {@link #MAX_UNROLLED_SIZE} instructions of copied bodies for a loop.
+ * <p>
+ * The variable must be updated once, at the end of the body, and control must only enter the loop through its
+ * test and only leave through it. Every loop found is reported, with what was done to it.
+ * <p>
+ * With a {@link Profile}, loops that never ran are kept, and hot loops can have twice as many instructions of
+ * copied bodies.
+ * <p>
+ * This makes methods larger, so it only runs when optimizations are enabled, and the factor is given with
+ * <code>-u</code>.
+ */
+public class LoopUnrolling {
+
+    /**
+     * Loops that run at most this many times are unrolled fully.
+     */
+    private static final int MAX_FULL_TRIPS = 8;
+
+    /**
+     * Instructions that the copies of a body can have, in total.
+     */
+    private static final int MAX_UNROLLED_SIZE = 64;
+
+    /**
+     * Loops are only run ahead of time this many iterations to find when they end.
+     */
+    private static final int MAX_TRIPS = 100_000;
+
+    /**
+     * Thrown when a loop isn't counted, with the reason.
+     */
+    private static class NotCounted extends RuntimeException {
+        NotCounted(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    /**
+     * @param header    index of the test that leaves the loop
+     * @param backEdge  index of the jump back to the test
+     * @param variable  the variable that counts the iterations
+     * @param init      its value before the loop
+     * @param step      what is added to it at the end of each iteration
+     * @param trips     how many times the body runs
+     */
+    private record CountedLoop(int header, int backEdge, Operand variable, int init, int step, int trips) {
+    }
+
+    private final int factor;
+
+    private final Profile profile;
+
+    private final List<Report> reports;
+
+    private int loopNumber;
+
+    public LoopUnrolling(int factor, Profile profile, List<Report> reports) {
+        this.factor = factor;
+        this.profile = profile;
+        this.reports = reports;
+        this.loopNumber = 0;
+    }
+
+    /**
+     * @return true if any loop was unrolled
+     */
+    public boolean apply(Method method) {
+        final List<Instruction> instructions = method.getInstructions();
+        boolean changed = false;
+
+        // Inner loops jump back before outer loops do, so they are unrolled first
+        for (int i = 0; i < instructions.size() - 1; i++) {
+            if (!(instructions.get(i) instanceof GotoInstruction backEdge)) {
+                continue;
+            }
+
+            final int header = instructions.indexOf(method.getLabels().get(backEdge.getLabel()));
+            if (header < 0 || header >= i || !(instructions.get(header) instanceof CondBranchInstruction exitTest)
+                    || method.getLabels().get(exitTest.getLabel()) != instructions.get(i + 1)) {
+                continue;
+            }
+
+            final String name = backEdge.getLabel();
+            final CountedLoop loop;
+            try {
+                loop = analyze(method, header, i);
+            } catch (NotCounted e) {
+                report(method, name, "kept, " + e.getMessage());
+                continue;
+            }
+
+            final OptionalLong count = profile.count(method.getMethodName(), name);
+            if (count.isPresent() && count.getAsLong() == 0) {
+                report(method, name, "kept, it never ran in the profile");
+                continue;
+            }
+
+            final int maxSize = count.isPresent() && profile.isHot(count.getAsLong())
+                    ? 2 * MAX_UNROLLED_SIZE
+                    : MAX_UNROLLED_SIZE;
+            final int bodySize = loop.backEdge() - loop.header() - 1;
+
+            if (loop.trips() <= MAX_FULL_TRIPS && loop.trips() * bodySize <= maxSize) {
+                final Optional<List<Instruction>> unrolled = unrollFully(method, loop);
+                if (unrolled.isEmpty()) {
+                    report(method, name, "kept, its body can't be copied");
+                    continue;
+                }
+
+                report(method, name, loop.trips() == 0 ? "removed, it never runs"
+                        : String.format("unrolled fully (%d iterations)", loop.trips()));
+                i = loop.header() + unrolled.get().size() - 1;
+                changed = true;
+            } else if (factor > 1 && loop.trips() >= factor && factor * bodySize <= maxSize) {
+                final Optional<List<Instruction>> unrolled = unrollPartially(method, loop, name);
+                if (unrolled.isEmpty()) {
+                    report(method, name, "kept, its body can't be copied");
+                    continue;
+                }
+
+                report(method, name, String.format("unrolled %d times (%d iterations, %d in the remainder loop)",
+                        factor, loop.trips(), loop.trips() % factor));
+                i = loop.backEdge() + unrolled.get().size();
+                changed = true;
+            } else {
+                report(method, name, String.format("kept, %d iterations of %d instructions are too many to unroll",
+                        loop.trips(), bodySize));
+            }
+        }
+
+        return changed;
+    }
+
+    private static CountedLoop analyze(Method method, int header, int backEdge) {
+        final List<Instruction> instructions = method.getInstructions();
+
+        // Only the test and the back edge jump in or out of the loop
+        for (int i = 0; i < instructions.size(); i++) {
+            final Instruction inst = instructions.get(i);
+            final boolean inBody = i > header && i < backEdge;
+
+            if (inBody && inst instanceof ReturnInstruction) {
+                throw new NotCounted("it returns from the method");
+            }
+
+            final String label = inst instanceof GotoInstruction jump ? jump.getLabel()
+                    : inst instanceof CondBranchInstruction branch ? branch.getLabel()
+                    : null;
+            if (label == null || i == header || i == backEdge) {
+                continue;
+            }
+
+            final int target = instructions.indexOf(method.getLabels().get(label));
+            final boolean entersOrLeaves = inBody
+                    ? target <= header || target >= backEdge
+                    : target >= header && target <= backEdge;
+            if (entersOrLeaves) {
+                throw new NotCounted("control enters or leaves it in the middle");
+            }
+        }
+
+        if (!(instructions.get(header) instanceof OpCondInstruction exitTest)
+                || !(exitTest.getCondition() instanceof BinaryOpInstruction condition)
+                || !isComparison(condition.getOperation().getOpType())) {
+            throw new NotCounted("its condition isn't a comparison");
+        }
+
+        final Operand variable = countedVariable(condition);
+        if (variable == null) {
+            throw new NotCounted("its condition doesn't compare an int variable with a constant");
+        }
+
+        final Integer step = backEdge - 1 > header ? stepOf(instructions.get(backEdge - 1), variable) : null;
+        if (step == null) {
+            throw new NotCounted(variable.getName() + " doesn't change by a constant at the end of the body");
+        }
+
+        for (int i = header + 1; i < backEdge - 1; i++) {
+            if (assigns(instructions.get(i), variable)) {
+                throw new NotCounted(variable.getName() + " changes more than once per iteration");
+            }
+        }
+
+        final int init = initOf(method, header, variable);
+
+        int value = init;
+        int trips = 0;
+        while (!exits(condition, variable, value)) {
+            if (++trips > MAX_TRIPS) {
+                throw new NotCounted("it runs more than " + MAX_TRIPS + " times");
+            }
+
+            value += step;
+        }
+
+        return new CountedLoop(header, backEdge, variable, init, step, trips);
+    }
+
+    /**
+     * @return the variable compared with a constant, or null if the condition isn't like that
+     */
+    private static Operand countedVariable(BinaryOpInstruction condition) {
+        final Element left = condition.getLeftOperand();
+        final Element right = condition.getRightOperand();
+        final Element variable = left instanceof LiteralElement ? right : left;
+        final Element bound = left instanceof LiteralElement ? left : right;
+
+        if (!(variable instanceof Operand operand) || operand instanceof ArrayOperand
+                || operand.getType().getTypeOfElement() != ElementType.INT32
+                || literalValue(bound) == null) {
+            return null;
+        }
+
+        return operand;
+    }
+
+    /**
+     * @return the constant added to the variable by <code>v := v + c</code>, <code>v := c + v</code> or
+     * <code>v := v - c</code>, or null for anything else
+     */
+    private static Integer stepOf(Instruction inst, Operand variable) {
+        if (!assigns(inst, variable) || !(((AssignInstruction) inst).getRhs() instanceof BinaryOpInstruction update)) {
+            return null;
+        }
+
+        final Element left = update.getLeftOperand();
+        final Element right = update.getRightOperand();
+        final OperationType opType = update.getOperation().getOpType();
+
+        Integer step = null;
+        if (opType == OperationType.ADD && isVariable(left, variable)) {
+            step = literalValue(right);
+        } else if (opType == OperationType.ADD && isVariable(right, variable)) {
+            step = literalValue(left);
+        } else if (opType == OperationType.SUB && isVariable(left, variable)) {
+            step = literalValue(right) == null ? null : -literalValue(right);
+        }
+
+        return step == null || step == 0 ? null : step;
+    }
+
+    /**
+     * The variable must be assigned a constant in the code that always runs right before the loop.
+     */
+    private static int initOf(Method method, int header, Operand variable) {
+        final List<Instruction> instructions = method.getInstructions();
+
+        for (int i = header - 1; i >= 0; i--) {
+            final Instruction inst = instructions.get(i);
+
+            if (assigns(inst, variable)) {
+                final Instruction rhs = ((AssignInstruction) inst).getRhs();
+                final Integer init = rhs instanceof SingleOpInstruction singleOp
+                        ? literalValue(singleOp.getSingleOperand())
+                        : null;
+
+                if (init == null) {
+                    break;
+                }
+
+                return init;
+            }
+
+            if (method.getLabels().containsValue(inst)
+                    || inst instanceof GotoInstruction || inst instanceof ReturnInstruction) {
+                break;
+            }
+        }
+
+        throw new NotCounted(variable.getName() + " doesn't start with a constant");
+    }
+
+    private static boolean exits(BinaryOpInstruction condition, Operand variable, int value) {
+        final int left = isVariable(condition.getLeftOperand(), variable) ? value : literalValue(condition.getLeftOperand());
+        final int right = isVariable(condition.getRightOperand(), variable) ? value : literalValue(condition.getRightOperand());
+
+        return switch (condition.getOperation().getOpType()) {
+            case LTH -> left < right;
+            case GTH -> left > right;
+            case LTE -> left <= right;
+            case GTE -> left >= right;
+            case EQ -> left == right;
+            case NEQ -> left != right;
+            default -> throw new IllegalStateException("Not a comparison: " + condition.getOperation().getOpType());
+        };
+    }
+
+    /**
+     * Replaces the test, the body and the back edge with a copy of the body for each iteration.
+     */
+    private Optional<List<Instruction>> unrollFully(Method method, CountedLoop loop) {
+        final List<Instruction> instructions = method.getInstructions();
+        final String prefix = "unr" + loopNumber + "_";
+
+        final List<Instruction> unrolled = new ArrayList<>();
+        for (int k = 0; k < loop.trips(); k++) {
+            final Optional<List<Instruction>> copy = copyBody(method, loop, prefix + k + "_");
+            if (copy.isEmpty()) {
+                return Optional.empty();
+            }
+
+            unrolled.addAll(copy.get());
+        }
+
+        final Set<Instruction> replaced = new HashSet<>(instructions.subList(loop.header(), loop.backEdge() + 1));
+        method.getLabels().values().removeIf(replaced::contains);
+
+        instructions.subList(loop.header(), loop.backEdge() + 1).clear();
+        instructions.addAll(loop.header(), unrolled);
+        removeUnusedLabels(method);
+
+        loopNumber++;
+        return Optional.of(unrolled);
+    }
+
+    /**
+     * Adds a loop in front of the original that runs <code>factor</code> copies of the body per test, until the
+     * iterations left are fewer than the factor:
+     * <pre>
+     * unr0_cond:
+     * if (i.i32 ==.bool 8.i32) goto whileCond0;
+     * ...
+     * goto unr0_cond;
+     * whileCond0:
+     * </pre>
+     * The variable goes through the same values as in the original loop, so the test is an equality with the
+     * value it has after the unrolled iterations.
+     */
+    private Optional<List<Instruction>> unrollPartially(Method method, CountedLoop loop, String headerLabel) {
+        final int iterations = loop.trips() / factor * factor;
+        final int last = loop.init() + iterations * loop.step();
+
+        // With overflow, the variable could go through the last value before
+        for (int n = 0, value = loop.init(); n < iterations; n++, value += loop.step()) {
+            if (value == last) {
+                return Optional.empty();
+            }
+        }
+
+        final String prefix = "unr" + loopNumber + "_";
+        final String condLabel = prefix + "cond";
+
+        final var variable = new Operand(loop.variable().getName(), loop.variable().getType());
+        final var lastLiteral = new LiteralElement(String.valueOf(last), new Type(ElementType.INT32));
+        final var guard = new OpCondInstruction(new BinaryOpInstruction(variable,
+                new Operation(OperationType.EQ, new Type(ElementType.BOOLEAN)), lastLiteral));
+        guard.setLabel(headerLabel);
+
+        final List<Instruction> unrolled = new ArrayList<>();
+        unrolled.add(guard);
+        for (int k = 0; k < factor; k++) {
+            final Optional<List<Instruction>> copy = copyBody(method, loop, prefix + k + "_");
+            if (copy.isEmpty()) {
+                return Optional.empty();
+            }
+
+            unrolled.addAll(copy.get());
+        }
+        unrolled.add(new GotoInstruction(condLabel));
+
+        method.getLabels().put(condLabel, guard);
+        method.getInstructions().addAll(loop.header(), unrolled);
+
+        loopNumber++;
+        return Optional.of(unrolled);
+    }
+
+    /**
+     * Copies the body, without the back edge, and registers the labels of the copy in the method.
+     *
+     * @return the copy, or empty if the body contains instructions that can't be copied
+     */
+    private static Optional<List<Instruction>> copyBody(Method method, CountedLoop loop, String prefix) {
+        final List<Instruction> body = method.getInstructions().subList(loop.header() + 1, loop.backEdge());
+
+        // Every variable is renamed to itself, so the copies don't share operands
+        final Map<String, String> renamed = new HashMap<>();
+        method.getVarTable().keySet().forEach(name -> renamed.put(name, name));
+
+        final Map<String, String> labels = new HashMap<>();
+        final Map<String, Integer> labelIndexes = new HashMap<>();
+        for (final var entry : method.getLabels().entrySet()) {
+            final int index = body.indexOf(entry.getValue());
+            if (index >= 0) {
+                labels.put(entry.getKey(), prefix + entry.getKey());
+                labelIndexes.put(entry.getKey(), index);
+            }
+        }
+
+        final var copier = new InstructionCopier(renamed, labels);
+        final List<Instruction> copy = new ArrayList<>();
+        for (final Instruction inst : body) {
+            final Instruction instCopy = copier.copy(inst);
+            if (instCopy == null) {
+                return Optional.empty();
+            }
+
+            copy.add(instCopy);
+        }
+
+        labelIndexes.forEach((label, index) -> method.getLabels().put(labels.get(label), copy.get(index)));
+        return Optional.of(copy);
+    }
+
+    /**
+     * The test that left a fully unrolled loop was the only jump to the label after it.
+     */
+    private static void removeUnusedLabels(Method method) {
+        final Set<String> used = new HashSet<>();
+        for (final Instruction inst : method.getInstructions()) {
+            if (inst instanceof GotoInstruction jump) {
+                used.add(jump.getLabel());
+            } else if (inst instanceof CondBranchInstruction branch) {
+                used.add(branch.getLabel());
+            }
+        }
+
+        method.getLabels().keySet().retainAll(used);
+    }
+
+    private void report(Method method, String loop, String decision) {
+        final String message = String.format("Loop %s in method %s %s", loop, method.getMethodName(), decision);
+        reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+    }
+
+    private static boolean assigns(Instruction inst, Operand variable) {
+        return inst instanceof AssignInstruction assign && isVariable(assign.getDest(), variable);
+    }
+
+    private static boolean isVariable(Element element, Operand variable) {
+        return element instanceof Operand operand && !(operand instanceof ArrayOperand)
+                && operand.getName().equals(variable.getName());
+    }
+
+    private static Integer literalValue(Element element) {
+        if (!(element instanceof LiteralElement literal)) {
+            return null;
+        }
+
+        try {
+            return Integer.parseInt(literal.getLiteral());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isComparison(OperationType opType) {
+        return switch (opType) {
+            case LTH, GTH, LTE, GTE, EQ, NEQ -> true;
+            default -> false;
+        };
+    }
+}
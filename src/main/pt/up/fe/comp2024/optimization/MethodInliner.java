@@ -0,0 +1,259 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Replaces calls to small methods of the class being compiled with the body of the called method.
+ * <p>
+ * Only calls that can't reach another implementation are inlined, see {@link CallGraph#resolveExactly}:
+ * <code>invokestatic</code> on the class itself, <code>invokevirtual(this, ...)</code> of methods that can't be
+ * overridden, and calls on locals that only hold objects created with <code>new</code> of the class itself. Other
+ * classes can extend the class and override its methods, so any other virtual call may run their code instead.
+ * Calls on other objects of the class are kept too, since the object may be null.
+ * <p>
+ * For example, with <code>.method public get().i32 { ret.i32 getfield(this, x.i32).i32; }</code>:
+ * <pre>
+ * o.A :=.A new(A).A;
+ * invokespecial(o.A, "&lt;init&gt;").V;
+ * a.i32 :=.i32 invokevirtual(o.A, "get").i32;
+ * </pre>
+ * becomes
+ * <pre>
+ * o.A :=.A new(A).A;
+ * invokespecial(o.A, "&lt;init&gt;").V;
+ * inl0_tmp0.i32 :=.i32 getfield(o.A, x.i32).i32;
+ * a.i32 :=.i32 inl0_tmp0.i32;
+ * </pre>
+ * The locals and parameters of the inlined method are renamed, 'this' becomes the object the method is called on,
+ * parameters are assigned the arguments, and each return assigns the result and jumps to the instruction after the
+ * call. Copy propagation cleans up the copies.
+ * <p>
+ * Recursive methods, directly or through other methods, are never inlined. Neither are methods with more than
+ * {@link #MAX_CALLEE_SIZE} instructions, or calls in methods that already grew past {@link #MAX_CALLER_SIZE}.
+ * <p>
+ * With a {@link Profile}, calls that never ran are not inlined, and hot calls can inline methods of up to
+ * {@link #MAX_HOT_CALLEE_SIZE} instructions. The labels of inlined bodies keep the counts of the labels they are
+ * copied from, see {@link Profile#copyLabel}.
+ * <p>
+ * Runs only with '-o'.
+ */
+public class MethodInliner {
+
+    /**
+     * Methods with more instructions than this are not inlined.
+     */
+    private static final int MAX_CALLEE_SIZE = 20;
+
+    /**
+     * Methods with more instructions than this are not inlined, in calls that are hot in the profile.
+     */
+    private static final int MAX_HOT_CALLEE_SIZE = 40;
+
+    /**
+     * Methods with more instructions than this don't get any more inlined calls.
+     */
+    private static final int MAX_CALLER_SIZE = 400;
+
+    private final ClassUnit classUnit;
+
+    private final List<Report> reports;
+
+    private final CallGraph callGraph;
+
+    private final Profile profile;
+
+    private int inlineNumber;
+
+    public MethodInliner(ClassUnit classUnit, CallGraph callGraph, Profile profile, List<Report> reports) {
+        this.classUnit = classUnit;
+        this.profile = profile;
+        this.reports = reports;
+        this.callGraph = callGraph;
+        this.inlineNumber = 0;
+    }
+
+    public void apply() {
+        for (final Method method : classUnit.getMethods()) {
+            if (method.isConstructMethod()) {
+                continue;
+            }
+
+            inlineCalls(method);
+        }
+    }
+
+    private void inlineCalls(Method caller) {
+        final List<Instruction> instructions = caller.getInstructions();
+
+        // The inlined body is scanned too, so calls it makes can be inlined in turn
+        for (int i = 0; i < instructions.size() - 1; i++) {
+            if (instructions.size() > MAX_CALLER_SIZE) {
+                return;
+            }
+
+            final Instruction inst = instructions.get(i);
+            final Optional<CallInstruction> call = CallGraph.callOf(inst);
+            if (call.isEmpty()) {
+                continue;
+            }
+
+            final Optional<Method> callee = resolve(caller, call.get());
+            if (callee.isEmpty() || callee.get() == caller || callGraph.isRecursive(callee.get().getMethodName())
+                    || callee.get().getInstructions().size() > calleeBudget(caller, i)) {
+                continue;
+            }
+
+            final Element dest = inst instanceof AssignInstruction assign ? assign.getDest() : null;
+            final Type destType = inst instanceof AssignInstruction assign ? assign.getTypeOfAssign() : null;
+
+            final Optional<List<Instruction>> body = inlinedBody(caller, callee.get(), call.get(), dest, destType,
+                    instructions.get(i + 1));
+            if (body.isEmpty()) {
+                continue;
+            }
+
+            // Jumps to the call now go to the inlined body
+            final Instruction first = body.get().get(0);
+            caller.getLabels().replaceAll((label, target) -> target == inst ? first : target);
+
+            instructions.remove(i);
+            instructions.addAll(i, body.get());
+
+            final String message = String.format("Inlined call to %s in method %s (%d instructions)",
+                    callee.get().getMethodName(), caller.getMethodName(), callee.get().getInstructions().size());
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+
+            // Revisit the first inlined instruction
+            i--;
+        }
+    }
+
+    /**
+     * @return how many instructions a method called by the instruction can have to be inlined
+     */
+    private int calleeBudget(Method caller, int index) {
+        final OptionalLong count = profile.countAt(caller, index);
+        if (count.isEmpty()) {
+            return MAX_CALLEE_SIZE;
+        }
+
+        if (count.getAsLong() == 0) {
+            return 0;
+        }
+
+        return profile.isHot(count.getAsLong()) ? MAX_HOT_CALLEE_SIZE : MAX_CALLEE_SIZE;
+    }
+
+    /**
+     * Builds the instructions that replace the call, and registers their variables and labels in the caller.
+     *
+     * @param next instruction right after the call, where the inlined returns go to
+     * @return the instructions, or empty if the callee contains instructions that can't be copied
+     */
+    private Optional<List<Instruction>> inlinedBody(Method caller, Method callee, CallInstruction call,
+                                                    Element dest, Type destType, Instruction next) {
+        final String prefix = "inl" + inlineNumber + "_";
+
+        final Map<String, String> renamed = new HashMap<>();
+        for (final var entry : callee.getVarTable().entrySet()) {
+            final VarScope scope = entry.getValue().getScope();
+            if (!entry.getKey().equals("this") && (scope == VarScope.LOCAL || scope == VarScope.PARAMETER)) {
+                renamed.put(entry.getKey(), prefix + entry.getKey());
+            }
+        }
+
+        final Map<String, String> labels = new HashMap<>();
+        for (final String label : callee.getLabels().keySet()) {
+            labels.put(label, prefix + label);
+        }
+        final String endLabel = prefix + "end";
+
+        // A call on another object of the class runs the body with that object as 'this'
+        final Operand receiver = call.getInvocationType() == CallType.invokevirtual
+                && call.getCaller() instanceof Operand operand && !operand.getName().equals("this") ? operand : null;
+
+        final var copier = new InstructionCopier(renamed, labels, receiver);
+        final List<Instruction> body = new ArrayList<>();
+        final Map<Instruction, Instruction> firstCopyOf = new HashMap<>();
+        boolean jumpsToEnd = false;
+
+        // Parameters start with the value of the arguments
+        final List<Element> params = callee.getParams();
+        for (int i = 0; i < params.size(); i++) {
+            final Element param = params.get(i);
+            if (!(param instanceof Operand operand) || !renamed.containsKey(operand.getName())) {
+                return Optional.empty();
+            }
+
+            final Element paramCopy = copier.copy(param);
+            body.add(new AssignInstruction(paramCopy, param.getType(), new SingleOpInstruction(call.getArguments().get(i))));
+        }
+
+        final List<Instruction> calleeInstructions = callee.getInstructions();
+        for (int i = 0; i < calleeInstructions.size(); i++) {
+            final Instruction inst = calleeInstructions.get(i);
+            final int start = body.size();
+
+            if (inst instanceof ReturnInstruction returnInst) {
+                if (returnInst.hasReturnValue() && dest != null) {
+                    final var value = new SingleOpInstruction(copier.copy(returnInst.getOperand()));
+                    body.add(new AssignInstruction(dest, destType, value));
+                }
+
+                if (i < calleeInstructions.size() - 1) {
+                    body.add(new GotoInstruction(endLabel));
+                    jumpsToEnd = true;
+                }
+            } else {
+                final Instruction copy = copier.copy(inst);
+                if (copy == null) {
+                    return Optional.empty();
+                }
+
+                body.add(copy);
+            }
+
+            // A return that becomes nothing passes its labels on to the instruction after the call
+            firstCopyOf.put(inst, start < body.size() ? body.get(start) : next);
+        }
+
+        // Calls are always followed by another instruction, so there is a target for the labels
+        if (body.isEmpty()) {
+            return Optional.empty();
+        }
+
+        for (final var entry : callee.getLabels().entrySet()) {
+            caller.getLabels().put(labels.get(entry.getKey()), firstCopyOf.get(entry.getValue()));
+            profile.copyLabel(caller.getMethodName(), labels.get(entry.getKey()), callee.getMethodName(), entry.getKey());
+        }
+
+        if (jumpsToEnd) {
+            caller.getLabels().put(endLabel, next);
+        }
+
+        int nextReg = caller.getVarTable().values().stream().mapToInt(Descriptor::getVirtualReg).max().orElse(0) + 1;
+        for (final var entry : renamed.entrySet()) {
+            final Type type = callee.getVarTable().get(entry.getKey()).getVarType();
+            caller.getVarTable().put(entry.getValue(), new Descriptor(VarScope.LOCAL, nextReg++, type));
+        }
+
+        inlineNumber++;
+        return Optional.of(body);
+    }
+
+    /**
+     * @return the method of this class that the call always reaches, if any
+     */
+    private Optional<Method> resolve(Method caller, CallInstruction call) {
+        // Other objects of the class may be null, unless they were just created
+        final boolean knownReceiver = call.getInvocationType() == CallType.invokestatic
+                || call.getCaller() instanceof Operand receiver && receiver.getName().equals("this")
+                || callGraph.hasExactReceiver(caller, call);
+
+        return knownReceiver ? callGraph.resolveExactly(caller, call) : Optional.empty();
+    }
+}
@@ -4,7 +4,7 @@ import pt.up.fe.comp.jmm.analysis.table.Symbol;
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
-import pt.up.fe.comp.jmm.ast.PreorderJmmVisitor;
+import pt.up.fe.comp.jmm.ast.AJmmVisitor;
 import pt.up.fe.comp.jmm.ollir.OllirUtils;
 import pt.up.fe.comp2024.ast.TypeUtils;
 
@@ -18,12 +18,59 @@ import static pt.up.fe.comp2024.optimization.OllirTokens.*;
 /**
  * Generates OLLIR code from JmmNodes that are expressions.
  */
-public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExprResult> {
+public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult> {
 
     private final SymbolTable table;
 
-    public OllirExprGeneratorVisitor(SymbolTable table) {
+    private final OptUtils.Numbering numbering;
+
+    /**
+     * Variable that the outermost operation of the expression being visited writes to, instead of a new temporary.
+     * It is taken by the first visit that needs one, so nested expressions still use temporaries.
+     */
+    private String destination;
+
+    public OllirExprGeneratorVisitor(SymbolTable table, OptUtils.Numbering numbering) {
         this.table = table;
+        this.numbering = numbering;
+    }
+
+    /**
+     * Generates the expression so that its value ends up in <code>destination</code> when possible:
+     * <pre>
+     * c.i32 :=.i32 a.i32 +.i32 b.i32;
+     * </pre>
+     * instead of going through a temporary:
+     * <pre>
+     * tmp0.i32 :=.i32 a.i32 +.i32 b.i32;
+     * c.i32 :=.i32 tmp0.i32;
+     * </pre>
+     * Expressions that don't compute anything, like literals and variables, leave <code>destination</code> untouched.
+     * The caller checks if the resulting code is already <code>destination</code>, and copies it otherwise.
+     *
+     * @param destination name of a local variable, without type
+     */
+    public OllirExprResult visit(JmmNode node, String destination) {
+        this.destination = destination;
+
+        try {
+            return visit(node);
+        } finally {
+            this.destination = null;
+        }
+    }
+
+    /**
+     * @return the destination of the current expression, if it wasn't taken yet, or a new temporary
+     */
+    private String newTemp(String ollirType) {
+        if (destination == null) {
+            return numbering.getTemp() + ollirType;
+        }
+
+        final String code = destination + ollirType;
+        destination = null;
+        return code;
     }
 
     @Override
@@ -35,6 +82,9 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
         addVisit(IDENTIFIER, this::visitIdentifier);
         addVisit(ID_USE_EXPR, this::visitMethodCallExpr);
         addVisit(NEW_OBJECT, this::visitNewObjectExpr);
+        addVisit(PAREN_EXPR, this::visitParenExpr);
+        addVisit(BOOL_OP, this::visitBoolOp);
+        addVisit(NOT_OP, this::visitNotOp);
 
         setDefaultVisit(this::defaultVisit);
     }
@@ -49,10 +99,182 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
     private OllirExprResult visitBool(JmmNode node, Void unused) {
         var boolType = new Type(TypeUtils.BOOL_TYPE_NAME, false);
         String ollirBoolType = OptUtils.toOllirType(boolType);
-        String code = node.get("value") + ollirBoolType;
+        // OLLIR has no boolean literals, true and false are 1 and 0
+        final String value = node.get("value").equals("true") ? "1" : "0";
+        String code = value + ollirBoolType;
         return new OllirExprResult(code);
     }
 
+    private OllirExprResult visitParenExpr(JmmNode node, Void unused) {
+        return visit(node.getChild(0));
+    }
+
+    /**
+     * Generates a conditional jump to <code>label</code>, taken when <code>node</code> evaluates to
+     * <code>jumpIfTrue</code>. Otherwise, execution falls through to the next instruction.
+     * <p>
+     * A comparison feeds the branch directly, without saving its result in a temporary:
+     * <pre>
+     * if (i.i32 >=.bool n.i32) goto whileEnd0;
+     * </pre>
+     * <code>&&</code> and <code>||</code> become a chain of jumps, so the right operand is only evaluated when it
+     * decides the result. <code>!</code> just flips the polarity of the jump.
+     * <p>
+     * Any other boolean expression is computed first, and then tested:
+     * <pre>
+     * if (!.bool tmp0.bool) goto whileEnd0;
+     * </pre>
+     *
+     * @return OLLIR code that computes the condition and ends with the conditional jump
+     */
+    public String visitCondition(JmmNode node, String label, boolean jumpIfTrue) {
+        final StringBuilder code = new StringBuilder();
+
+        if (PAREN_EXPR.check(node)) {
+            return visitCondition(node.getChild(0), label, jumpIfTrue);
+        }
+
+        if (NOT_OP.check(node)) {
+            return visitCondition(node.getChild(0), label, !jumpIfTrue);
+        }
+
+        if (BOOL_OP.check(node)) {
+            // a && b jumps when both hold, and a || b jumps when any holds.
+            // When the left operand alone decides the result, the right one is skipped.
+            final boolean isAnd = node.get("op").equals("&&");
+            final JmmNode lhs = node.getChild(0);
+            final JmmNode rhs = node.getChild(1);
+
+            if (isAnd != jumpIfTrue) {
+                // a || b jumping if true, or a && b jumping if false: either operand alone takes the jump
+                code.append(visitCondition(lhs, label, jumpIfTrue));
+                code.append(visitCondition(rhs, label, jumpIfTrue));
+                return code.toString();
+            }
+
+            // a && b jumping if true, or a || b jumping if false: the left operand can only skip the jump
+            final String skipLabel = "boolSkip" + numbering.getNextLabelNum();
+            code.append(visitCondition(lhs, skipLabel, !jumpIfTrue));
+            code.append(visitCondition(rhs, label, jumpIfTrue));
+            code.append(skipLabel).append(":").append(NL);
+            return code.toString();
+        }
+
+        if (BINARY_EXPR.check(node) && isComparison(node.get("op"))) {
+            final var lhs = visit(node.getChild(0));
+            final var rhs = visit(node.getChild(1));
+            final String op = jumpIfTrue ? node.get("op") : negateComparison(node.get("op"));
+
+            code.append(lhs.getComputation());
+            code.append(rhs.getComputation());
+            code.append("if (");
+            code.append(lhs.getCode()).append(SPACE);                       // i.i32
+            code.append(op).append(".bool").append(SPACE);                  // >=.bool
+            code.append(rhs.getCode());                                     // n.i32
+            code.append(") goto ").append(label).append(END_STMT);          // ) goto whileEnd0;
+
+            return code.toString();
+        }
+
+        final var cond = visit(node);
+        code.append(cond.getComputation());
+        code.append("if (");
+        if (!jumpIfTrue) {
+            code.append("!.bool").append(SPACE);
+        }
+        code.append(cond.getCode());
+        code.append(") goto ").append(label).append(END_STMT);
+
+        return code.toString();
+    }
+
+    private OllirExprResult visitBoolOp(JmmNode node, Void unused) {
+        /* Let's say we're visiting:
+
+            c = a && b;
+
+           The value is computed with the same jumps as a condition, so b is only evaluated if a holds:
+
+            if (!.bool a.bool) goto boolFalse0;
+            if (!.bool b.bool) goto boolFalse0;
+            tmp0.bool :=.bool 1.bool;
+            goto boolEnd0;
+            boolFalse0:
+            tmp0.bool :=.bool 0.bool;
+            boolEnd0:
+        */
+
+        final String ollirType = OptUtils.toOllirType(TypeUtils.getExprType(node, table));
+        final int labelNum = numbering.getNextLabelNum();
+        final String falseLabel = "boolFalse" + labelNum;
+        final String endLabel = "boolEnd" + labelNum;
+
+        final StringBuilder computation = new StringBuilder();
+        final String code = newTemp(ollirType);
+
+        computation.append(visitCondition(node, falseLabel, false));
+        computation.append(code).append(SPACE).append(ASSIGN).append(ollirType).append(SPACE)
+                .append("1").append(ollirType).append(END_STMT);
+        computation.append("goto ").append(endLabel).append(END_STMT);
+        computation.append(falseLabel).append(":").append(NL);
+        computation.append(code).append(SPACE).append(ASSIGN).append(ollirType).append(SPACE)
+                .append("0").append(ollirType).append(END_STMT);
+        computation.append(endLabel).append(":").append(NL);
+
+        return new OllirExprResult(code, computation);
+    }
+
+    private OllirExprResult visitNotOp(JmmNode node, Void unused) {
+        JmmNode operand = node.getChild(0);
+        while (PAREN_EXPR.check(operand)) {
+            operand = operand.getChild(0);
+        }
+
+        // !!a is just a
+        if (NOT_OP.check(operand)) {
+            return visit(operand.getChild(0));
+        }
+
+        final String ollirType = OptUtils.toOllirType(TypeUtils.getExprType(node, table));
+        final StringBuilder computation = new StringBuilder();
+        final String code = newTemp(ollirType);
+
+        // !(a < b) is computed as a >= b, instead of negating the result of the comparison
+        if (BINARY_EXPR.check(operand) && isComparison(operand.get("op"))) {
+            final var lhs = visit(operand.getChild(0));
+            final var rhs = visit(operand.getChild(1));
+
+            computation.append(lhs.getComputation());
+            computation.append(rhs.getComputation());
+            computation.append(code).append(SPACE).append(ASSIGN).append(ollirType).append(SPACE);   // tmp0.bool :=.bool
+            computation.append(lhs.getCode()).append(SPACE);                                        // a.i32
+            computation.append(negateComparison(operand.get("op"))).append(ollirType).append(SPACE); // >=.bool
+            computation.append(rhs.getCode()).append(END_STMT);                                     // b.i32;
+
+            return new OllirExprResult(code, computation);
+        }
+
+        final var operandResult = visit(operand);
+        computation.append(operandResult.getComputation());
+        computation.append(code).append(SPACE).append(ASSIGN).append(ollirType).append(SPACE);       // tmp0.bool :=.bool
+        computation.append("!").append(ollirType).append(SPACE).append(operandResult.getCode());    // !.bool a.bool
+        computation.append(END_STMT);
+
+        return new OllirExprResult(code, computation);
+    }
+
+    private static boolean isComparison(String op) {
+        return op.equals("<") || op.equals(">");
+    }
+
+    private static String negateComparison(String op) {
+        return switch (op) {
+            case "<" -> ">=";
+            case ">" -> "<=";
+            default -> throw new IllegalArgumentException("Not a comparison operator: '" + op + "'");
+        };
+    }
+
     private OllirExprResult visitBinExpr(JmmNode node, Void unused) {
         /* Let's say we're visiting:
 
@@ -62,24 +284,28 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
             c = a + b;
         */
 
+        // c.i32 := .i32 a.i32 + .i32 b.i32;
+        //
+        // When the expression isn't assigned, its value goes to a temporary:
         // tmp0.i32 := .i32 a.i32 + .i32 b.i32;
-        // c.int32 := .i32 tmp0.32;
 
 
         final Type exprType = TypeUtils.getExprType(node, table);
         final String exprOllirType = OptUtils.toOllirType(exprType);
 
+        // The destination belongs to this operation, not to its operands
+        final String code = newTemp(exprOllirType);                                   // c.i32
+
         final var lhs = visit(node.getChild(0));
         final var rhs = visit(node.getChild(1));
 
         final StringBuilder computation = new StringBuilder();
-        final String code = OptUtils.getTemp() + exprOllirType;                       // tmp0.i32
 
         // code to compute the children
         computation.append(lhs.getComputation());
         computation.append(rhs.getComputation());
 
-        computation.append(code);                                                     // tmp0.i32
+        computation.append(code);                                                     // c.i32
         computation.append(SPACE).append(ASSIGN).append(SPACE);                       // :=
         computation.append(exprOllirType).append(SPACE).append(lhs.getCode());        // .i32 a.i32
         computation.append(SPACE).append(node.get("op")).append(SPACE);                // +
@@ -113,15 +339,14 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
             // Example:
             // t1.i32 := .i32 getfield(this.Structure_fields, a.i32).i32;
 
-            final var tmp = OptUtils.getTemp();                                     // t1
-            computation.append(tmp).append(ollirType);                              // t1.i32
+            final String code = newTemp(ollirType);                                 // t1.i32
+            computation.append(code);                                               // t1.i32
             computation.append(SPACE).append(ASSIGN).append(SPACE);                 // :=
             computation.append(ollirType).append(SPACE).append("getfield(");        // .i32 getfield(
             computation.append("this.").append(className).append(", ");             // this.Structure_fields
             computation.append(id).append(ollirType).append(")").append(ollirType); // a.i32).i32;
             computation.append(END_STMT);
 
-            final String code = tmp + ollirType;
             return new OllirExprResult(code, computation);
         }
 
@@ -152,6 +377,10 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
         //   * the receiver, a.k.a the object that the method is called on: obj.foo(bar)
         //  * VarRefExpr ("this"), in case it is a virtual method
         final JmmNode firstChild = node.getChild(0);
+
+        // Void calls have no value to assign
+        final String code = ollirType.equals(".V") ? "" : newTemp(ollirType);
+
         final String invocationCode = switch (firstChild.getKind()) {
             case "Identifier" -> {
                 final String id = firstChild.get("id");
@@ -200,9 +429,6 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
         // First line is computation.
         // Second line is code.
 
-
-        final String code = OptUtils.getTemp() + ollirType;
-
         final StringBuilder computation = new StringBuilder();
         computation.append(subcomputations);
 
@@ -232,7 +458,7 @@ public class OllirExprGeneratorVisitor extends PreorderJmmVisitor<Void, OllirExp
         final String ollirType = "." + type;
 
         final StringBuilder computation = new StringBuilder();
-        final String code = OptUtils.getTemp() + ollirType;     // tmp2.Simple
+        final String code = newTemp(ollirType);                 // tmp2.Simple
 
         computation.append(code)                                                          // tmp2.Simple
                 .append(SPACE).append(ASSIGN).append(SPACE)                               // :=
@@ -9,6 +9,7 @@ import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.comp2024.ast.TypeUtils;
 
 import java.util.List;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static pt.up.fe.comp2024.ast.Kind.*;
@@ -21,11 +22,24 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
 
     private final SymbolTable table;
 
+    private final OptUtils.Numbering numbering;
+
     private final OllirExprGeneratorVisitor exprVisitor;
 
+    /**
+     * Methods of the class to generate, the others are left out
+     */
+    private final Predicate<JmmNode> methodFilter;
+
     public OllirGeneratorVisitor(SymbolTable table) {
+        this(table, method -> true);
+    }
+
+    public OllirGeneratorVisitor(SymbolTable table, Predicate<JmmNode> methodFilter) {
         this.table = table;
-        exprVisitor = new OllirExprGeneratorVisitor(table);
+        this.numbering = new OptUtils.Numbering();
+        this.methodFilter = methodFilter;
+        exprVisitor = new OllirExprGeneratorVisitor(table, numbering);
     }
 
     @Override
@@ -38,6 +52,9 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         addVisit(RETURN_STMT, this::visitReturn);
         addVisit(ASSIGN_STMT, this::visitAssignStmt);
         addVisit(EXPRESSION_STMT, this::visitExpression);
+        addVisit(CURLY_STMT, this::visitCurlyStmt);
+        addVisit(IF_ELSE_STMT, this::visitIfElseStmt);
+        addVisit(WHILE_STMT, this::visitWhileStmt);
 
         setDefaultVisit(this::defaultVisit);
     }
@@ -49,10 +66,80 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         return exprResult.getComputation();
     }
 
+    private String visitCurlyStmt(JmmNode node, Void unused) {
+        return node.getChildrenStream()
+                .map(this::visit)
+                .collect(Collectors.joining());
+    }
+
+    private String visitIfElseStmt(JmmNode node, Void unused) {
+        /* Let's say we're visiting:
+
+            if (a < b) { x = 1; } else { x = 2; }
+
+           The else branch is placed right after the test, so only the then branch needs a label:
+
+            if (a.i32 <.bool b.i32) goto ifThen0;
+            x.i32 :=.i32 2.i32;
+            goto ifEnd0;
+            ifThen0:
+            x.i32 :=.i32 1.i32;
+            ifEnd0:
+        */
+
+        final JmmNode ifNode = node.getChild(0);
+        final JmmNode elseNode = node.getChild(1);
+        IF_STATMENT.checkOrThrow(ifNode);
+        ELSE_STATMENT.checkOrThrow(elseNode);
+
+        final int labelNum = numbering.getNextLabelNum();
+        final String thenLabel = "ifThen" + labelNum;
+        final String endLabel = "ifEnd" + labelNum;
+
+        StringBuilder code = new StringBuilder();
+
+        code.append(exprVisitor.visitCondition(ifNode.getChild(0), thenLabel, true));
+        code.append(visit(elseNode.getChild(0)));
+        code.append("goto ").append(endLabel).append(END_STMT);
+        code.append(thenLabel).append(":").append(NL);
+        code.append(visit(ifNode.getChild(1)));
+        code.append(endLabel).append(":").append(NL);
+
+        return code.toString();
+    }
+
+    private String visitWhileStmt(JmmNode node, Void unused) {
+        /* Let's say we're visiting:
+
+            while (i < n) { i = i + 1; }
+
+           The condition is negated, so the loop is left as soon as it doesn't hold:
+
+            whileCond0:
+            if (i.i32 >=.bool n.i32) goto whileEnd0;
+            i.i32 :=.i32 i.i32 +.i32 1.i32;
+            goto whileCond0;
+            whileEnd0:
+        */
+
+        final int labelNum = numbering.getNextLabelNum();
+        final String condLabel = "whileCond" + labelNum;
+        final String endLabel = "whileEnd" + labelNum;
+
+        StringBuilder code = new StringBuilder();
+
+        code.append(condLabel).append(":").append(NL);
+        code.append(exprVisitor.visitCondition(node.getChild(0), endLabel, false));
+        code.append(visit(node.getChild(1)));
+        code.append("goto ").append(condLabel).append(END_STMT);
+        code.append(endLabel).append(":").append(NL);
+
+        return code.toString();
+    }
+
     private String visitAssignStmt(JmmNode node, Void unused) {
         final String variableName = node.get("id");
         final JmmNode expressionNode = node.getChild(0);
-        final OllirExprResult rhsExprResult = exprVisitor.visit(expressionNode);
         final boolean insideStaticMethod = node.getAncestor(METHOD_DECL)
                 .map(method -> method.get("isStatic"))
                 .map(Boolean::parseBoolean)
@@ -68,6 +155,9 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
                 continue;
             }
 
+            // Fields can only be written by putfield, so the value is computed first
+            final OllirExprResult rhsExprResult = exprVisitor.visit(expressionNode);
+
             // Example code we want to generate:
             //  putfield(this, intField.i32, x.i32).V;
             // Example computation we want to generate:
@@ -91,18 +181,26 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         }
 
 
+        // The outermost operation of the expression writes straight to the variable:
+        //  c.i32 :=.i32 a.i32 +.i32 b.i32;
+        final OllirExprResult rhsExprResult = exprVisitor.visit(expressionNode, variableName);
+
         // OllirExprResult.code references temporaries from OllirExprResult.computation, so
         // computation must be executed first.
-        code.append(rhsExprResult.getComputation());                          // tmp0.i32 :=.i32 a.i32 +.i32 b.i32;
+        code.append(rhsExprResult.getComputation());
 
         // The statement has the same type as the type of variableName.
         final Type type = TypeUtils.getExprType(expressionNode, table);
         final String ollirType = OptUtils.toOllirType(type);
 
-        // For example: c.i32 := .i32 tmp0.i32;
+        if (rhsExprResult.getCode().equals(variableName + ollirType)) {
+            return code.toString();
+        }
+
+        // Literals and variables are still copied, for example: c.i32 := .i32 a.i32;
         code.append(variableName).append(ollirType).append(SPACE);            // c.i32
         code.append(ASSIGN);                                                  // :=
-        code.append(ollirType).append(SPACE).append(rhsExprResult.getCode()); // .i32 tmp0.i32
+        code.append(ollirType).append(SPACE).append(rhsExprResult.getCode()); // .i32 a.i32
 
         code.append(END_STMT);
 
@@ -216,10 +314,25 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         code.append(NL);
         var needNl = true;
 
+        // Methods only read the symbol table and their own nodes, so each one is generated by a visitor of its own
+        // on the fork-join pool, and the code is put back in source order
+        final List<String> methodCodes = node.getChildrenStream()
+                .filter(child -> child.isInstance(METHOD_DECL))
+                .filter(methodFilter)
+                .toList()
+                .parallelStream()
+                .map(method -> new OllirGeneratorVisitor(table).visit(method))
+                .toList();
+        var nextMethod = 0;
+
         for (var child : node.getChildren()) {
-            var result = visit(child);
+            if (child.isInstance(METHOD_DECL) && !methodFilter.test(child)) {
+                continue;
+            }
+
+            var result = child.isInstance(METHOD_DECL) ? methodCodes.get(nextMethod++) : visit(child);
 
-            if (METHOD_DECL.check(child) && needNl) {
+            if (child.isInstance(METHOD_DECL) && needNl) {
                 code.append(NL);
                 needNl = false;
             }
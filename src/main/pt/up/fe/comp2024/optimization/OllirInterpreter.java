@@ -0,0 +1,205 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Runs methods of the class at compile time, on integer and boolean values.
+ * <p>
+ * Only the instructions of pure code are supported: arithmetic, comparisons, jumps, returns and calls to other
+ * methods of the class. Evaluation gives up on anything else, like fields, objects or imported classes, and when
+ * it runs out of steps or calls nest too deep, so a loop that never ends can't stall the compiler.
+ * <p>
+ * Booleans are 0 and 1, like in the JVM.
+ */
+public class OllirInterpreter {
+
+    /**
+     * Instructions that can run, in total, for one evaluation.
+     */
+    public static final int MAX_STEPS = 10_000;
+
+    /**
+     * Calls that can be nested, which also bounds how deep a recursive method can go.
+     */
+    public static final int MAX_DEPTH = 32;
+
+    /**
+     * Thrown when evaluation gives up, and caught by {@link #evaluate(Method, List, boolean)}.
+     */
+    private static class CannotEvaluate extends RuntimeException {
+        CannotEvaluate(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    private final CallGraph callGraph;
+
+    private int steps;
+
+    private boolean exactThis;
+
+    public OllirInterpreter(CallGraph callGraph) {
+        this.callGraph = callGraph;
+    }
+
+    /**
+     * Pure methods create no objects, so every call they make is static or on <code>this</code>, the same object the
+     * method was called on.
+     *
+     * @param exactThis if the method is called on an object created as this class, so calls on <code>this</code>
+     *                  can't reach the override of a subclass
+     * @return the value returned by the method when called with <code>arguments</code>, or empty if it can't be
+     * computed within the budget
+     */
+    public Optional<Integer> evaluate(Method method, List<Integer> arguments, boolean exactThis) {
+        steps = 0;
+        this.exactThis = exactThis;
+
+        try {
+            return Optional.of(run(method, arguments, 0));
+        } catch (CannotEvaluate e) {
+            return Optional.empty();
+        }
+    }
+
+    private int run(Method method, List<Integer> arguments, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new CannotEvaluate("calls nested too deep");
+        }
+
+        final Map<String, Integer> variables = new HashMap<>();
+        final List<Element> params = method.getParams();
+        for (int i = 0; i < params.size(); i++) {
+            variables.put(((Operand) params.get(i)).getName(), arguments.get(i));
+        }
+
+        final List<Instruction> instructions = method.getInstructions();
+        int pc = 0;
+
+        while (pc < instructions.size()) {
+            if (++steps > MAX_STEPS) {
+                throw new CannotEvaluate("too many steps");
+            }
+
+            final Instruction inst = instructions.get(pc);
+
+            if (inst instanceof ReturnInstruction returnInst) {
+                if (!returnInst.hasReturnValue()) {
+                    throw new CannotEvaluate("no value returned");
+                }
+
+                return value(returnInst.getOperand(), variables);
+            }
+
+            if (inst instanceof GotoInstruction jump) {
+                pc = target(method, jump.getLabel());
+                continue;
+            }
+
+            if (inst instanceof CondBranchInstruction branch) {
+                final Instruction condition = branch instanceof OpCondInstruction opCond
+                        ? opCond.getCondition()
+                        : ((SingleOpCondInstruction) branch).getCondition();
+
+                pc = compute(method, condition, variables, depth) != 0 ? target(method, branch.getLabel()) : pc + 1;
+                continue;
+            }
+
+            if (inst instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest
+                    && !(dest instanceof ArrayOperand)) {
+                variables.put(dest.getName(), compute(method, assign.getRhs(), variables, depth));
+                pc++;
+                continue;
+            }
+
+            throw new CannotEvaluate("unsupported instruction " + inst.getInstType());
+        }
+
+        throw new CannotEvaluate("no return");
+    }
+
+    private int compute(Method method, Instruction inst, Map<String, Integer> variables, int depth) {
+        if (inst instanceof SingleOpInstruction singleOp) {
+            return value(singleOp.getSingleOperand(), variables);
+        }
+
+        if (inst instanceof UnaryOpInstruction unaryOp && unaryOp.getOperation().getOpType() == OperationType.NOTB) {
+            return value(unaryOp.getOperand(), variables) == 0 ? 1 : 0;
+        }
+
+        if (inst instanceof BinaryOpInstruction binaryOp) {
+            final int left = value(binaryOp.getLeftOperand(), variables);
+            final int right = value(binaryOp.getRightOperand(), variables);
+
+            return switch (binaryOp.getOperation().getOpType()) {
+                case ADD -> left + right;
+                case SUB -> left - right;
+                case MUL -> left * right;
+                case DIV -> {
+                    // Left to throw at runtime
+                    if (right == 0) {
+                        throw new CannotEvaluate("division by zero");
+                    }
+                    yield left / right;
+                }
+                case SHL -> left << right;
+                case SHR -> left >> right;
+                case SHRR -> left >>> right;
+                case AND, ANDB -> left & right;
+                case OR, ORB -> left | right;
+                case XOR -> left ^ right;
+                case LTH -> left < right ? 1 : 0;
+                case GTH -> left > right ? 1 : 0;
+                case LTE -> left <= right ? 1 : 0;
+                case GTE -> left >= right ? 1 : 0;
+                case EQ -> left == right ? 1 : 0;
+                case NEQ -> left != right ? 1 : 0;
+                default -> throw new CannotEvaluate("unsupported operation " + binaryOp.getOperation().getOpType());
+            };
+        }
+
+        if (inst instanceof CallInstruction call) {
+            final Optional<Method> resolved = exactThis ? callGraph.resolve(call) : callGraph.resolveExactly(method, call);
+            final Method callee = resolved
+                    .filter(target -> callGraph.get(target.getMethodName()).isPure())
+                    .orElseThrow(() -> new CannotEvaluate("call to a method that isn't pure"));
+
+            final List<Integer> arguments = new ArrayList<>();
+            for (final Element argument : call.getArguments()) {
+                arguments.add(value(argument, variables));
+            }
+
+            return run(callee, arguments, depth + 1);
+        }
+
+        throw new CannotEvaluate("unsupported instruction " + inst.getInstType());
+    }
+
+    private static int value(Element element, Map<String, Integer> variables) {
+        if (element instanceof LiteralElement literal) {
+            try {
+                return Integer.parseInt(literal.getLiteral());
+            } catch (NumberFormatException e) {
+                throw new CannotEvaluate("unsupported literal " + literal.getLiteral());
+            }
+        }
+
+        if (element instanceof Operand operand && !(operand instanceof ArrayOperand)
+                && variables.containsKey(operand.getName())) {
+            return variables.get(operand.getName());
+        }
+
+        throw new CannotEvaluate("unknown value " + element);
+    }
+
+    private static int target(Method method, String label) {
+        final int index = method.getInstructions().indexOf(method.getLabels().get(label));
+        if (index < 0) {
+            throw new CannotEvaluate("unknown label " + label);
+        }
+
+        return index;
+    }
+}
@@ -7,19 +7,39 @@ import static pt.up.fe.comp2024.ast.Kind.TYPE;
 
 public class OptUtils {
 
-    private static int tempNumber = -1;
+    /**
+     * Numbers of the temporaries and labels of one method.
+     * <p>
+     * Every method starts from 0, so its names don't depend on the methods generated before it, and methods can be
+     * generated in any order, or at the same time, with the same result.
+     */
+    public static class Numbering {
 
-    public static String getTemp() {
-        return getTemp("tmp");
-    }
+        private int tempNumber = -1;
 
-    public static String getTemp(String prefix) {
-        return prefix + getNextTempNum();
-    }
+        private int labelNumber = -1;
+
+        public String getTemp() {
+            return getTemp("tmp");
+        }
+
+        public String getTemp(String prefix) {
+            return prefix + getNextTempNum();
+        }
+
+        public int getNextTempNum() {
+            tempNumber += 1;
+            return tempNumber;
+        }
 
-    public static int getNextTempNum() {
-        tempNumber += 1;
-        return tempNumber;
+        /**
+         * Returns a number shared by all labels of one control-flow construct,
+         * e.g. whileCond0 and whileEnd0.
+         */
+        public int getNextLabelNum() {
+            labelNumber += 1;
+            return labelNumber;
+        }
     }
 
     public static String toOllirType(JmmNode typeNode) {
@@ -0,0 +1,155 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Method;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * How many times each method and each label of the class ran, as recorded by a program compiled with
+ * <code>-instrument</code> and read back with <code>-profile</code>.
+ * <p>
+ * The profile is a text file with a count per line, keyed by the method, or the method and a label:
+ * <pre>
+ * main 1
+ * sum 1
+ * sum:whileCond0 11
+ * sum:ifThen1 4
+ * </pre>
+ * Labels are the ones the OLLIR generator gives, so the counts describe the code before it is optimized.
+ * Optimizations that copy labelled code into another method under new labels, like the <code>inlN_</code> labels of
+ * {@link MethodInliner}, record the copies with {@link #copyLabel}, so the new labels get the counts of the
+ * originals. Other code that is copied or renamed has no counts.
+ */
+public class Profile {
+
+    /**
+     * Counts at least this fraction of the largest count in the profile are hot.
+     */
+    private static final double HOT_FRACTION = 0.1;
+
+    private final Map<String, Long> counts;
+
+    private final long maxCount;
+
+    /**
+     * Keys of labels that are copies, with the key of the label they were copied from.
+     */
+    private final Map<String, String> copies;
+
+    private Profile(Map<String, Long> counts) {
+        this.counts = counts;
+        this.copies = new HashMap<>();
+        this.maxCount = counts.values().stream().mapToLong(Long::longValue).max().orElse(0);
+    }
+
+    /**
+     * @return a profile without counts, so nothing is hot or cold
+     */
+    public static Profile empty() {
+        return new Profile(Map.of());
+    }
+
+    public static Profile read(File file) {
+        final Map<String, Long> counts = new HashMap<>();
+
+        try {
+            for (final String line : Files.readAllLines(file.toPath())) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                final String[] parts = line.trim().split("\\s+");
+                if (parts.length != 2) {
+                    throw new RuntimeException("Malformed line in profile '" + file + "': " + line);
+                }
+
+                counts.merge(parts[0], Long.parseLong(parts[1]), Long::sum);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read profile '" + file + "'", e);
+        }
+
+        return new Profile(counts);
+    }
+
+    public static String key(String methodName) {
+        return methodName;
+    }
+
+    public static String key(String methodName, String label) {
+        return methodName + ":" + label;
+    }
+
+    public boolean isEmpty() {
+        return counts.isEmpty();
+    }
+
+    /**
+     * Records that a label of a method is a copy of a label of another method, so it gets the same count. The count
+     * is the one of the original, e.g. every call of an inlined method, not only the calls from this method.
+     */
+    public void copyLabel(String methodName, String label, String originalMethodName, String originalLabel) {
+        final String original = key(originalMethodName, originalLabel);
+        copies.put(key(methodName, label), copies.getOrDefault(original, original));
+    }
+
+    /**
+     * @return how many times the method was called, if it was profiled
+     */
+    public OptionalLong count(String methodName) {
+        return lookup(key(methodName));
+    }
+
+    /**
+     * @return how many times control reached the label, if it was profiled
+     */
+    public OptionalLong count(String methodName, String label) {
+        return lookup(key(methodName, label));
+    }
+
+    /**
+     * Approximates how many times an instruction ran with the count of the closest profiled label before it, or
+     * of the method if there is none.
+     *
+     * @return the count, or empty if the method wasn't profiled
+     */
+    public OptionalLong countAt(Method method, int index) {
+        if (count(method.getMethodName()).isEmpty()) {
+            return OptionalLong.empty();
+        }
+
+        final List<Instruction> instructions = method.getInstructions();
+        for (int i = Math.min(index, instructions.size() - 1); i >= 0; i--) {
+            final Instruction inst = instructions.get(i);
+
+            for (final var entry : method.getLabels().entrySet()) {
+                final String key = original(key(method.getMethodName(), entry.getKey()));
+                if (entry.getValue() == inst && counts.containsKey(key)) {
+                    return count(method.getMethodName(), entry.getKey());
+                }
+            }
+        }
+
+        return count(method.getMethodName());
+    }
+
+    /**
+     * @return true if the count is among the largest of the profile
+     */
+    public boolean isHot(long count) {
+        return count > 0 && count >= maxCount * HOT_FRACTION;
+    }
+
+    private String original(String key) {
+        return copies.getOrDefault(key, key);
+    }
+
+    private OptionalLong lookup(String key) {
+        final Long count = counts.get(original(key));
+        return count == null ? OptionalLong.empty() : OptionalLong.of(count);
+    }
+}
@@ -0,0 +1,138 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Places the branch of an if that ran more often, according to the {@link Profile}, right after the test.
+ * <p>
+ * The OLLIR generator places the else branch after the test, so the then branch always takes a jump:
+ * <pre>
+ * if (a.i32 <.bool b.i32) goto ifThen0;
+ * else
+ * goto ifEnd0;
+ * ifThen0:
+ * then
+ * ifEnd0:
+ * </pre>
+ * When the then branch ran more often, the test is negated and the branches swap places:
+ * <pre>
+ * if (a.i32 >=.bool b.i32) goto ifThen0_else;
+ * then
+ * goto ifEnd0;
+ * ifThen0_else:
+ * else
+ * ifEnd0:
+ * </pre>
+ * Every other jump goes to a label, and labels stay with their instructions, so only the fall-through edges change.
+ * Only tests that are a single comparison can be negated.
+ */
+public class ProfileGuidedLayout {
+
+    private final Profile profile;
+
+    private final List<Report> reports;
+
+    public ProfileGuidedLayout(Profile profile, List<Report> reports) {
+        this.profile = profile;
+        this.reports = reports;
+    }
+
+    public void apply(Method method) {
+        final List<Instruction> instructions = method.getInstructions();
+
+        for (int test = 0; test < instructions.size(); test++) {
+            if (!(instructions.get(test) instanceof OpCondInstruction branch)
+                    || !(branch.getCondition() instanceof BinaryOpInstruction condition)
+                    || !isComparison(condition.getOperation().getOpType())) {
+                continue;
+            }
+
+            final String thenLabel = branch.getLabel();
+            final int thenStart = instructions.indexOf(method.getLabels().get(thenLabel));
+            if (thenStart <= test + 1 || !(instructions.get(thenStart - 1) instanceof GotoInstruction skipThen)) {
+                continue;
+            }
+
+            final String endLabel = skipThen.getLabel();
+            final int end = instructions.indexOf(method.getLabels().get(endLabel));
+            if (end <= thenStart) {
+                continue;
+            }
+
+            final OptionalLong thenCount = profile.count(method.getMethodName(), thenLabel);
+            final OptionalLong endCount = profile.count(method.getMethodName(), endLabel);
+            if (thenCount.isEmpty() || endCount.isEmpty()) {
+                continue;
+            }
+
+            final long elseCount = endCount.getAsLong() - thenCount.getAsLong();
+            if (thenCount.getAsLong() <= elseCount) {
+                continue;
+            }
+
+            swap(method, test, thenStart, end, branch, condition, thenLabel, endLabel);
+
+            final String message = String.format("Placed branch %s of method %s after its test, it ran %d times " +
+                    "against %d", thenLabel, method.getMethodName(), thenCount.getAsLong(), elseCount);
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+        }
+    }
+
+    private static void swap(Method method, int test, int thenStart, int end, OpCondInstruction branch,
+                             BinaryOpInstruction condition, String thenLabel, String endLabel) {
+        final List<Instruction> instructions = method.getInstructions();
+        final List<Instruction> elseBlock = new ArrayList<>(instructions.subList(test + 1, thenStart - 1));
+        final Instruction skipThen = instructions.get(thenStart - 1);
+        final List<Instruction> thenBlock = new ArrayList<>(instructions.subList(thenStart, end));
+
+        // An empty else branch goes straight to the end
+        String elseLabel = endLabel;
+        if (!elseBlock.isEmpty()) {
+            elseLabel = thenLabel + "_else";
+            for (int n = 1; method.getLabels().containsKey(elseLabel); n++) {
+                elseLabel = thenLabel + "_else" + n;
+            }
+
+            method.getLabels().put(elseLabel, elseBlock.get(0));
+        }
+
+        final Operation operation = condition.getOperation();
+        final var negated = new Operation(negateComparison(operation.getOpType()), operation.getTypeInfo());
+        final var negatedBranch = new OpCondInstruction(
+                new BinaryOpInstruction(condition.getLeftOperand(), negated, condition.getRightOperand()));
+        negatedBranch.setLabel(elseLabel);
+        method.getLabels().replaceAll((label, target) -> target == branch ? negatedBranch : target);
+
+        final List<Instruction> swapped = new ArrayList<>();
+        swapped.add(negatedBranch);
+        swapped.addAll(thenBlock);
+        swapped.add(skipThen);
+        swapped.addAll(elseBlock);
+
+        instructions.subList(test, end).clear();
+        instructions.addAll(test, swapped);
+    }
+
+    private static boolean isComparison(OperationType opType) {
+        return switch (opType) {
+            case LTH, GTH, LTE, GTE, EQ, NEQ -> true;
+            default -> false;
+        };
+    }
+
+    private static OperationType negateComparison(OperationType opType) {
+        return switch (opType) {
+            case LTH -> OperationType.GTE;
+            case GTE -> OperationType.LTH;
+            case GTH -> OperationType.LTE;
+            case LTE -> OperationType.GTH;
+            case EQ -> OperationType.NEQ;
+            case NEQ -> OperationType.EQ;
+            default -> throw new IllegalArgumentException("Not a comparison: " + opType);
+        };
+    }
+}
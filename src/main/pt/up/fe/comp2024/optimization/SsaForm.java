@@ -0,0 +1,492 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Static single assignment form of the int and boolean variables of a method, built on the control flow graph
+ * from {@link Method#buildCFG()}.
+ * <p>
+ * Each instruction is a node of the graph. Phi nodes are placed on the dominance frontiers of the definitions of
+ * each variable, and renaming gives every definition, phi and initial value its own {@link Value}, so each read
+ * of a variable is linked to the single value that reaches it.
+ * <p>
+ * OLLIR has no phi instruction, so the form is kept next to the instructions instead of replacing their variables:
+ * leaving SSA maps every value back to its variable, which coalesces every copy a phi would need. Passes built on
+ * it must keep that valid, by only replacing reads with constants or removing code, so two values of a variable
+ * are never live at the same time.
+ */
+public class SsaForm {
+
+    /**
+     * A value of a variable, defined by an assignment, by a phi, or on entry to the method.
+     */
+    public static final class Value {
+
+        private final int id;
+
+        private final String variable;
+
+        private final int node;
+
+        private final boolean phi;
+
+        private Value(int id, String variable, int node, boolean phi) {
+            this.id = id;
+            this.variable = variable;
+            this.node = node;
+            this.phi = phi;
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+
+        /**
+         * @return the node that defines the value, or {@link #entry()} for the value on entry
+         */
+        public int getNode() {
+            return node;
+        }
+
+        public boolean isPhi() {
+            return phi;
+        }
+
+        @Override
+        public String toString() {
+            return variable + "_" + id;
+        }
+    }
+
+    /**
+     * @param result    value defined by the phi
+     * @param node      node at whose start the phi is
+     * @param operands  value coming from each predecessor
+     */
+    public record Phi(Value result, int node, Map<Integer, Value> operands) {
+    }
+
+    private final Method method;
+
+    private final List<Instruction> instructions;
+
+    /**
+     * Index of the virtual node that enters the method, where the parameters get their values.
+     */
+    private final int entry;
+
+    private final List<Set<Integer>> successors;
+
+    private final List<Set<Integer>> predecessors;
+
+    private final int[] idom;
+
+    private final List<Set<Integer>> frontiers;
+
+    private final Set<String> variables;
+
+    private final List<Value> values;
+
+    private final Map<Integer, List<Phi>> phis;
+
+    private final Map<Integer, Value> definitions;
+
+    private final Map<Integer, Map<String, Value>> uses;
+
+    private final Map<Value, List<Integer>> instructionUsers;
+
+    private final Map<Value, List<Phi>> phiUsers;
+
+    private SsaForm(Method method) {
+        this.method = method;
+        this.instructions = method.getInstructions();
+        this.entry = instructions.size();
+        this.successors = new ArrayList<>();
+        this.predecessors = new ArrayList<>();
+        this.idom = new int[entry + 1];
+        this.frontiers = new ArrayList<>();
+        this.variables = new HashSet<>();
+        this.values = new ArrayList<>();
+        this.phis = new HashMap<>();
+        this.definitions = new HashMap<>();
+        this.uses = new HashMap<>();
+        this.instructionUsers = new HashMap<>();
+        this.phiUsers = new HashMap<>();
+    }
+
+    public static SsaForm build(Method method) {
+        final SsaForm ssa = new SsaForm(method);
+        ssa.buildGraph();
+        ssa.computeDominators();
+        ssa.computeFrontiers();
+        ssa.placePhis();
+        ssa.rename();
+        ssa.linkUsers();
+        return ssa;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public int entry() {
+        return entry;
+    }
+
+    public Set<Integer> successors(int node) {
+        return successors.get(node);
+    }
+
+    public Set<Integer> predecessors(int node) {
+        return predecessors.get(node);
+    }
+
+    /**
+     * @return the immediate dominator of the node, or -1 if the node can't be reached
+     */
+    public int idom(int node) {
+        return idom[node];
+    }
+
+    public Set<Integer> frontier(int node) {
+        return frontiers.get(node);
+    }
+
+    /**
+     * @return true if the variable has a value in this form, i.e. it is an int or boolean local or parameter
+     */
+    public boolean isTracked(String variable) {
+        return variables.contains(variable);
+    }
+
+    public List<Value> values() {
+        return values;
+    }
+
+    public List<Phi> phis(int node) {
+        return phis.getOrDefault(node, List.of());
+    }
+
+    /**
+     * @return the value defined by the instruction, if any
+     */
+    public Optional<Value> definition(int node) {
+        return Optional.ofNullable(definitions.get(node));
+    }
+
+    /**
+     * @return the values read by the instruction, by variable
+     */
+    public Map<String, Value> uses(int node) {
+        return uses.getOrDefault(node, Map.of());
+    }
+
+    /**
+     * @return the instructions that read the value
+     */
+    public List<Integer> instructionUsers(Value value) {
+        return instructionUsers.getOrDefault(value, List.of());
+    }
+
+    /**
+     * @return the phis that have the value as an operand
+     */
+    public List<Phi> phiUsers(Value value) {
+        return phiUsers.getOrDefault(value, List.of());
+    }
+
+    private void buildGraph() {
+        // Edges are added to the nodes on each build, so start from none
+        for (final Instruction inst : instructions) {
+            inst.getSuccessors().clear();
+            inst.getPred().clear();
+        }
+        method.buildCFG();
+
+        final Map<Node, Integer> indexes = new IdentityHashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            indexes.put(instructions.get(i), i);
+        }
+
+        for (int i = 0; i <= entry; i++) {
+            successors.add(new LinkedHashSet<>());
+            predecessors.add(new HashSet<>());
+        }
+
+        if (!instructions.isEmpty()) {
+            addEdge(entry, 0);
+        }
+
+        for (int i = 0; i < instructions.size(); i++) {
+            // Returns leave the method, even if the graph also links them to the next instruction
+            if (instructions.get(i) instanceof ReturnInstruction) {
+                continue;
+            }
+
+            for (final Node successor : instructions.get(i).getSuccessors()) {
+                final Integer index = indexes.get(successor);
+                if (index != null) {
+                    addEdge(i, index);
+                }
+            }
+        }
+    }
+
+    private void addEdge(int from, int to) {
+        successors.get(from).add(to);
+        predecessors.get(to).add(from);
+    }
+
+    /**
+     * Iterative algorithm by Cooper, Harvey and Kennedy, over the nodes in reverse postorder.
+     */
+    private void computeDominators() {
+        final List<Integer> order = reversePostorder();
+        final int[] position = new int[entry + 1];
+        Arrays.fill(position, -1);
+        for (int i = 0; i < order.size(); i++) {
+            position[order.get(i)] = i;
+        }
+
+        Arrays.fill(idom, -1);
+        idom[entry] = entry;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (final int node : order) {
+                if (node == entry) {
+                    continue;
+                }
+
+                int newIdom = -1;
+                for (final int predecessor : predecessors.get(node)) {
+                    if (idom[predecessor] == -1) {
+                        continue;
+                    }
+
+                    newIdom = newIdom == -1 ? predecessor : intersect(predecessor, newIdom, position);
+                }
+
+                if (idom[node] != newIdom) {
+                    idom[node] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private int intersect(int a, int b, int[] position) {
+        while (a != b) {
+            while (position[a] > position[b]) {
+                a = idom[a];
+            }
+            while (position[b] > position[a]) {
+                b = idom[b];
+            }
+        }
+
+        return a;
+    }
+
+    private List<Integer> reversePostorder() {
+        final List<Integer> postorder = new ArrayList<>();
+        final boolean[] visited = new boolean[entry + 1];
+
+        // Explicit stack, so long methods don't overflow the call stack
+        final Deque<Iterator<Integer>> stack = new ArrayDeque<>();
+        final Deque<Integer> nodes = new ArrayDeque<>();
+        visited[entry] = true;
+        stack.push(successors.get(entry).iterator());
+        nodes.push(entry);
+
+        while (!stack.isEmpty()) {
+            final Iterator<Integer> pending = stack.peek();
+            if (pending.hasNext()) {
+                final int next = pending.next();
+                if (!visited[next]) {
+                    visited[next] = true;
+                    stack.push(successors.get(next).iterator());
+                    nodes.push(next);
+                }
+            } else {
+                stack.pop();
+                postorder.add(nodes.pop());
+            }
+        }
+
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    private void computeFrontiers() {
+        for (int i = 0; i <= entry; i++) {
+            frontiers.add(new HashSet<>());
+        }
+
+        for (int node = 0; node <= entry; node++) {
+            if (idom[node] == -1 || predecessors.get(node).size() < 2) {
+                continue;
+            }
+
+            for (final int predecessor : predecessors.get(node)) {
+                int runner = predecessor;
+                while (runner != -1 && runner != idom[node] && idom[runner] != -1) {
+                    frontiers.get(runner).add(node);
+                    runner = runner == idom[runner] ? -1 : idom[runner];
+                }
+            }
+        }
+    }
+
+    private void placePhis() {
+        for (final var entry : method.getVarTable().entrySet()) {
+            final Descriptor descriptor = entry.getValue();
+            final ElementType type = descriptor.getVarType().getTypeOfElement();
+            if (!entry.getKey().equals("this")
+                    && (descriptor.getScope() == VarScope.LOCAL || descriptor.getScope() == VarScope.PARAMETER)
+                    && (type == ElementType.INT32 || type == ElementType.BOOLEAN)) {
+                variables.add(entry.getKey());
+            }
+        }
+
+        final Map<String, Set<Integer>> defSites = new HashMap<>();
+        for (final String variable : variables) {
+            defSites.put(variable, new HashSet<>(Set.of(entry)));
+        }
+
+        for (int i = 0; i < instructions.size(); i++) {
+            final int node = i;
+            definedVariable(instructions.get(i)).ifPresent(variable -> defSites.get(variable).add(node));
+        }
+
+        for (final String variable : variables) {
+            final Deque<Integer> pending = new ArrayDeque<>(defSites.get(variable));
+            final Set<Integer> withPhi = new HashSet<>();
+
+            while (!pending.isEmpty()) {
+                final int site = pending.pop();
+                if (idom[site] == -1) {
+                    continue;
+                }
+
+                for (final int node : frontiers.get(site)) {
+                    if (withPhi.add(node)) {
+                        phis.computeIfAbsent(node, key -> new ArrayList<>())
+                                .add(new Phi(newValue(variable, node, true), node, new HashMap<>()));
+
+                        if (!defSites.get(variable).contains(node)) {
+                            pending.push(node);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void rename() {
+        final Map<Integer, List<Integer>> children = new HashMap<>();
+        for (int node = 0; node < entry; node++) {
+            if (idom[node] != -1) {
+                children.computeIfAbsent(idom[node], key -> new ArrayList<>()).add(node);
+            }
+        }
+
+        final Map<String, Deque<Value>> stacks = new HashMap<>();
+        for (final String variable : variables) {
+            stacks.put(variable, new ArrayDeque<>(List.of(newValue(variable, entry, false))));
+        }
+
+        // Walks the dominator tree, with the values pushed by each node undone when leaving it
+        final Deque<int[]> work = new ArrayDeque<>();
+        final Deque<List<String>> pushed = new ArrayDeque<>();
+        work.push(new int[]{entry, 0});
+
+        while (!work.isEmpty()) {
+            final int[] frame = work.peek();
+            final int node = frame[0];
+
+            if (frame[1] == 0) {
+                frame[1] = 1;
+                pushed.push(enter(node, stacks));
+
+                for (final int child : children.getOrDefault(node, List.of())) {
+                    work.push(new int[]{child, 0});
+                }
+                continue;
+            }
+
+            work.pop();
+            for (final String variable : pushed.pop()) {
+                stacks.get(variable).pop();
+            }
+        }
+    }
+
+    /**
+     * Renames the reads and definitions of the node, and fills its operand in the phis of its successors.
+     *
+     * @return the variables that got a new value in the node
+     */
+    private List<String> enter(int node, Map<String, Deque<Value>> stacks) {
+        final List<String> pushed = new ArrayList<>();
+
+        for (final Phi phi : phis(node)) {
+            stacks.get(phi.result().getVariable()).push(phi.result());
+            pushed.add(phi.result().getVariable());
+        }
+
+        if (node != entry) {
+            final Instruction inst = instructions.get(node);
+
+            final Map<String, Value> read = new HashMap<>();
+            for (final String variable : CopyPropagation.uses(inst)) {
+                if (variables.contains(variable)) {
+                    read.put(variable, stacks.get(variable).peek());
+                }
+            }
+            uses.put(node, read);
+
+            definedVariable(inst).ifPresent(variable -> {
+                final Value value = newValue(variable, node, false);
+                definitions.put(node, value);
+                stacks.get(variable).push(value);
+                pushed.add(variable);
+            });
+        }
+
+        for (final int successor : successors.get(node)) {
+            for (final Phi phi : phis(successor)) {
+                phi.operands().put(node, stacks.get(phi.result().getVariable()).peek());
+            }
+        }
+
+        return pushed;
+    }
+
+    private void linkUsers() {
+        uses.forEach((node, read) -> read.values()
+                .forEach(value -> instructionUsers.computeIfAbsent(value, key -> new ArrayList<>()).add(node)));
+
+        phis.values().forEach(nodePhis -> nodePhis.forEach(phi -> phi.operands().values()
+                .forEach(value -> phiUsers.computeIfAbsent(value, key -> new ArrayList<>()).add(phi))));
+    }
+
+    private Optional<String> definedVariable(Instruction inst) {
+        if (inst instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest
+                && !(dest instanceof ArrayOperand) && variables.contains(dest.getName())) {
+            return Optional.of(dest.getName());
+        }
+
+        return Optional.empty();
+    }
+
+    private Value newValue(String variable, int node, boolean phi) {
+        final Value value = new Value(values.size(), variable, node, phi);
+        values.add(value);
+        return value;
+    }
+}
@@ -0,0 +1,123 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Removes the code of the class that can't run: methods that can't be called, and fields that are never read.
+ * <p>
+ * It assumes a closed world: the program only enters the class through <code>main</code>, its constructors and its
+ * public methods, and no other class of the package uses its package-visible members. Java-- has no syntax to read
+ * a field of another object, so the fields are only read by the class itself. A method is kept if one of the entry
+ * points can reach it through the call graph, and a field that is never read is removed with every
+ * <code>putfield</code> that writes it.
+ * <p>
+ * A class that extends another class keeps its package-visible methods, since the superclass may call them when
+ * they override one of its methods.
+ * <p>
+ * Runs only when the 'treeshake' optimization is given, with <code>-o=treeshake</code>, since it breaks other
+ * classes of the package that use the removed members.
+ */
+public class TreeShaking {
+
+    private final ClassUnit classUnit;
+
+    private final CallGraph callGraph;
+
+    private final List<Report> reports;
+
+    public TreeShaking(ClassUnit classUnit, CallGraph callGraph, List<Report> reports) {
+        this.classUnit = classUnit;
+        this.callGraph = callGraph;
+        this.reports = reports;
+    }
+
+    public void apply() {
+        removeUnreachableMethods();
+        removeUnreadFields();
+    }
+
+    private void removeUnreachableMethods() {
+        final Set<String> reachable = new HashSet<>();
+        final Deque<String> pending = new ArrayDeque<>();
+
+        final boolean hasSuperClass = Devirtualization.hasSuperClass(classUnit);
+        for (final Method method : classUnit.getMethods()) {
+            if (isEntryPoint(method, hasSuperClass)) {
+                pending.push(method.getMethodName());
+            }
+        }
+
+        while (!pending.isEmpty()) {
+            final String name = pending.pop();
+            if (reachable.add(name)) {
+                pending.addAll(callGraph.callees(name));
+            }
+        }
+
+        classUnit.getMethods().removeIf(method -> {
+            if (reachable.contains(method.getMethodName())) {
+                return false;
+            }
+
+            final String message = String.format("Removed method %s, it is never called", method.getMethodName());
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+            return true;
+        });
+    }
+
+    private void removeUnreadFields() {
+        final Set<String> read = new HashSet<>();
+        for (final Method method : classUnit.getMethods()) {
+            read.addAll(callGraph.get(method.getMethodName()).fieldsRead());
+        }
+
+        final Set<String> unread = new HashSet<>();
+        classUnit.getFields().removeIf(field -> {
+            if (read.contains(field.getFieldName())) {
+                return false;
+            }
+
+            unread.add(field.getFieldName());
+
+            final String message = String.format("Removed field %s, it is never read", field.getFieldName());
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, message, null));
+            return true;
+        });
+
+        if (unread.isEmpty()) {
+            return;
+        }
+
+        // The value written is an operand or a literal, so nothing else is lost with the putfield
+        for (final Method method : classUnit.getMethods()) {
+            final List<Instruction> instructions = method.getInstructions();
+
+            for (int i = 0; i < instructions.size() - 1; i++) {
+                final Instruction inst = instructions.get(i);
+                if (!(inst instanceof PutFieldInstruction putField) || !unread.contains(putField.getField().getName())) {
+                    continue;
+                }
+
+                final Instruction next = instructions.get(i + 1);
+                method.getLabels().replaceAll((label, target) -> target == inst ? next : target);
+                instructions.remove(i);
+                i--;
+            }
+        }
+    }
+
+    /**
+     * @return true if the program can call the method from outside the class
+     */
+    private static boolean isEntryPoint(Method method, boolean hasSuperClass) {
+        final AccessModifier access = method.getMethodAccessModifier();
+        return method.isConstructMethod()
+                || method.getMethodName().equals("main")
+                || access == AccessModifier.PUBLIC
+                || hasSuperClass && access != AccessModifier.PRIVATE;
+    }
+}
@@ -2,16 +2,44 @@ package pt.up.fe.comp2024.parser;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
 import pt.up.fe.comp.jmm.ast.antlr.AntlrParser;
+import pt.up.fe.comp.jmm.ast.antlr.AntlrToJmmNodeConverter;
+import pt.up.fe.comp.jmm.ast.antlr.JmmErrorListener;
+import pt.up.fe.comp.jmm.ast.antlr.JmmNodeCleanup;
 import pt.up.fe.comp.jmm.parser.JmmParser;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerStats;
+import pt.up.fe.comp2024.JavammLexer;
+import pt.up.fe.comp2024.JavammParser;
+import pt.up.fe.comp2024.utils.ReportUtils;
+import pt.up.fe.specs.util.SpecsSystem;
 
+import java.util.ArrayList;
 import java.util.Map;
 
+/**
+ * Reuses the same lexer and parser for every program, resetting them first. Not thread-safe, a parser is used by
+ * one thread at a time.
+ */
 public class JmmParserImpl implements JmmParser {
 
+    private JavammLexer lex;
+
+    private JavammParser parser;
+
+    private final CompilerStats stats;
+
+    public JmmParserImpl() {
+        this(CompilerStats.NONE);
+    }
+
+    public JmmParserImpl(CompilerStats stats) {
+        this.stats = stats;
+    }
+
     @Override
     public String getDefaultRule() {
         return "program";
@@ -24,15 +52,53 @@ public class JmmParserImpl implements JmmParser {
             // Convert code string into a character stream
             var input = new ANTLRInputStream(jmmCode);
             // Transform characters into tokens using the lexer
-            var lex = new pt.up.fe.comp2024.JavammLexer(input);
+            if (lex == null) {
+                lex = new JavammLexer(input);
+            } else {
+                lex.setInputStream(input);
+            }
             // Wrap lexer around a token stream
             var tokens = new CommonTokenStream(lex);
             // Transforms tokens into a parse tree
-            var parser = new pt.up.fe.comp2024.JavammParser(tokens);
+            if (parser == null) {
+                parser = new JavammParser(tokens);
+            } else {
+                parser.setTokenStream(tokens);
+            }
 
+            // As AntlrParser.parse, with the tokens read before parsing so each step is measured on its own
+            lex.removeErrorListeners();
+            var lexerListener = new JmmErrorListener(Stage.LEXICAL);
+            lex.addErrorListener(lexerListener);
+
+            parser.removeErrorListeners();
+            var parserListener = new JmmErrorListener(Stage.SYNTATIC);
+            parser.addErrorListener(parserListener);
+
+            stats.measure("lexing", tokens::fill);
+            var node = stats.measure("parsing", () -> (ParseTree) SpecsSystem.invoke(parser, startingRule));
+
+            var reports = new ArrayList<Report>();
+            reports.addAll(lexerListener.getReports());
+            reports.addAll(parserListener.getReports());
+
+            if (ReportUtils.anyError(reports)) {
+                return new JmmParserResult(null, reports, config);
+            }
 
             // Convert ANTLR CST to JmmNode AST
-            return AntlrParser.parse(lex, parser, startingRule, config);
+            var root = stats.measure("ast conversion", () -> {
+                var converted = AntlrToJmmNodeConverter.convert(node, parser);
+
+                var ignoreList = AntlrParser.getIgnoreList(parser);
+                if (!ignoreList.isEmpty()) {
+                    new JmmNodeCleanup(ignoreList).visit(converted);
+                }
+
+                return converted;
+            });
+
+            return new JmmParserResult(root, reports, config);
 
         } catch (Exception e) {
             // There was an uncaught exception during parsing, create an error JmmParserResult without root node
@@ -0,0 +1,62 @@
+package pt.up.fe.comp2024;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class CompilationPipelineTest {
+
+    private static final String[] PROGRAMS = {
+            "pt/up/fe/comp2024/optimization/Fold.jmm",
+            "pt/up/fe/comp2024/optimization/Sccp.jmm",
+            "pt/up/fe/comp2024/optimization/Unroll.jmm",
+            "pt/up/fe/comp2024/optimization/Promo.jmm",
+    };
+
+    private static JasminResult pipeline(String code, int depth, Map<String, String> config) {
+        final var semanticsResult = TestUtils.analyse(code, config);
+        TestUtils.noErrors(semanticsResult);
+
+        final JasminResult jasminResult = new CompilationPipeline(depth).compile(semanticsResult);
+        TestUtils.noErrors(jasminResult);
+
+        return jasminResult;
+    }
+
+    private static void assertSameAsWholeClass(int depth, String... options) {
+        for (final String program : PROGRAMS) {
+            final String code = resource(program);
+            assertEquals(program, run(code, config(options)), run(pipeline(code, depth, config(options))));
+        }
+    }
+
+    @Test
+    public void printsTheSameAsCompilingTheWholeClass() {
+        assertSameAsWholeClass(4);
+    }
+
+    @Test
+    public void printsTheSameWithOptimizations() {
+        assertSameAsWholeClass(4, "optimize", "true");
+    }
+
+    @Test
+    public void printsTheSameWithOneMethodInFlight() {
+        assertSameAsWholeClass(1, "optimize", "true");
+    }
+
+    @Test
+    public void generatesTheSameCodeEveryTime() {
+        final String code = resource(PROGRAMS[2]);
+        final String expected = pipeline(code, 2, config("optimize", "true")).getJasminCode();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expected, pipeline(code, 2, config("optimize", "true")).getJasminCode());
+        }
+    }
+}
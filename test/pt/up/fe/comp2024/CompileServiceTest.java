@@ -0,0 +1,98 @@
+package pt.up.fe.comp2024;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2024.CompilerTestUtils.config;
+import static pt.up.fe.comp2024.CompilerTestUtils.resource;
+
+public class CompileServiceTest {
+
+    private static final String FOLD = resource("pt/up/fe/comp2024/optimization/Fold.jmm");
+
+    private static final String UNROLL = resource("pt/up/fe/comp2024/optimization/Unroll.jmm");
+
+    private static String jasminCode(String code) {
+        try (var session = CompilerSession.open(config("optimize", "true"))) {
+            return session.compile(code).jasminResult().getJasminCode();
+        }
+    }
+
+    @Test
+    public void compilesJobsAtTheSameTime() {
+        final String fold = jasminCode(FOLD);
+        final String unroll = jasminCode(UNROLL);
+
+        try (var service = new CompileService(64, 2)) {
+            final List<CompletableFuture<CompilationResult>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(service.submit(i % 2 == 0 ? FOLD : UNROLL, config("optimize", "true")));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                final CompilationResult result = results.get(i).join();
+                assertTrue(result.getReports().toString(), result.isSuccess());
+                assertEquals(i % 2 == 0 ? fold : unroll, result.jasminResult().getJasminCode());
+            }
+
+            final var metrics = service.getMetrics();
+            assertEquals(32, metrics.completed());
+            assertEquals(0, metrics.failed());
+            assertEquals(0, metrics.inFlight());
+        }
+    }
+
+    @Test
+    public void rejectsJobsWhenFull() {
+        try (var service = new CompileService(1, 1)) {
+            final List<CompletableFuture<CompilationResult>> accepted = new ArrayList<>();
+            int rejected = 0;
+
+            // Submitting takes far less than compiling, so most of these find the service full
+            for (int i = 0; i < 20; i++) {
+                try {
+                    accepted.add(service.submit(UNROLL, config()));
+                } catch (RejectedExecutionException e) {
+                    rejected++;
+                }
+            }
+
+            accepted.forEach(result -> assertTrue(result.join().isSuccess()));
+
+            assertTrue(rejected > 0);
+            assertEquals(rejected, service.getMetrics().rejected());
+            assertEquals(accepted.size(), service.getMetrics().completed());
+        }
+    }
+
+    @Test
+    public void offerWaitsForRoom() throws InterruptedException {
+        try (var service = new CompileService(1, 1)) {
+            final var first = service.submit(FOLD, config());
+            final var second = service.offer(FOLD, config(), 1, TimeUnit.MINUTES);
+
+            assertTrue(first.join().isSuccess());
+            assertTrue(second.join().isSuccess());
+            assertEquals(0, service.getMetrics().rejected());
+        }
+    }
+
+    @Test
+    public void closedServicesRejectJobs() {
+        final var service = new CompileService(4, 1);
+        service.close();
+
+        try {
+            service.submit(FOLD, config());
+            fail("Expected the closed service to reject the job");
+        } catch (RejectedExecutionException e) {
+            assertEquals(0, service.getMetrics().inFlight());
+        }
+    }
+}
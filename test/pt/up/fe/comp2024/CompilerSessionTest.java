@@ -0,0 +1,50 @@
+package pt.up.fe.comp2024;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2024.CompilerTestUtils.config;
+import static pt.up.fe.comp2024.CompilerTestUtils.resource;
+
+public class CompilerSessionTest {
+
+    private static final String FOLD = resource("pt/up/fe/comp2024/optimization/Fold.jmm");
+
+    private static final String ERR = resource("pt/up/fe/comp2024/analysis/Err.jmm");
+
+    @Test
+    public void compilingAgainGivesTheSameCode() {
+        try (var session = CompilerSession.open(config("optimize", "true"))) {
+            final CompilationResult first = session.compile(FOLD);
+            final CompilationResult second = session.compile(FOLD);
+
+            assertTrue(first.getReports().toString(), first.isSuccess());
+            assertEquals(first.ollirResult().getOllirCode(), second.ollirResult().getOllirCode());
+            assertEquals(first.jasminResult().getJasminCode(), second.jasminResult().getJasminCode());
+        }
+    }
+
+    @Test
+    public void programsWithErrorsDontAffectTheNextOne() {
+        final String expected;
+        try (var session = CompilerSession.open(config())) {
+            expected = session.compile(FOLD).jasminResult().getJasminCode();
+        }
+
+        try (var session = CompilerSession.open(config())) {
+            assertFalse(session.compile(ERR).isSuccess());
+
+            final CompilationResult result = session.compile(FOLD);
+            assertTrue(result.getReports().toString(), result.isSuccess());
+            assertEquals(expected, result.jasminResult().getJasminCode());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedSessionsCantCompile() {
+        final CompilerSession session = CompilerSession.open(config());
+        session.close();
+
+        session.compile(FOLD);
+    }
+}
@@ -0,0 +1,105 @@
+package pt.up.fe.comp2024;
+
+import org.junit.Test;
+import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2024.ast.Kind;
+import pt.up.fe.comp2024.parser.JmmParserImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2024.CompilerTestUtils.config;
+import static pt.up.fe.comp2024.CompilerTestUtils.resource;
+
+public class CompilerStatsTest {
+
+    private static CompilerStats.PhaseStats phase(CompilerStats stats, String name) {
+        return stats.getPhases().stream()
+                .filter(phase -> phase.phase().equals(name))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    public void countsCallsFromManyThreads() throws InterruptedException {
+        final CompilerStats stats = new CompilerStats();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final String name = t % 2 == 0 ? "even" : "odd";
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+
+                for (int i = 0; i < 1000; i++) {
+                    stats.measure(name, () -> new int[16]);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(2, stats.getPhases().size());
+        assertEquals(4000, phase(stats, "even").calls());
+        assertEquals(4000, phase(stats, "odd").calls());
+    }
+
+    @Test
+    public void measuresPhasesThatThrow() {
+        final CompilerStats stats = new CompilerStats();
+
+        try {
+            stats.measure("failing", (Runnable) () -> {
+                throw new IllegalStateException();
+            });
+            fail("Expected the phase to throw");
+        } catch (IllegalStateException e) {
+            assertEquals(1, phase(stats, "failing").calls());
+        }
+    }
+
+    @Test
+    public void listsPhasesInTheOrderTheyFirstRan() {
+        final CompilerStats stats = new CompilerStats();
+        stats.measure("parsing", () -> {
+        });
+        stats.measure("analysis", () -> {
+        });
+        stats.measure("parsing", () -> {
+        });
+
+        assertEquals(List.of("parsing", "analysis"),
+                stats.getPhases().stream().map(CompilerStats.PhaseStats::phase).toList());
+        assertTrue(stats.toTable(), stats.toTable().startsWith("phase"));
+        assertTrue(stats.toJson(), stats.toJson().contains("\"phase\": \"analysis\""));
+    }
+
+    @Test
+    public void noneMeasuresNothing() {
+        assertEquals(3, (int) CompilerStats.NONE.measure("phase", () -> 3));
+        assertEquals(List.of(), CompilerStats.NONE.getPhases());
+    }
+
+    @Test
+    public void countsEveryShardOfParallelAnalysis() {
+        final CompilerStats stats = new CompilerStats();
+        final var parserResult = new JmmParserImpl(stats)
+                .parse(resource("pt/up/fe/comp2024/optimization/Fold.jmm"), config());
+        final var semanticsResult = new JmmAnalysisImpl(stats).semanticAnalysis(parserResult);
+
+        // Methods are analysed at the same time, and each of them counts once, as does the rest of the class
+        final long methods = semanticsResult.getRootNode().getDescendants(Kind.METHOD_DECL).size();
+        assertEquals(methods + 1, phase(stats, "analysis TypeCheck").calls());
+    }
+}
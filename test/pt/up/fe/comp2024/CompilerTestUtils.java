@@ -0,0 +1,122 @@
+package pt.up.fe.comp2024;
+
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compiles and runs Java-- programs for the tests, most of which compare what a program prints when compiled with
+ * and without an optimization.
+ */
+public class CompilerTestUtils {
+
+    /**
+     * @return the default config, with the given options set, e.g. "optimize", "true"
+     */
+    public static Map<String, String> config(String... options) {
+        final Map<String, String> config = CompilerConfig.getDefault();
+        for (int i = 0; i < options.length; i += 2) {
+            config.put(options[i], options[i + 1]);
+        }
+
+        return config;
+    }
+
+    /**
+     * @return the code of a program in the test folder, e.g. "pt/up/fe/comp2024/optimization/Algebra.jmm"
+     */
+    public static String resource(String path) {
+        return SpecsIo.getResource(path);
+    }
+
+    public static OllirResult optimize(String code, Map<String, String> config) {
+        final OllirResult ollirResult = TestUtils.optimize(code, config);
+        TestUtils.noErrors(ollirResult);
+
+        return ollirResult;
+    }
+
+    public static JasminResult backend(String code, Map<String, String> config) {
+        final JasminResult jasminResult = TestUtils.backend(code, config);
+        TestUtils.noErrors(jasminResult);
+
+        return jasminResult;
+    }
+
+    /**
+     * @return the messages of the optimizations applied, e.g. "Inlined call to get in method main (2 instructions)"
+     */
+    public static List<String> optimizations(List<Report> reports) {
+        return reports.stream()
+                .filter(report -> report.getStage() == Stage.OPTIMIZATION)
+                .map(Report::getMessage)
+                .toList();
+    }
+
+    /**
+     * Runs the program, with the classes of libs-jmm and the given classes, which must have been compiled with
+     * {@link #compile(JasminResult...)}.
+     *
+     * @return what the program printed, failing if it didn't exit normally
+     */
+    public static String run(JasminResult program, File... classes) {
+        final List<String> classpath = new ArrayList<>();
+        for (final File folder : classes) {
+            classpath.add(folder.getAbsolutePath());
+        }
+        classpath.add(TestUtils.getLibsClasspath());
+
+        final var output = program.runWithFullOutput(List.of(), classpath);
+        assertEquals("Program failed: " + output.getStdErr(), 0, output.getReturnValue());
+
+        return output.getStdOut();
+    }
+
+    public static String run(String code, Map<String, String> config) {
+        return run(backend(code, config));
+    }
+
+    /**
+     * Compiles the classes into a new folder, to run programs that use them.
+     */
+    public static File compile(JasminResult... classes) {
+        final File folder;
+        try {
+            folder = Files.createTempDirectory("jmm-classes").toFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        folder.deleteOnExit();
+
+        for (final JasminResult jasminResult : classes) {
+            jasminResult.compile(folder);
+        }
+
+        return folder;
+    }
+
+    /**
+     * Runs the program compiled with the default config and with the given one, which must print the same.
+     *
+     * @return what the program printed
+     */
+    public static String assertSameOutput(String code, Map<String, String> config) {
+        final String expected = run(code, config());
+        assertEquals(expected, run(code, config));
+
+        return expected;
+    }
+}
@@ -0,0 +1,46 @@
+package pt.up.fe.comp2024.analysis;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp2024.CompilerTestUtils.resource;
+
+public class JmmAnalysisImplTest {
+
+    private static final String ERR = resource("pt/up/fe/comp2024/analysis/Err.jmm");
+
+    private static final String FOLD = resource("pt/up/fe/comp2024/optimization/Fold.jmm");
+
+    private static List<String> errors(JmmAnalysisImpl analysis, String code) {
+        return analysis.semanticAnalysis(TestUtils.parse(code)).getReports().stream()
+                .filter(report -> report.getType() == ReportType.ERROR)
+                .map(Report::toString)
+                .toList();
+    }
+
+    @Test
+    public void reusedPassesReportTheSameErrors() {
+        final List<String> expected = errors(new JmmAnalysisImpl(), ERR);
+        assertTrue(expected.size() > 1);
+
+        // Every worker thread reuses its passes from the first analysis on
+        final JmmAnalysisImpl analysis = new JmmAnalysisImpl();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expected, errors(analysis, ERR));
+        }
+    }
+
+    @Test
+    public void reusedPassesForgetThePreviousProgram() {
+        final JmmAnalysisImpl analysis = new JmmAnalysisImpl();
+
+        errors(analysis, ERR);
+        assertEquals(List.of(), errors(analysis, FOLD));
+    }
+}
@@ -0,0 +1,76 @@
+package pt.up.fe.comp2024.backend;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.specs.util.SpecsIo;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+/**
+ * Java-- programs are also Java programs once their imports are removed, since their imports are classes of the
+ * default package. Each program must print the same when compiled by javac and by this compiler, which covers
+ * the branches, short-circuit operators, loop layout and stack forwarding of the backend.
+ */
+public class JavacDifferentialTest {
+
+    private static final String[] PROGRAMS = {
+            "pt/up/fe/comp2024/backend/Control.jmm",
+            "pt/up/fe/comp2024/optimization/Algebra.jmm",
+            "pt/up/fe/comp2024/optimization/Fold.jmm",
+            "pt/up/fe/comp2024/optimization/Promo.jmm",
+            "pt/up/fe/comp2024/optimization/Sccp.jmm",
+            "pt/up/fe/comp2024/optimization/Unroll.jmm",
+    };
+
+    /**
+     * @return what the program prints when compiled by javac
+     */
+    private static String runWithJavac(String program) throws IOException, InterruptedException {
+        final String className = new File(program).getName().replace(".jmm", "");
+        final File folder = Files.createTempDirectory("jmm-javac").toFile();
+        folder.deleteOnExit();
+
+        final File source = new File(folder, className + ".java");
+        SpecsIo.write(source, resource(program).replaceAll("(?m)^import .*;$", ""));
+
+        final int compiled = ToolProvider.getSystemJavaCompiler().run(null, null, null,
+                "-cp", TestUtils.getLibsClasspath(), "-d", folder.getPath(), source.getPath());
+        assertEquals("javac failed on " + program, 0, compiled);
+
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final Process process = new ProcessBuilder(java, "-cp",
+                folder.getPath() + File.pathSeparator + TestUtils.getLibsClasspath(), className)
+                .redirectErrorStream(true)
+                .start();
+        final String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        process.waitFor(1, TimeUnit.MINUTES);
+        assertEquals(program + " failed: " + output, 0, process.exitValue());
+
+        return output;
+    }
+
+    private static void assertSameAsJavac(Map<String, String> config) throws IOException, InterruptedException {
+        for (final String program : PROGRAMS) {
+            assertEquals(program, runWithJavac(program), run(resource(program), config));
+        }
+    }
+
+    @Test
+    public void printsTheSameAsJavac() throws IOException, InterruptedException {
+        assertSameAsJavac(config());
+    }
+
+    @Test
+    public void printsTheSameAsJavacWithOptimizations() throws IOException, InterruptedException {
+        assertSameAsJavac(config("optimize", "true"));
+    }
+}
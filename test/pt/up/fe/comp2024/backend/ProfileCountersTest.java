@@ -0,0 +1,54 @@
+package pt.up.fe.comp2024.backend;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp2024.optimization.Profile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.OptionalLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class ProfileCountersTest {
+
+    private static final String THROWS = resource("pt/up/fe/comp2024/backend/Throws.jmm");
+
+    private static File profileFile() throws IOException {
+        final File file = File.createTempFile("jmm", ".profile");
+        file.deleteOnExit();
+        Files.delete(file.toPath());
+
+        return file;
+    }
+
+    @Test
+    public void writesTheProfileWhenMainReturns() throws IOException {
+        final File file = profileFile();
+        final String code = THROWS.replace("t.divide(5, 0)", "t.divide(5, 1)");
+
+        assertEquals("10\n10\n", run(code, config("instrument", file.getPath())));
+
+        final Profile profile = Profile.read(file);
+        assertEquals(OptionalLong.of(1), profile.count("main"));
+        assertEquals(OptionalLong.of(6), profile.count("divide", "whileCond0"));
+    }
+
+    @Test
+    public void writesTheProfileWhenMainThrows() throws IOException {
+        final File file = profileFile();
+
+        final var output = backend(THROWS, config("instrument", file.getPath()))
+                .runWithFullOutput(List.of(), List.of(TestUtils.getLibsClasspath()));
+        assertNotEquals(0, output.getReturnValue());
+        assertEquals("10\n", output.getStdOut());
+
+        final Profile profile = Profile.read(file);
+        assertEquals(OptionalLong.of(1), profile.count("divide"));
+        assertEquals(OptionalLong.of(6), profile.count("divide", "whileCond0"));
+    }
+}
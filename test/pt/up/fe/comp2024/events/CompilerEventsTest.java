@@ -0,0 +1,122 @@
+package pt.up.fe.comp2024.events;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pt.up.fe.comp2024.Launcher;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2024.CompilerTestUtils.resource;
+
+public class CompilerEventsTest {
+
+    private static final String FILE_NAME = "Inl.jmm";
+
+    private static List<RecordedEvent> events;
+
+    /**
+     * Compiles Inl.jmm with '-o' through the launcher, while recording the events of the compiler.
+     */
+    @BeforeClass
+    public static void record() throws IOException {
+        final Path folder = Files.createTempDirectory("jmm-events");
+        final File input = folder.resolve(FILE_NAME).toFile();
+        SpecsIo.write(input, resource("pt/up/fe/comp2024/optimization/" + FILE_NAME));
+        final Path recordingFile = folder.resolve("compile.jfr");
+
+        try (var recording = new Recording()) {
+            recording.enable(StageEvent.class);
+            recording.enable(AnalysisPassEvent.class);
+            recording.enable(OptimizationEvent.class);
+            recording.start();
+
+            Launcher.main(new String[]{"-i=" + input.getAbsolutePath(), "-o"});
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        events = RecordingFile.readAllEvents(recordingFile);
+        SpecsIo.deleteFolder(folder.toFile());
+    }
+
+    private static List<RecordedEvent> events(String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .toList();
+    }
+
+    @Test
+    public void recordsEveryStage() {
+        final List<RecordedEvent> stages = events("pt.up.fe.comp2024.Stage");
+
+        assertEquals(List.of("parsing", "semantic analysis", "ollir generation", "optimization", "jasmin generation"),
+                stages.stream().map(event -> event.getString("stage")).toList());
+        stages.forEach(event -> assertEquals(FILE_NAME, event.getString("fileName")));
+
+        // The front end produces an AST, the later stages produce instructions
+        assertTrue(stages.get(0).getLong("nodeCount") > 0);
+        assertTrue(stages.get(1).getLong("nodeCount") > 0);
+        assertTrue(stages.get(2).getLong("instructionCount") > 0);
+        assertTrue(stages.get(3).getLong("instructionCount") > 0);
+        assertTrue(stages.get(4).getLong("instructionCount") > 0);
+    }
+
+    @Test
+    public void recordsAnalysisPassesOfEachMethod() {
+        final List<RecordedEvent> passes = events("pt.up.fe.comp2024.AnalysisPass");
+        assertFalse(passes.isEmpty());
+
+        final Set<String> methods = passes.stream()
+                .map(event -> event.getString("methodName"))
+                .collect(Collectors.toSet());
+        assertTrue(methods.toString(), methods.containsAll(Set.of("get", "set", "run", "main")));
+
+        for (final RecordedEvent event : passes) {
+            assertEquals(FILE_NAME, event.getString("fileName"));
+            assertFalse(event.getString("pass").isEmpty());
+            assertTrue(event.getLong("nodeCount") > 0);
+        }
+    }
+
+    @Test
+    public void recordsOptimizationsOfTheClassAndOfEachMethod() {
+        final List<RecordedEvent> optimizations = events("pt.up.fe.comp2024.Optimization");
+
+        final Set<String> classOptimizations = optimizations.stream()
+                .filter(event -> event.getString("methodName").isEmpty())
+                .map(event -> event.getString("optimization"))
+                .collect(Collectors.toSet());
+        assertTrue(classOptimizations.toString(), classOptimizations.contains("MethodInliner"));
+
+        final Set<String> methods = optimizations.stream()
+                .map(event -> event.getString("methodName"))
+                .collect(Collectors.toSet());
+        assertTrue(methods.toString(), methods.containsAll(Set.of("get", "set", "run", "main")));
+
+        for (final RecordedEvent event : optimizations) {
+            assertEquals(FILE_NAME, event.getString("fileName"));
+            assertTrue(event.getLong("instructionsBefore") > 0);
+            assertTrue(event.getLong("instructionsAfter") > 0);
+        }
+
+        // Inlining run grows main
+        final RecordedEvent inlining = optimizations.stream()
+                .filter(event -> event.getString("optimization").equals("MethodInliner"))
+                .findFirst()
+                .orElseThrow();
+        assertTrue(inlining.getBoolean("changed"));
+        assertTrue(inlining.getLong("instructionsAfter") > inlining.getLong("instructionsBefore"));
+    }
+}
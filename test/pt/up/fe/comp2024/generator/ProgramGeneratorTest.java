@@ -0,0 +1,48 @@
+package pt.up.fe.comp2024.generator;
+
+import org.junit.Test;
+import pt.up.fe.comp2024.generator.ProgramGenerator.Options;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class ProgramGeneratorTest {
+
+    private static final List<Long> SEEDS = List.of(1L, 42L, 2024L);
+
+    private static final List<Options> OPTIONS = List.of(
+            Options.DEFAULT,
+            new Options(0, 0, 0, 0, 0, 0, 0, 0),
+            new Options(3, 0, 1, 8, 4, 5, 3, 0),
+            new Options(4, 6, 2, 4, 2, 2, 1, 5));
+
+    @Test
+    public void generatesProgramsThatCompile() {
+        for (final long seed : SEEDS) {
+            for (final Options options : OPTIONS) {
+                final String code = new ProgramGenerator(seed, options).generate("Generated");
+
+                // Fails on any error report, in every stage up to the backend
+                compile(backend(code, config()));
+                compile(backend(code, config("optimize", "true")));
+            }
+        }
+    }
+
+    @Test
+    public void generatesTheSameProgramForTheSameSeed() {
+        for (final Options options : OPTIONS) {
+            final var generator = new ProgramGenerator(7, options);
+            final String first = generator.generate("Generated");
+
+            assertEquals(first, generator.generate("Generated"));
+            assertEquals(first, new ProgramGenerator(7, options).generate("Generated"));
+        }
+
+        assertNotEquals(new ProgramGenerator(7, Options.DEFAULT).generate("Generated"),
+                new ProgramGenerator(8, Options.DEFAULT).generate("Generated"));
+    }
+}
@@ -0,0 +1,33 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class AlgebraicSimplificationTest {
+
+    private static final String ALGEBRA = resource("pt/up/fe/comp2024/optimization/Algebra.jmm");
+
+    @Test
+    public void simplifiesWithOptimizations() {
+        final var optimizations = optimizations(optimize(ALGEBRA, config("optimize", "true")).getReports());
+
+        assertTrue(optimizations.toString(), optimizations.stream().anyMatch(message -> message.contains("mul-one")));
+        assertTrue(optimizations.toString(),
+                optimizations.stream().anyMatch(message -> message.contains("mul-pow2-to-shl")));
+    }
+
+    @Test
+    public void keepsCodeWithoutOptimizations() {
+        final var optimizations = optimizations(optimize(ALGEBRA, config()).getReports());
+
+        assertTrue(optimizations.toString(), optimizations.stream().noneMatch(message -> message.startsWith("Simplified")));
+    }
+
+    @Test
+    public void dividesNegativeNumbersTowardsZero() {
+        assertEquals("10\n-14\n", assertSameOutput(ALGEBRA, config("optimize", "true")).replace("\r", ""));
+    }
+}
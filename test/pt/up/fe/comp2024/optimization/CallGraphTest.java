@@ -0,0 +1,34 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+import org.specs.comp.ollir.ClassUnit;
+
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class CallGraphTest {
+
+    private static final String FOLD = resource("pt/up/fe/comp2024/optimization/Fold.jmm");
+
+    @Test
+    public void summarizesEachMethod() {
+        final CallGraph callGraph = CallGraph.of(optimize(FOLD, config()).getOllirClass());
+
+        assertEquals(Set.of("square"), callGraph.callees("sumOfSquares"));
+        assertTrue(callGraph.get("sumOfSquares").isPure());
+        assertFalse(callGraph.isRecursive("sumOfSquares"));
+
+        assertTrue(callGraph.get("main").importedCalls().contains("io.println"));
+        assertTrue(callGraph.get("main").allocates());
+        assertFalse(callGraph.get("main").isSideEffectFree());
+    }
+
+    @Test
+    public void buildsANewGraphForEveryCompilation() {
+        final ClassUnit classUnit = optimize(FOLD, config()).getOllirClass();
+
+        assertNotSame(CallGraph.of(classUnit), CallGraph.of(classUnit));
+    }
+}
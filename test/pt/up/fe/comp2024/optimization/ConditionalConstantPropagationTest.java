@@ -0,0 +1,60 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class ConditionalConstantPropagationTest {
+
+    private static final String SCCP = resource("pt/up/fe/comp2024/optimization/Sccp.jmm");
+
+    private static String code(OllirResult ollirResult, String methodName) {
+        final Method method = ollirResult.getOllirClass().getMethods().stream()
+                .filter(m -> m.getMethodName().equals(methodName))
+                .findFirst()
+                .orElseThrow();
+
+        return method.getInstructions().toString();
+    }
+
+    @Test
+    public void removesBranchesThatCantRun() {
+        final OllirResult ollirResult = optimize(SCCP, config("optimize", "true"));
+
+        // a stays 1 in the loop, so b stays 2 and both else branches are dead
+        assertTrue(optimizations(ollirResult.getReports()).toString(), optimizations(ollirResult.getReports()).contains(
+                "Propagated 1 constants in method test, folded 2 branches and removed 4 unreachable instructions"));
+
+        final String test = code(ollirResult, "test");
+        assertFalse(test, test.contains("LiteralElement: 3.INT32"));
+        assertFalse(test, test.contains("LiteralElement: 1000.INT32"));
+        assertTrue(test, test.contains("LiteralElement: 100.INT32"));
+    }
+
+    @Test
+    public void keepsBranchesOnValuesThatChangeInLoops() {
+        final OllirResult ollirResult = optimize(SCCP, config("optimize", "true"));
+
+        // done is false on entry and true on the back edge, so neither test is constant, but k is 7 on both
+        assertTrue(optimizations(ollirResult.getReports()).toString(), optimizations(ollirResult.getReports()).contains(
+                "Propagated 1 constants in method flag, folded 0 branches and removed 0 unreachable instructions"));
+
+        final String flag = code(ollirResult, "flag");
+        assertTrue(flag, flag.contains("LiteralElement: 7.INT32 ADD Operand: n.INT32"));
+        assertTrue(flag, flag.contains("Label: ifThen1"));
+    }
+
+    @Test
+    public void keepsTheOutput() {
+        assertEquals("110\n10\n", assertSameOutput(SCCP, config("optimize", "true")));
+    }
+
+    @Test
+    public void runsOnlyWithOptimizations() {
+        assertTrue(optimizations(optimize(SCCP, config()).getReports()).stream()
+                .noneMatch(message -> message.startsWith("Propagated ")));
+    }
+}
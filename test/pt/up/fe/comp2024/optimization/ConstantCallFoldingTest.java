@@ -0,0 +1,44 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class ConstantCallFoldingTest {
+
+    private static final String FOLD = resource("pt/up/fe/comp2024/optimization/Fold.jmm");
+
+    private static List<String> foldings(List<String> optimizations) {
+        return optimizations.stream().filter(message -> message.startsWith("Evaluated call")).toList();
+    }
+
+    @Test
+    public void foldsCallsOnObjectsCreatedAsTheClass() {
+        final var optimizations = optimizations(optimize(FOLD, config("optimize", "true")).getReports());
+
+        assertTrue(optimizations.toString(),
+                optimizations.contains("Evaluated call to sumOfSquares[10] in method main, it returns 285"));
+    }
+
+    @Test
+    public void keepsCallsOnThisThatSubclassesCanOverride() {
+        final var optimizations = optimizations(optimize(FOLD, config("optimize", "true")).getReports());
+
+        assertTrue(optimizations.toString(), foldings(optimizations).stream()
+                .noneMatch(message -> message.endsWith("in method viaThis, it returns 9")));
+    }
+
+    @Test
+    public void foldsOnlyWithOptimizations() {
+        assertEquals(List.of(), foldings(optimizations(optimize(FOLD, config()).getReports())));
+    }
+
+    @Test
+    public void printsTheSame() {
+        assertEquals("285\n9\n", assertSameOutput(FOLD, config("optimize", "true")).replace("\r", ""));
+    }
+}
@@ -0,0 +1,92 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+import org.specs.comp.ollir.ClassUnit;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class DevirtualizationTest {
+
+    private static final String DEVIRT = resource("pt/up/fe/comp2024/optimization/Devirt.jmm");
+
+    /**
+     * A class with a method <code>val</code> that doesn't use <code>this</code>, declared with the given modifiers.
+     */
+    private static ClassUnit devirtualize(String superClass, String modifiers) {
+        final String ollirCode = """
+                Base extends %s {
+                    .construct Base().V {
+                        invokespecial(this, "<init>").V;
+                    }
+                    .method %s val().i32 {
+                        ret.i32 1.i32;
+                    }
+                    .method public show().i32 {
+                        r.i32 :=.i32 invokevirtual(this, "val").i32;
+                        ret.i32 r.i32;
+                    }
+                }
+                """.formatted(superClass, modifiers);
+
+        final var ollirResult = new OllirResult(ollirCode, config("optimize", "true"));
+        final ClassUnit classUnit = ollirResult.getOllirClass();
+        new Devirtualization(classUnit, CallGraph.of(classUnit), new ArrayList<>()).apply();
+
+        return classUnit;
+    }
+
+    private static Method val(ClassUnit classUnit) {
+        return classUnit.getMethods().stream()
+                .filter(method -> method.getMethodName().equals("val"))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    public void keepsMethodsOtherClassesCanCallOrOverride() {
+        assertFalse(val(devirtualize("Object", "public")).isStaticMethod());
+        assertFalse(val(devirtualize("Object", "")).isStaticMethod());
+    }
+
+    @Test
+    public void keepsMethodsThatMayOverrideTheSuperclass() {
+        assertFalse(val(devirtualize("Parent", "private")).isStaticMethod());
+    }
+
+    @Test
+    public void makesPrivateMethodsStatic() {
+        final ClassUnit classUnit = devirtualize("Object", "private");
+
+        assertTrue(val(classUnit).isStaticMethod());
+        assertFalse(val(classUnit).getVarTable().containsKey("this"));
+    }
+
+    @Test
+    public void callsStaticCopiesOnObjectsCreatedAsTheClass() {
+        final OllirResult ollirResult = optimize(DEVIRT, config("optimize", "true"));
+        assertTrue(optimizations(ollirResult.getReports()).contains(
+                "Made a static copy of method steps, for the calls on objects created as the class"));
+
+        final Method copy = ollirResult.getOllirClass().getMethods().stream()
+                .filter(method -> method.getMethodName().equals("steps$static"))
+                .findFirst()
+                .orElseThrow();
+        assertTrue(copy.isStaticMethod());
+        assertFalse(copy.getVarTable().containsKey("this"));
+
+        // Other classes can still call the original
+        final List<String> jasmin = backend(DEVIRT, config("optimize", "true")).getJasminCode().lines()
+                .map(String::trim)
+                .toList();
+        assertTrue(jasmin.contains(".method public steps(I)I"));
+        assertTrue(jasmin.contains("invokestatic Devirt/steps$static(I)I"));
+
+        assertEquals("424230531\n", assertSameOutput(DEVIRT, config("optimize", "true")).replace("\r", ""));
+    }
+}
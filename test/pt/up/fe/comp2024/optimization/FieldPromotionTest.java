@@ -0,0 +1,66 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class FieldPromotionTest {
+
+    private static final String PROMO = resource("pt/up/fe/comp2024/optimization/Promo.jmm");
+
+    private static final String COUNTER = resource("pt/up/fe/comp2024/optimization/Counter.jmm");
+
+    private static final String RESETTER = resource("pt/up/fe/comp2024/optimization/Resetter.jmm");
+
+    private static List<String> promotions(String code, Map<String, String> config) {
+        return optimizations(optimize(code, config).getReports()).stream()
+                .filter(message -> message.startsWith("Promoted field"))
+                .toList();
+    }
+
+    @Test
+    public void promotesFieldsUsedInLoops() {
+        final var promotions = promotions(PROMO, config("optimize", "true"));
+
+        assertTrue(promotions.toString(), promotions.contains("Promoted field count to a local in method bump (4 accesses)"));
+        assertTrue(promotions.toString(), promotions.contains("Promoted field other to a local in method bump (4 accesses)"));
+    }
+
+    @Test
+    public void promotesOnlyWithOptimizations() {
+        assertEquals(List.of(), promotions(PROMO, config()));
+    }
+
+    /**
+     * mixed() calls a method that reads the field and one that writes it while the field is promoted, and fact()
+     * calls itself.
+     */
+    @Test
+    public void storesAndLoadsAroundCalls() {
+        final var promotions = promotions(PROMO, config("optimize", "true"));
+        assertTrue(promotions.toString(), promotions.contains("Promoted field count to a local in method mixed (6 accesses)"));
+        assertTrue(promotions.toString(), promotions.contains("Promoted field count to a local in method fact (4 accesses)"));
+
+        assertEquals("78\n78\n79\n160\n322\n645\n120\n653\n",
+                assertSameOutput(PROMO, config("optimize", "true")).replace("\r", ""));
+    }
+
+    /**
+     * Counter.touch() doesn't write the field, but Resetter overrides it with a method that does.
+     */
+    @Test
+    public void reloadsAfterCallsSubclassesCanOverride() {
+        for (final Map<String, String> config : List.of(config(), config("optimize", "true"))) {
+            final File counter = compile(backend(COUNTER, config));
+
+            assertEquals("6", run(backend(COUNTER, config)).trim());
+            assertEquals("101", run(backend(RESETTER, config), counter).trim());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class LoopUnrollingTest {
+
+    private static final String UNROLL = resource("pt/up/fe/comp2024/optimization/Unroll.jmm");
+
+    private static final String OUTPUT = "14\n111\n83653\n7\n63\n190\n3\n94\n";
+
+    private static List<String> loops(String... options) {
+        return optimizations(optimize(UNROLL, config(options)).getReports()).stream()
+                .filter(message -> message.startsWith("Loop "))
+                .toList();
+    }
+
+    @Test
+    public void unrollsShortLoopsFully() {
+        final var loops = loops("optimize", "true");
+
+        assertTrue(loops.toString(), loops.contains("Loop whileCond0 in method small unrolled fully (4 iterations)"));
+        assertTrue(loops.toString(), loops.contains("Loop whileCond0 in method nested unrolled fully (3 iterations)"));
+        assertTrue(loops.toString(), loops.contains("Loop whileCond1 in method nested unrolled fully (2 iterations)"));
+    }
+
+    @Test
+    public void unrollsLongLoopsWithARemainderLoop() {
+        final var loops = loops("optimize", "true");
+
+        assertTrue(loops.toString(), loops.contains(
+                "Loop whileCond0 in method big unrolled 4 times (19 iterations, 3 in the remainder loop)"));
+        assertTrue(loops.toString(), loops.contains(
+                "Loop whileCond0 in method down unrolled 4 times (9 iterations, 1 in the remainder loop)"));
+    }
+
+    @Test
+    public void countsIterationsUntilTheVariableOverflows() {
+        final var loops = loops("optimize", "true");
+
+        assertTrue(loops.toString(), loops.contains("Loop whileCond0 in method wraps unrolled fully (3 iterations)"));
+        assertTrue(loops.toString(), loops.contains(
+                "Loop whileCond0 in method wrapsLater unrolled 4 times (47 iterations, 3 in the remainder loop)"));
+    }
+
+    @Test
+    public void keepsLoopsWithBoundsUnknownWhenCompiling() {
+        assertTrue(loops("optimize", "true").stream()
+                .anyMatch(message -> message.startsWith("Loop whileCond0 in method unknown kept")));
+    }
+
+    @Test
+    public void unrollsOnlyFullyWithFactorOne() {
+        final var loops = loops("optimize", "true", "unrollFactor", "1");
+
+        assertTrue(loops.toString(), loops.stream().noneMatch(message -> message.contains(" times (")));
+        assertTrue(loops.toString(), loops.contains("Loop whileCond0 in method small unrolled fully (4 iterations)"));
+    }
+
+    @Test
+    public void unrollsOnlyWithOptimizations() {
+        assertEquals(List.of(), loops());
+    }
+
+    @Test
+    public void printsTheSame() {
+        assertEquals(OUTPUT, assertSameOutput(UNROLL, config("optimize", "true")).replace("\r", ""));
+        assertEquals(OUTPUT, run(UNROLL, config("optimize", "true", "unrollFactor", "3")).replace("\r", ""));
+    }
+}
@@ -0,0 +1,100 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class MethodInlinerTest {
+
+    private static final String INL = resource("pt/up/fe/comp2024/optimization/Inl.jmm");
+
+    /**
+     * A class with a method <code>val</code> declared with the given modifiers, called by <code>show</code>.
+     */
+    private static String parent(String modifiers, String call) {
+        return """
+                Par extends Object {
+                    .construct Par().V {
+                        invokespecial(this, "<init>").V;
+                    }
+                    .method %s val().i32 {
+                        ret.i32 1.i32;
+                    }
+                    .method public show().i32 {
+                        r.i32 :=.i32 %s.i32;
+                        ret.i32 r.i32;
+                    }
+                }
+                """.formatted(modifiers, call);
+    }
+
+    private static List<String> inline(String ollirCode) {
+        final var ollirResult = new OllirResult(ollirCode, config("optimize", "true"));
+        final List<Report> reports = new ArrayList<>();
+        final ClassUnit classUnit = ollirResult.getOllirClass();
+        new MethodInliner(classUnit, CallGraph.of(classUnit), Profile.empty(), reports).apply();
+
+        return optimizations(reports);
+    }
+
+    @Test
+    public void keepsCallsToMethodsSubclassesCanOverride() {
+        assertEquals(List.of(), inline(parent("public", "invokevirtual(this, \"val\")")));
+        assertEquals(List.of(), inline(parent("", "invokevirtual(this, \"val\")")));
+    }
+
+    @Test
+    public void inlinesCallsToMethodsSubclassesCantOverride() {
+        assertTrue(inline(parent("private", "invokevirtual(this, \"val\")")).contains(
+                "Inlined call to val in method show (1 instructions)"));
+        assertTrue(inline(parent("public final", "invokevirtual(this, \"val\")")).contains(
+                "Inlined call to val in method show (1 instructions)"));
+        assertTrue(inline(parent("public static", "invokestatic(Par, \"val\")")).contains(
+                "Inlined call to val in method show (1 instructions)"));
+    }
+
+    @Test
+    public void inlinesCallsOnObjectsCreatedAsTheClass() {
+        final List<String> inlined = optimizations(optimize(INL, config("optimize", "true")).getReports());
+
+        assertTrue(inlined.contains("Inlined call to run in method main (8 instructions)"));
+        // The body of run calls methods on 'this', which becomes the object created in main
+        assertTrue(inlined.contains("Inlined call to get in method main (2 instructions)"));
+        assertTrue(inlined.stream().noneMatch(message -> message.startsWith("Inlined call to fact")));
+
+        assertEquals("129\n170\n", assertSameOutput(INL, config("optimize", "true")).replace("\r", ""));
+    }
+
+    @Test
+    public void inlinesOnlyWithOptimizations() {
+        final String code = """
+                import io;
+                class Getter {
+                    int x;
+                    public int get() {
+                        int r;
+                        r = x;
+                        return r;
+                    }
+                    public static void main(String[] args) {
+                        Getter g;
+                        int v;
+                        g = new Getter();
+                        v = g.get();
+                        io.println(v);
+                    }
+                }
+                """;
+
+        assertTrue(optimizations(optimize(code, config()).getReports()).stream()
+                .noneMatch(message -> message.startsWith("Inlined")));
+    }
+}
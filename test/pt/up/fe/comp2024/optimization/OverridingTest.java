@@ -0,0 +1,41 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+/**
+ * A class compiled on its own can be extended by another, which overrides its methods. Base.show() calls
+ * this.val(), which Sub overrides, so inlining, devirtualization or folding of that call would print the value of
+ * Base.val() instead.
+ */
+public class OverridingTest {
+
+    private static final String BASE = resource("pt/up/fe/comp2024/optimization/Base.jmm");
+
+    private static final String SUB = resource("pt/up/fe/comp2024/optimization/Sub.jmm");
+
+    private static String runSub(Map<String, String> config) {
+        final File base = compile(backend(BASE, config));
+        return run(backend(SUB, config), base).trim();
+    }
+
+    @Test
+    public void callsOverrideWithoutOptimizations() {
+        assertEquals("42", runSub(config()));
+    }
+
+    @Test
+    public void callsOverrideWithOptimizations() {
+        assertEquals("42", runSub(config("optimize", "true")));
+    }
+
+    @Test
+    public void baseStillRunsItsOwnMethod() {
+        assertEquals("1", run(BASE, config("optimize", "true")).trim());
+    }
+}
@@ -0,0 +1,41 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.OptionalLong;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProfileTest {
+
+    private static Profile profile(String text) throws IOException {
+        final File file = File.createTempFile("jmm", ".profile");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), text);
+
+        return Profile.read(file);
+    }
+
+    @Test
+    public void readsCountsOfMethodsAndLabels() throws IOException {
+        final Profile profile = profile("main 1\nsum 2\nsum:whileCond0 11\n");
+
+        assertEquals(OptionalLong.of(2), profile.count("sum"));
+        assertEquals(OptionalLong.of(11), profile.count("sum", "whileCond0"));
+        assertEquals(OptionalLong.empty(), profile.count("sum", "whileEnd0"));
+    }
+
+    @Test
+    public void copiedLabelsGetTheCountsOfTheOriginals() throws IOException {
+        final Profile profile = profile("main 1\nsum 2\nsum:whileCond0 11\n");
+
+        profile.copyLabel("main", "inl0_whileCond0", "sum", "whileCond0");
+        profile.copyLabel("run", "inl1_inl0_whileCond0", "main", "inl0_whileCond0");
+
+        assertEquals(OptionalLong.of(11), profile.count("main", "inl0_whileCond0"));
+        assertEquals(OptionalLong.of(11), profile.count("run", "inl1_inl0_whileCond0"));
+    }
+}
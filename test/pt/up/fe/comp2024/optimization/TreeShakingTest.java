@@ -0,0 +1,93 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.junit.Test;
+import org.specs.comp.ollir.ClassUnit;
+import org.specs.comp.ollir.Field;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static pt.up.fe.comp2024.CompilerTestUtils.*;
+
+public class TreeShakingTest {
+
+    private static final String SHAKE = """
+            Shake extends %s {
+                .field private hidden.i32;
+                .field visible.i32;
+                .field public shown.i32;
+                .construct Shake().V {
+                    invokespecial(this, "<init>").V;
+                }
+                .method private unused().i32 {
+                    ret.i32 1.i32;
+                }
+                .method private used().i32 {
+                    ret.i32 2.i32;
+                }
+                .method helper().i32 {
+                    ret.i32 3.i32;
+                }
+                .method public run().i32 {
+                    putfield(this, hidden.i32, 1.i32).V;
+                    putfield(this, visible.i32, 2.i32).V;
+                    putfield(this, shown.i32, 3.i32).V;
+                    r.i32 :=.i32 invokevirtual(this, "used").i32;
+                    s.i32 :=.i32 getfield(this, shown.i32).i32;
+                    ret.i32 s.i32;
+                }
+            }
+            """;
+
+    private static final String SHAKE_JMM = resource("pt/up/fe/comp2024/optimization/Shake.jmm");
+
+    private static ClassUnit shake(String ollirCode) {
+        final var ollirResult = new OllirResult(ollirCode, config("optimize", "treeshake"));
+        final ClassUnit classUnit = ollirResult.getOllirClass();
+        new TreeShaking(classUnit, CallGraph.of(classUnit), new ArrayList<>()).apply();
+
+        return classUnit;
+    }
+
+    @Test
+    public void removesMembersMainAndPublicMethodsDontUse() {
+        final ClassUnit classUnit = shake(SHAKE.formatted("Object"));
+
+        assertEquals(List.of("Shake", "used", "run"),
+                classUnit.getMethods().stream().map(Method::getMethodName).toList());
+        assertEquals(List.of("shown"),
+                classUnit.getFields().stream().map(Field::getFieldName).toList());
+    }
+
+    @Test
+    public void keepsMethodsThatMayOverrideTheSuperclass() {
+        final ClassUnit classUnit = shake(SHAKE.formatted("Parent"));
+
+        assertEquals(List.of("Shake", "used", "helper", "run"),
+                classUnit.getMethods().stream().map(Method::getMethodName).toList());
+    }
+
+    @Test
+    public void removesUnusedMembersOfJavammClasses() {
+        final OllirResult ollirResult = optimize(SHAKE_JMM, config("optimize", "treeshake"));
+
+        assertEquals(List.of("Removed method dead, it is never called", "Removed field unused, it is never read"),
+                optimizations(ollirResult.getReports()).stream()
+                        .filter(message -> message.startsWith("Removed"))
+                        .toList());
+        assertEquals(List.of("used"),
+                ollirResult.getOllirClass().getFields().stream().map(Field::getFieldName).toList());
+
+        assertEquals("5\n", assertSameOutput(SHAKE_JMM, config("optimize", "treeshake")).replace("\r", ""));
+    }
+
+    @Test
+    public void shakesOnlyWhenAsked() {
+        final var optimizations = optimizations(optimize(SHAKE_JMM, config("optimize", "true")).getReports());
+
+        assertEquals(List.of(), optimizations.stream().filter(message -> message.startsWith("Removed")).toList());
+    }
+}